@@ -0,0 +1,101 @@
+/*
+ * File: CalculatorBenchmark.java
+ * Description: JMH benchmarks of UpdatedCalculator
+ * on expressions of different shapes.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package benchmarks;
+
+import cmath.Backend;
+import cmath.CompiledExpression;
+import cmath.TieredExpression;
+import cmath.UpdatedCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Average time of evaluating an expression given as a string,
+ * compared with evaluating the same expression compiled in advance
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CalculatorBenchmark {
+
+    @Param({"SHORT", "LONG", "NESTED", "TRIG_POW"})
+    public Shape shape;
+
+    private static final double[] NO_SLOTS = new double[0];
+
+    private String expression;
+    private CompiledExpression compiled;
+    private TieredExpression generated;
+    private ToDoubleFunction<double[]> methodHandle;
+
+    /**
+     * Kinds of the benchmarked expressions
+     */
+    public enum Shape {
+        SHORT("1.0 + 2.0 * 3.0"),
+        LONG("1.5 + 2.25 * 3.0 - 4.75 / 2.0 + 8.0 * 1.25 - 6.5 / 1.3 + 7.0 * 0.5 - 2.0 + 9.75 / 3.25 + 4.0 * 2.5"),
+        NESTED("((((((((1.0 + 2.0) * 3.0) - 4.0) / 5.0) + 6.0) * 7.0) - 8.0) / 9.0)"),
+        TRIG_POW("sin(30.0) * cos(60.0) + tan(45.0) ^ 2.0 - 2.0 ^ (1.5 * 2.0) + cos(15.0) ^ (3.0)");
+
+        final String text;
+
+        Shape(String text) {
+            this.text = text;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        expression = shape.text;
+        compiled = UpdatedCalculator.compile(expression);
+        generated = new TieredExpression(compiled, 0);
+        generated.promote();
+        methodHandle = compiled.toFunction(Backend.METHOD_HANDLE);
+    }
+
+    @Benchmark
+    public double eval() {
+        return UpdatedCalculator.eval(expression, false);
+    }
+
+    @Benchmark
+    public CompiledExpression compile() {
+        return UpdatedCalculator.compile(expression);
+    }
+
+    @Benchmark
+    public double evaluateCompiled() {
+        return compiled.evaluate();
+    }
+
+    @Benchmark
+    public double evaluateMethodHandle() {
+        return methodHandle.applyAsDouble(NO_SLOTS);
+    }
+
+    @Benchmark
+    public double evaluateGenerated() {
+        return generated.evaluate();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * File: CodecBenchmark.java
+ * Description: JMH benchmarks of the binary encoding of expressions
+ * and results, compared with their text form.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package benchmarks;
+
+import cmath.CompiledExpression;
+import cmath.ExpressionCodec;
+import cmath.UpdatedCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time of getting a compiled expression from its text and from its binary
+ * message, and of writing and reading a batch of results as text and as binary
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+    private static final int RESULTS = 1000;
+
+    @Param({"SHORT", "LONG", "TRIG_POW"})
+    public CalculatorBenchmark.Shape shape;
+
+    private String text;
+    private byte[] message;
+    private double[] results;
+    private String resultsText;
+    private ByteBuffer resultsBuffer;
+
+    @Setup
+    public void setUp() {
+        text = shape.text;
+        message = ExpressionCodec.encode(UpdatedCalculator.compile(text), false);
+        results = new double[RESULTS];
+        Random random = new Random(42);
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < RESULTS; i++) {
+            results[i] = random.nextGaussian() * 1000;
+            s.append(results[i]).append('\n');
+        }
+        resultsText = s.toString();
+        resultsBuffer = ByteBuffer.allocateDirect(ExpressionCodec.resultsSize(RESULTS));
+    }
+
+    @Benchmark
+    public CompiledExpression compileText() {
+        return UpdatedCalculator.compile(text);
+    }
+
+    @Benchmark
+    public CompiledExpression decodeBinary() {
+        return ExpressionCodec.decode(message);
+    }
+
+    @Benchmark
+    public String formatResults() {
+        StringBuilder s = new StringBuilder(RESULTS * 20);
+        for (double result : results) {
+            s.append(result).append('\n');
+        }
+        return s.toString();
+    }
+
+    @Benchmark
+    public double parseResults() {
+        double sum = 0;
+        int start = 0;
+        for (int end = resultsText.indexOf('\n'); end >= 0; end = resultsText.indexOf('\n', start)) {
+            sum += Double.parseDouble(resultsText.substring(start, end));
+            start = end + 1;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double encodeAndDecodeResults() {
+        resultsBuffer.clear();
+        ExpressionCodec.encodeResults(results, 0, RESULTS, resultsBuffer);
+        resultsBuffer.flip();
+        return ExpressionCodec.decodeResults(resultsBuffer).get(RESULTS - 1);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * File: FunctionCacheBenchmark.java
+ * Description: JMH benchmarks of the memo of function results
+ * and of integer powers, compared with Math.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package benchmarks;
+
+import cmath.Backend;
+import cmath.CompiledExpression;
+import cmath.FunctionCache;
+import cmath.UpdatedCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Average time of evaluating a trigonometric and an integer-power expression
+ * over a column of angles in whole degrees (360 distinct values) or of random
+ * angles, with the memo on and off, and of Math.pow with the same exponents
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FunctionCacheBenchmark {
+    private static final int ROWS = 16384;      // random angles are many more than the memo holds
+
+    @Param({"false", "true"})
+    public boolean memo;
+
+    @Param({"DEGREES", "RANDOM"})
+    public String arguments;
+
+    private ToDoubleFunction<double[]> trig;
+    private ToDoubleFunction<double[]> power;
+    private double[][] rows;
+
+    @Setup
+    public void setUp() {
+        trig = UpdatedCalculator.compile("sin(x) * cos(x) + tan(x)", "x").toFunction(Backend.BYTECODE);
+        CompiledExpression powers = UpdatedCalculator.compile("x ^ 3 + x ^ 7 - x ^ 12", "x");
+        power = powers.toFunction(Backend.BYTECODE);
+        Random random = new Random(42);
+        rows = new double[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            double x = arguments.equals("DEGREES") ? Math.toRadians(random.nextInt(360)) : random.nextDouble() * 6;
+            rows[i] = new double[]{x};
+        }
+        FunctionCache.clear();
+        FunctionCache.setEnabled(memo);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nhit rate %.3f%n", FunctionCache.getHitRate());
+        FunctionCache.setEnabled(false);
+    }
+
+    @Benchmark
+    public double trigonometry() {
+        double sum = 0;
+        for (double[] row : rows) {
+            sum += trig.applyAsDouble(row);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double integerPowers() {
+        double sum = 0;
+        for (double[] row : rows) {
+            sum += power.applyAsDouble(row);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double mathPow() {
+        double sum = 0;
+        for (double[] row : rows) {
+            double x = row[0];
+            sum += Math.pow(x, 3) + Math.pow(x, 7) - Math.pow(x, 12);
+        }
+        return sum;
+    }
+}
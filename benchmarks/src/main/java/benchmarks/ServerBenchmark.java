@@ -0,0 +1,125 @@
+/*
+ * File: ServerBenchmark.java
+ * Description: JMH benchmarks of the latency of the TCP evaluation server.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package benchmarks;
+
+import cmath.EvaluationServer;
+import cmath.ExpressionEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution (p50, p99, p99.9 in the sample-time report) of a request
+ * answered before the next one is sent, by one client and by four clients sending
+ * the same expression at once, and of a pipelined batch of 64 requests
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerBenchmark {
+    private static final int BATCH = 64;
+
+    private EvaluationServer server;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new EvaluationServer(new ExpressionEngine());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * A connection of a benchmark thread, with its requests encoded once
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        OutputStream out;
+        InputStream in;
+        byte[] request;
+        byte[] batch;
+        byte[] answer = new byte[64];
+
+        @Setup(Level.Trial)
+        public void connect(ServerBenchmark benchmark) throws IOException {
+            socket = new Socket(benchmark.server.getAddress().getAddress(), benchmark.server.getPort());
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = socket.getInputStream();
+            request = "x * 2 + sin(y); 3, 0.5\n".getBytes(StandardCharsets.US_ASCII);
+            batch = "x * 2 + sin(y); 3, 0.5\n".repeat(BATCH).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+
+        /**
+         * Reads answer lines until the given number of them has ended
+         */
+        int readLines(int count) throws IOException {
+            int bytes = 0;
+            while (count > 0) {
+                int read = in.read(answer);
+                if (read < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+                for (int i = 0; i < read; i++) {
+                    if (answer[i] == '\n') {
+                        count--;
+                    }
+                }
+                bytes += read;
+            }
+            return bytes;
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(Client client) throws IOException {
+        client.out.write(client.request);
+        return client.readLines(1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int roundTripFourClients(Client client) throws IOException {
+        client.out.write(client.request);
+        return client.readLines(1);
+    }
+
+    @Benchmark
+    public int pipelinedBatch(Client client) throws IOException {
+        client.out.write(client.batch);
+        return client.readLines(BATCH);
+    }
+}
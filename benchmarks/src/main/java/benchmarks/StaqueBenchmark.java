@@ -0,0 +1,177 @@
+/*
+ * File: StaqueBenchmark.java
+ * Description: JMH benchmarks of the Stack and Queue collections.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package benchmarks;
+
+import linkedlist.staque.ActionLog;
+import linkedlist.staque.ArrayQueue;
+import linkedlist.staque.ArrayStack;
+import linkedlist.staque.IStaque;
+import linkedlist.staque.Queue;
+import linkedlist.staque.Stack;
+import linkedlist.staque.StaqueAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of filling and draining the collections,
+ * directly and through doActions with action objects or an ActionLog
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StaqueBenchmark {
+    private static final int ITEMS = 1024;
+
+    @Param({"Stack", "Queue", "ArrayStack", "ArrayQueue"})
+    public String collection;
+
+    private Integer[] values;
+    private StaqueAction<Integer>[] actions;
+    private ActionLog<Integer> log;
+    private Integer[] results;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        values = new Integer[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            values[i] = i;
+        }
+        // add all values, peek after each one, then extract them all
+        actions = new StaqueAction[ITEMS * 3];
+        for (int i = 0; i < ITEMS; i++) {
+            actions[2 * i] = StaqueAction.add(values[i]);
+            actions[2 * i + 1] = StaqueAction.get();
+            actions[2 * ITEMS + i] = StaqueAction.extract();
+        }
+        log = ActionLog.of(actions);
+        results = new Integer[log.getResultCount()];
+    }
+
+    /**
+     * Adds and then extracts ITEMS values, one operation is one add plus one extract
+     */
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public void addExtract(Blackhole blackhole) {
+        IStaque<Integer> staque = newCollection();
+        for (Integer value : values) {
+            staque.add(value);
+        }
+        while (!staque.isEmpty()) {
+            blackhole.consume(staque.extract());
+        }
+    }
+
+    /**
+     * Replays the recorded actions, one operation is one action
+     */
+    @Benchmark
+    @OperationsPerInvocation(ITEMS * 3)
+    public IStaque<Integer> doActions() {
+        IStaque<Integer> staque = newCollection();
+        staque.doActions(actions, false);
+        return staque;
+    }
+
+    /**
+     * Replays the same actions encoded as an ActionLog, one operation is one action
+     */
+    @Benchmark
+    @OperationsPerInvocation(ITEMS * 3)
+    public Integer[] doActionLog() {
+        IStaque<Integer> staque = newCollection();
+        staque.doActions(log, results);
+        return results;
+    }
+
+    /**
+     * A log of about a million actions in runs of up to 64 equal ones,
+     * as recorded replays look like
+     */
+    @State(Scope.Benchmark)
+    public static class LongLog {
+        static final int ACTIONS = 1 << 20;
+
+        StaqueAction<Integer>[] actions;
+        ActionLog<Integer> log;
+        Integer[] results;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setUp() {
+            actions = new StaqueAction[ACTIONS];
+            int size = 0;
+            int i = 0;
+            for (int run = 0; i < ACTIONS; run++) {
+                int length = Math.min(1 + run * 37 % 64, ACTIONS - i);
+                for (int j = 0; j < length; j++, i++) {
+                    if (run % 3 == 0 || size == 0) {
+                        actions[i] = StaqueAction.add(i);
+                        size++;
+                    } else if (run % 3 == 1) {
+                        actions[i] = StaqueAction.get();
+                    } else {
+                        actions[i] = StaqueAction.extract();
+                        size--;
+                    }
+                }
+            }
+            log = ActionLog.of(actions);
+            results = new Integer[log.getResultCount()];
+        }
+    }
+
+    /**
+     * Replays the long log through doActions, one operation is one action
+     */
+    @Benchmark
+    @OperationsPerInvocation(LongLog.ACTIONS)
+    public IStaque<Integer> doActionsLong(LongLog longLog) {
+        IStaque<Integer> staque = newCollection();
+        staque.doActions(longLog.actions, false);
+        return staque;
+    }
+
+    /**
+     * Replays the long log as an ActionLog, one operation is one action
+     */
+    @Benchmark
+    @OperationsPerInvocation(LongLog.ACTIONS)
+    public Integer[] doActionLogLong(LongLog longLog) {
+        IStaque<Integer> staque = newCollection();
+        staque.doActions(longLog.log, longLog.results);
+        return longLog.results;
+    }
+
+    private IStaque<Integer> newCollection() {
+        switch (collection) {
+            case "Stack": return new Stack<>();
+            case "Queue": return new Queue<>();
+            case "ArrayStack": return new ArrayStack<>();
+            case "ArrayQueue": return new ArrayQueue<>();
+            default: throw new IllegalArgumentException(collection);
+        }
+    }
+}
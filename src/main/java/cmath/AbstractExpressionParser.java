@@ -0,0 +1,216 @@
+/*
+ * File: AbstractExpressionParser.java
+ * Description: Dijkstra's shunting-yard algorithm
+ * shared by the interpreter and the compiler of expressions.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import cmath.ExpressionTokenizer.Token;
+import cmath.UpdatedCalculator.Operator;
+import linkedlist.staque.OperatorStack;
+
+/**
+ * A single-pass parser of arithmetic expressions.
+ * <p>
+ * The tokens are read once from left to right, the operators wait on
+ * the operators stack until all operators of a higher priority are applied,
+ * and brackets are handled on the same stack, so there is no recursion.
+ * What "apply" means is up to subclasses: calculate a value or emit an instruction.
+ */
+abstract class AbstractExpressionParser {
+    protected final ExpressionTokenizer tokenizer;
+    private final OperatorStack<Operator> operators = new OperatorStack<>(Operator.class);
+    protected EvaluationTrace trace;    // records the steps while set, null otherwise
+
+    /**
+     * Make a parser of the expression
+     * @param source A string representation of the expression
+     */
+    protected AbstractExpressionParser(CharSequence source) {
+        checkSource(source);
+        this.tokenizer = new ExpressionTokenizer(source);
+    }
+
+    /**
+     * Start parsing another expression, so the parser and its stacks may be reused;
+     * subclasses reset their own state as well
+     * @param source A string representation of the expression
+     */
+    protected void reset(CharSequence source) {
+        checkSource(source);
+        tokenizer.reset(source);
+        operators.clear();
+    }
+
+    private static void checkSource(CharSequence source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Expression must not be null");
+        }
+    }
+
+    /**
+     * An operand has been read: push its value
+     * @param value A value of the literal
+     */
+    protected abstract void pushConstant(double value);
+
+    /**
+     * An operand has been read: push the value of the variable
+     * named by the current token of the tokenizer
+     */
+    protected abstract void pushVariable();
+
+    /**
+     * An operator has to be applied to the operands pushed last
+     * @param operator A binary operator or a trigonometric function
+     */
+    protected abstract void apply(Operator operator);
+
+    /**
+     * Parses the whole expression, applying all its operators in order
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    protected final void parse() {
+        // True while an operand (not an operator) is awaited
+        boolean expectOperand = true;
+        Token token;
+        while ((token = tokenizer.next()) != Token.END) {
+            if (trace != null) {
+                trace.token(tokenizer.getStart(), tokenizer.getEnd());
+            }
+            switch (token) {
+                case NUMBER:
+                case NAME:
+                    if (!expectOperand) {
+                        throw tokenizer.error("Operator expected");
+                    }
+                    if (token == Token.NUMBER) {
+                        pushConstant(tokenizer.getNumber());
+                    } else {
+                        pushVariable();
+                    }
+                    completeFunctions();
+                    expectOperand = false;
+                    break;
+                case FUNCTION:
+                    if (!expectOperand) {
+                        throw tokenizer.error("Operator expected");
+                    }
+                    // sin, cos, tan wait for their argument on the operators stack
+                    pushOperator(tokenizer.getOperator());
+                    break;
+                case OPERATOR:
+                    expectOperand = handleOperator(tokenizer.getOperator(), expectOperand);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (expectOperand) {
+            throw tokenizer.error("Unexpected end of expression");
+        }
+        // Apply half-solved expression without precedence brackets
+        while (!operators.isEmpty()) {
+            Operator operator = popOperator();
+            if (operator == Operator.OPEN) {
+                throw tokenizer.error("Unmatched '('");
+            }
+            apply(operator);
+        }
+    }
+
+    /**
+     * Handles a bracket or a binary operator
+     * @param operatorCurrent The operator that has been read
+     * @param expectOperand   Whether an operand is awaited
+     * @return Whether an operand is awaited after the operator
+     */
+    private boolean handleOperator(Operator operatorCurrent, boolean expectOperand) {
+        if (operatorCurrent == Operator.OPEN) {
+            if (!expectOperand) {
+                throw tokenizer.error("Operator expected");
+            }
+            pushOperator(Operator.OPEN);
+            return true;
+        }
+        if (expectOperand) {
+            throw tokenizer.error("Operand expected");
+        }
+        if (operatorCurrent == Operator.CLOSE) {
+            // Count till meet '(' and extract it
+            while (!operators.isEmpty() && operators.get() != Operator.OPEN) {
+                apply(popOperator());
+            }
+            if (operators.isEmpty()) {
+                throw tokenizer.error("Unmatched ')'");
+            }
+            popOperator();
+            completeFunctions();
+            return false;
+        }
+        // Operators of the same or higher priority are applied first,
+        // which makes all binary operators (including '^') left-associative
+        while (!operators.isEmpty() &&
+               precedence(operators.get()) >= precedence(operatorCurrent)) {
+            apply(popOperator());
+        }
+        pushOperator(operatorCurrent);
+        return true;
+    }
+
+    /**
+     * Applies the functions whose argument has just been completed:
+     * they bind tighter than any binary operator, so sin45 ^ 2 is (sin45) ^ 2
+     */
+    private void completeFunctions() {
+        while (!operators.isEmpty() && isFunction(operators.get())) {
+            apply(popOperator());
+        }
+    }
+
+    private void pushOperator(Operator operator) {
+        if (trace != null) {
+            trace.pushOperator(operator, tokenizer.getStart(), tokenizer.getEnd());
+        }
+        operators.add(operator);
+    }
+
+    private Operator popOperator() {
+        Operator operator = operators.extract();
+        if (trace != null) {
+            trace.popOperator(operator, tokenizer.getStart(), tokenizer.getEnd());
+        }
+        return operator;
+    }
+
+    static boolean isFunction(Operator operator) {
+        return operator == Operator.SIN || operator == Operator.COS || operator == Operator.TAN;
+    }
+
+    /**
+     * Get a priority of the operator, '(' has the lowest one
+     * so it is never applied by the operators coming after it
+     */
+    private static int precedence(Operator operator) {
+        switch (operator) {
+            case ADD:
+            case SUB:
+                return 1;
+            case MUL:
+            case DIV:
+                return 2;
+            case POW:
+                return 3;
+            case SIN:
+            case COS:
+            case TAN:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * File: Backend.java
+ * Description: The ways a compiled expression may be evaluated.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * An evaluation backend of compiled expressions,
+ * from the cheapest to prepare to the fastest to run
+ */
+public enum Backend {
+    /** Walk the program of the CompiledExpression on every call, nothing to prepare */
+    INTERPRETER,
+    /** Compose one MethodHandle tree per expression, bound as a constant the JIT inlines */
+    METHOD_HANDLE,
+    /** Generate a hidden class per expression, compiled by the JIT like any other method */
+    BYTECODE;
+
+    /**
+     * Prepares the evaluation of an expression with this backend
+     * @param expression A compiled expression
+     * @return A function of the variable slots that doesn't check their number;
+     * null if the expression is to be interpreted
+     */
+    ToDoubleFunction<double[]> prepare(CompiledExpression expression) {
+        switch (this) {
+            case METHOD_HANDLE:
+                return MethodHandleBuilder.build(expression);
+            case BYTECODE:
+                return BytecodeGenerator.generate(expression);
+            default:
+                return null;
+        }
+    }
+}
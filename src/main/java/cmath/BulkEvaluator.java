@@ -0,0 +1,225 @@
+/*
+ * File: BulkEvaluator.java
+ * Description: Evaluates large sets of expressions or rows of values
+ * in parallel on a ForkJoinPool.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A parallel evaluator of bulk inputs.
+ * <p>
+ * The input is split in halves until a part has at most chunkSize jobs
+ * or rows, and the parts are evaluated by the workers of a ForkJoinPool.
+ * Within a part the jobs are grouped by their expression, so every distinct
+ * expression is looked up once per part and its jobs are evaluated in a row
+ * by the same code. The workers write disjoint ranges of the results and
+ * share only the engine's cache, whose lookups take no lock, so they don't
+ * contend with each other.
+ */
+public final class BulkEvaluator {
+    /** The default maximal number of jobs or rows evaluated by one task */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private static final double[] NO_VALUES = new double[0];
+
+    private final ExpressionEngine engine;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * Make an evaluator with UpdatedCalculator's engine, the common pool
+     * and the default chunk size
+     */
+    public BulkEvaluator() {
+        this(UpdatedCalculator.getEngine(), ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Make an evaluator
+     * @param engine    An engine to compile and cache the expressions with
+     * @param pool      A pool to run the tasks in
+     * @param chunkSize The maximal number of jobs or rows evaluated by one task
+     */
+    public BulkEvaluator(ExpressionEngine engine, ForkJoinPool pool, int chunkSize) {
+        if (engine == null || pool == null) {
+            throw new IllegalArgumentException("Engine and pool must not be null");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.engine = engine;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Evaluates a set of jobs: results[i] = value of expressions[i] with values[i].
+     * A job that fails (a malformed expression, too few values, a division by 0)
+     * gets NaN as its result, the other jobs are still evaluated
+     * @param expressions An expression of every job
+     * @param values      The variable values of every job, in the order of
+     *                    their first appearance; a null row means no variables
+     * @param results     An array to write the value of every job to
+     * @return The number of failed jobs
+     * @throws IllegalArgumentException if the arrays are of different lengths
+     */
+    public long evaluate(String[] expressions, double[][] values, double[] results) {
+        if (expressions.length != values.length || expressions.length != results.length) {
+            throw new IllegalArgumentException("Expected arrays of equal length, got " + expressions.length
+                    + ", " + values.length + " and " + results.length);
+        }
+        LongAdder failures = new LongAdder();
+        pool.invoke(new JobsTask(expressions, values, results, 0, results.length, failures));
+        return failures.sum();
+    }
+
+    /**
+     * Evaluates one expression for every row of the columnar input,
+     * see CompiledExpression.evaluate(columns, results)
+     * @param expression A string representation of the expression
+     * @param columns    A column of values of every variable: columns[slot][row]
+     * @param results    An array to write the value of every row to
+     * @throws IllegalArgumentException if the expression is malformed or too long,
+     * or the columns don't match
+     * @throws ArithmeticException if the expression divides by 0 in any row
+     */
+    public void evaluate(String expression, double[][] columns, double[] results) {
+        CompiledExpression compiled = engine.compile(expression);
+        pool.invoke(new RowsTask(compiled, columns, results, 0, results.length));
+        engine.record(results.length, 0);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Evaluates a range of jobs, splitting it while it is larger than a chunk
+     */
+    @SuppressWarnings("serial")   // a fork/join task is never serialized
+    private final class JobsTask extends RecursiveAction {
+        private final String[] expressions;
+        private final double[][] values;
+        private final double[] results;
+        private final int from;
+        private final int to;
+        private final LongAdder failures;
+
+        JobsTask(String[] expressions, double[][] values, double[] results, int from, int to, LongAdder failures) {
+            this.expressions = expressions;
+            this.values = values;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new JobsTask(expressions, values, results, from, middle, failures),
+                        new JobsTask(expressions, values, results, middle, to, failures));
+                return;
+            }
+            // the jobs of every distinct expression, in order
+            Map<String, JobGroup> groups = new HashMap<>();
+            for (int job = from; job < to; job++) {
+                groups.computeIfAbsent(expressions[job], key -> new JobGroup()).add(job);
+            }
+            long failed = 0;
+            for (Map.Entry<String, JobGroup> group : groups.entrySet()) {
+                failed += evaluateGroup(group.getKey(), group.getValue());
+            }
+            if (failed > 0) {
+                failures.add(failed);
+            }
+            engine.record(to - from - failed, failed);
+        }
+
+        /**
+         * Evaluates the jobs of one expression
+         * @return The number of failed jobs
+         */
+        private long evaluateGroup(String expression, JobGroup group) {
+            TieredExpression tiered;
+            try {
+                tiered = engine.tiered(expression);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < group.size; i++) {
+                    results[group.jobs[i]] = Double.NaN;
+                }
+                return group.size;
+            }
+            long failed = 0;
+            for (int i = 0; i < group.size; i++) {
+                int job = group.jobs[i];
+                double[] slots = values[job] != null ? values[job] : NO_VALUES;
+                try {
+                    results[job] = tiered.evaluate(slots);
+                } catch (RuntimeException e) {
+                    results[job] = Double.NaN;
+                    failed++;
+                }
+            }
+            return failed;
+        }
+    }
+
+    /**
+     * A growable list of job indices
+     */
+    private static final class JobGroup {
+        private int[] jobs = new int[4];
+        private int size;
+
+        void add(int job) {
+            if (size == jobs.length) {
+                jobs = Arrays.copyOf(jobs, size * 2);
+            }
+            jobs[size++] = job;
+        }
+    }
+
+    /**
+     * Evaluates a range of rows in column batches, splitting it while it is larger than a chunk
+     */
+    @SuppressWarnings("serial")   // a fork/join task is never serialized
+    private final class RowsTask extends RecursiveAction {
+        private final CompiledExpression expression;
+        private final double[][] columns;
+        private final double[] results;
+        private final int from;
+        private final int to;
+
+        RowsTask(CompiledExpression expression, double[][] columns, double[] results, int from, int to) {
+            this.expression = expression;
+            this.columns = columns;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RowsTask(expression, columns, results, from, middle),
+                        new RowsTask(expression, columns, results, middle, to));
+                return;
+            }
+            expression.evaluate(columns, results, from, to);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * File: ByteSequence.java
+ * Description: A reusable CharSequence view of a region
+ * of a ByteBuffer holding ASCII text.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A view of bytes as characters, one byte per character (ISO-8859-1),
+ * so the tokenizer reads a mapped file without decoding it into Strings.
+ * The view is moved over the buffer with reset; only subSequence and
+ * toString, used for error messages and rare literals, make copies.
+ */
+final class ByteSequence implements CharSequence {
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+
+    /**
+     * Moves the view to another region
+     * @param buffer A buffer holding the text, its position and limit are not used
+     * @param start  An index of the first byte of the region
+     * @param end    An index after the last byte of the region
+     */
+    void reset(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = end - start;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(start + from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
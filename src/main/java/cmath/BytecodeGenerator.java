@@ -0,0 +1,420 @@
+/*
+ * File: BytecodeGenerator.java
+ * Description: Translates the program of a CompiledExpression
+ * into a JVM class, so HotSpot compiles the expression like any other method.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import static cmath.CompiledExpression.ADD;
+import static cmath.CompiledExpression.CONST;
+import static cmath.CompiledExpression.COS;
+import static cmath.CompiledExpression.DIV;
+import static cmath.CompiledExpression.MUL;
+import static cmath.CompiledExpression.POW;
+import static cmath.CompiledExpression.SIN;
+import static cmath.CompiledExpression.SUB;
+import static cmath.CompiledExpression.TAN;
+import static cmath.CompiledExpression.VAR;
+
+/**
+ * A generator of hidden classes implementing ToDoubleFunction&lt;double[]&gt;.
+ * <p>
+ * The generated applyAsDouble(slots) is straight-line code: every instruction
+ * of the program stores its value into a local variable, operators load their
+ * operands from those locals, and functions call FunctionCache directly.
+ * There are no branches, so the class file needs no stack map frames.
+ * <p>
+ * The class is defined as a hidden class of this package, so it may call
+ * CompiledExpression.divide and FunctionCache and is unloaded once it is
+ * no longer referenced.
+ * <p>
+ * bind makes another kind of hidden class, whose applyAsDouble calls a method
+ * handle tree loaded by ldc of a dynamic constant: the tree is the class data
+ * of the class, so to the JIT it is a constant and is inlined like the target
+ * of an invokedynamic. The class file is the same for every tree.
+ */
+final class BytecodeGenerator {
+    /**
+     * HotSpot doesn't JIT-compile methods with more bytecode than this,
+     * larger programs stay interpreted
+     */
+    static final int MAX_CODE_LENGTH = 8000;
+
+    private static final String CLASS_NAME = "cmath/GeneratedExpression";
+    private static final String BOUND_CLASS_NAME = "cmath/BoundMethodHandle";
+    private static final int CLASS_VERSION = 61;   // Java 17
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    //region Constant pool tags and opcodes
+    private static final int TAG_UTF8 = 1;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_CLASS = 7;
+    private static final int TAG_METHODREF = 10;
+    private static final int TAG_NAME_AND_TYPE = 12;
+    private static final int TAG_METHOD_HANDLE = 15;
+    private static final int TAG_DYNAMIC = 17;
+    private static final int REF_INVOKE_STATIC = 6;
+
+    private static final int OP_SIPUSH = 0x11;
+    private static final int OP_LDC_W = 0x13;
+    private static final int OP_LDC2_W = 0x14;
+    private static final int OP_DLOAD = 0x18;
+    private static final int OP_ALOAD_0 = 0x2a;
+    private static final int OP_ALOAD_1 = 0x2b;
+    private static final int OP_ALOAD_2 = 0x2c;
+    private static final int OP_DALOAD = 0x31;
+    private static final int OP_DSTORE = 0x39;
+    private static final int OP_ASTORE_2 = 0x4d;
+    private static final int OP_DADD = 0x63;
+    private static final int OP_DSUB = 0x67;
+    private static final int OP_DMUL = 0x6b;
+    private static final int OP_DRETURN = 0xaf;
+    private static final int OP_RETURN = 0xb1;
+    private static final int OP_INVOKEVIRTUAL = 0xb6;
+    private static final int OP_INVOKESPECIAL = 0xb7;
+    private static final int OP_INVOKESTATIC = 0xb8;
+    private static final int OP_CHECKCAST = 0xc0;
+    private static final int OP_WIDE = 0xc4;
+    //endregion
+
+    private static final int FIRST_VALUE_LOCAL = 3;     // this, the argument, the slots array
+
+    private final CompiledExpression expression;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<Object, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;  // the entry 0 is unused
+
+    /**
+     * The class file of bind, made on the first use
+     */
+    private static final class BoundClass {
+        static final byte[] FILE = new BytecodeGenerator(null).boundClassFile();
+    }
+
+    private BytecodeGenerator(CompiledExpression expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Generates and loads a class evaluating the expression
+     * @param expression A compiled expression
+     * @return A function of the variable slots; null if the program is too large to generate
+     */
+    static ToDoubleFunction<double[]> generate(CompiledExpression expression) {
+        byte[] classFile = new BytecodeGenerator(expression).classFile();
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            @SuppressWarnings("unchecked")
+            ToDoubleFunction<double[]> function = (ToDoubleFunction<double[]>) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+            return function;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load the generated class of " + expression.getSource(), e);
+        }
+    }
+
+    /**
+     * Loads a class calling a method handle tree held as its constant
+     * @param tree A handle of type (double[])double
+     * @return A function of the variable slots
+     */
+    static ToDoubleFunction<double[]> bind(MethodHandle tree) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(BoundClass.FILE, tree, true);
+            @SuppressWarnings("unchecked")
+            ToDoubleFunction<double[]> function = (ToDoubleFunction<double[]>) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+            return function;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load the class binding " + tree, e);
+        }
+    }
+
+    /**
+     * Makes the class file
+     * @return The bytes of the class; null if the method would be too large
+     */
+    private byte[] classFile() {
+        try {
+            byte[] code = applyCode();
+            if (code.length > MAX_CODE_LENGTH) {
+                return null;
+            }
+            return classFile(CLASS_NAME, code, 4, FIRST_VALUE_LOCAL + 2 * expression.size(), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // never thrown by in-memory streams
+        }
+    }
+
+    /**
+     * Makes the class file of bind, whose applyAsDouble is
+     * ((MethodHandle) classData).invokeExact((double[]) slots)
+     */
+    private byte[] boundClassFile() {
+        try {
+            int classDataMethod = methodRef("java/lang/invoke/MethodHandles", "classData",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+            int classData = constant("HclassData", TAG_METHOD_HANDLE,
+                    new byte[]{REF_INVOKE_STATIC, (byte) (classDataMethod >> 8), (byte) classDataMethod}, 1);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream code = new DataOutputStream(bytes);
+            code.writeByte(OP_LDC_W);
+            code.writeShort(constant("DclassData", TAG_DYNAMIC,
+                    new int[]{0, nameAndType("_", "Ljava/lang/invoke/MethodHandle;")}, 1));
+            code.writeByte(OP_ALOAD_1);
+            code.writeByte(OP_CHECKCAST);
+            code.writeShort(classRef("[D"));
+            code.writeByte(OP_INVOKEVIRTUAL);
+            code.writeShort(methodRef("java/lang/invoke/MethodHandle", "invokeExact", "([D)D"));
+            code.writeByte(OP_DRETURN);
+            code.flush();
+            return classFile(BOUND_CLASS_NAME, bytes.toByteArray(), 2, 2, classData);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a class with a constructor and applyAsDouble
+     * @param bootstrapMethod A method handle entry of the only bootstrap method; 0 if there is none
+     */
+    private byte[] classFile(String name, byte[] code, int maxStack, int maxLocals,
+                             int bootstrapMethod) throws IOException {
+        byte[] constructorCode = constructorCode();
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+        int functionInterface = classRef("java/util/function/ToDoubleFunction");
+        int codeName = utf8("Code");
+        int constructorName = utf8("<init>");
+        int constructorType = utf8("()V");
+        int applyName = utf8("applyAsDouble");
+        int applyType = utf8("(Ljava/lang/Object;)D");
+        int bootstrapName = bootstrapMethod > 0 ? utf8("BootstrapMethods") : 0;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        out.writeShort(poolCount);
+        poolOut.flush();
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(functionInterface);
+        out.writeShort(0);  // no fields
+        out.writeShort(2);  // the constructor and applyAsDouble
+        writeMethod(out, constructorName, constructorType, codeName, 1, 1, constructorCode);
+        writeMethod(out, applyName, applyType, codeName, maxStack, maxLocals, code);
+        if (bootstrapMethod > 0) {
+            out.writeShort(1);
+            out.writeShort(bootstrapName);
+            out.writeInt(6);
+            out.writeShort(1);
+            out.writeShort(bootstrapMethod);
+            out.writeShort(0);  // no static arguments
+        } else {
+            out.writeShort(0);  // no class attributes
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Makes the body of applyAsDouble(Object slots)
+     */
+    private byte[] applyCode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+        code.writeByte(OP_ALOAD_1);
+        code.writeByte(OP_CHECKCAST);
+        code.writeShort(classRef("[D"));
+        code.writeByte(OP_ASTORE_2);
+        int pow = methodRef("cmath/FunctionCache", "pow", "(DD)D");
+        int divide = methodRef("cmath/CompiledExpression", "divide", "(DD)D");
+        for (int pc = 0; pc < expression.size(); pc++) {
+            byte opcode = expression.opcodeAt(pc);
+            switch (opcode) {
+                case CONST:
+                    code.writeByte(OP_LDC2_W);
+                    code.writeShort(doubleConstant(expression.constantAt(pc)));
+                    break;
+                case VAR:
+                    code.writeByte(OP_ALOAD_2);
+                    code.writeByte(OP_SIPUSH);
+                    code.writeShort(expression.lhsAt(pc));
+                    code.writeByte(OP_DALOAD);
+                    break;
+                case SIN:
+                case COS:
+                case TAN:
+                    loadValue(code, expression.lhsAt(pc));
+                    code.writeByte(OP_INVOKESTATIC);
+                    code.writeShort(methodRef("cmath/FunctionCache", CompiledExpression.symbolOf(opcode), "(D)D"));
+                    break;
+                default:
+                    loadValue(code, expression.lhsAt(pc));
+                    loadValue(code, expression.rhsAt(pc));
+                    switch (opcode) {
+                        case ADD -> code.writeByte(OP_DADD);
+                        case SUB -> code.writeByte(OP_DSUB);
+                        case MUL -> code.writeByte(OP_DMUL);
+                        case DIV -> {
+                            code.writeByte(OP_INVOKESTATIC);
+                            code.writeShort(divide);
+                        }
+                        case POW -> {
+                            code.writeByte(OP_INVOKESTATIC);
+                            code.writeShort(pow);
+                        }
+                        default -> throw new IllegalStateException("Unknown opcode: " + opcode);
+                    }
+                    break;
+            }
+            localInstruction(code, OP_DSTORE, pc);
+        }
+        loadValue(code, expression.size() - 1);
+        code.writeByte(OP_DRETURN);
+        code.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Makes the body of the constructor calling Object()
+     */
+    private byte[] constructorCode() {
+        int objectConstructor = methodRef("java/lang/Object", "<init>", "()V");
+        return new byte[]{
+                (byte) OP_ALOAD_0,
+                (byte) OP_INVOKESPECIAL, (byte) (objectConstructor >> 8), (byte) objectConstructor,
+                (byte) OP_RETURN
+        };
+    }
+
+    private void loadValue(DataOutputStream code, int pc) throws IOException {
+        localInstruction(code, OP_DLOAD, pc);
+    }
+
+    /**
+     * Writes a load or a store of the local variable holding a value of the instruction
+     */
+    private void localInstruction(DataOutputStream code, int opcode, int pc) throws IOException {
+        int local = FIRST_VALUE_LOCAL + 2 * pc;
+        if (local <= 0xff) {
+            code.writeByte(opcode);
+            code.writeByte(local);
+        } else {
+            code.writeByte(OP_WIDE);
+            code.writeByte(opcode);
+            code.writeShort(local);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);  // the Code attribute only
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);  // no exception handlers
+        out.writeShort(0);  // no code attributes
+    }
+
+    //region Constant pool
+
+    private int utf8(String value) {
+        return constant("U" + value, TAG_UTF8, value, 1);
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, TAG_CLASS, name, 1);
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerClass = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return constant("M" + owner + "." + name + descriptor, TAG_METHODREF,
+                new int[]{ownerClass, nameAndType}, 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N" + name + descriptor, TAG_NAME_AND_TYPE, new int[]{nameIndex, descriptorIndex}, 1);
+    }
+
+    private int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return constant(bits, TAG_DOUBLE, bits, 2);    // a double takes two entries
+    }
+
+    /**
+     * Adds an entry to the constant pool unless an equal one is there
+     * @param key     A key to look up equal entries
+     * @param tag     A tag of the entry
+     * @param payload A String, an int, an int[] of two indices, a long or raw bytes
+     * @param slots   The number of pool indices the entry takes
+     * @return An index of the entry
+     */
+    private int constant(Object key, int tag, Object payload, int slots) {
+        Integer existing = poolIndices.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            poolOut.writeByte(tag);
+            if (payload instanceof String text) {
+                poolOut.writeUTF(text);
+            } else if (payload instanceof Integer index) {
+                poolOut.writeShort(index);
+            } else if (payload instanceof int[] indices) {
+                poolOut.writeShort(indices[0]);
+                poolOut.writeShort(indices[1]);
+            } else if (payload instanceof byte[] raw) {
+                poolOut.write(raw);
+            } else {
+                poolOut.writeLong((Long) payload);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int index = poolCount;
+        poolCount += slots;
+        poolIndices.put(key, index);
+        return index;
+    }
+    //endregion Constant pool
+}
@@ -0,0 +1,576 @@
+/*
+ * File: CompiledExpression.java
+ * Description: An arithmetic expression that was parsed once
+ * by UpdatedCalculator.compile and may be evaluated many times
+ * without touching the source string again.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * An immutable, pre-parsed arithmetic expression.
+ * <p>
+ * The expression is stored as a flat program in postfix order:
+ * every instruction is either a literal or an operator
+ * that refers to the instructions computing its operands
+ * (those always have smaller indices). The last instruction is the result.
+ * <p>
+ * Variables are resolved to slot indices at compile time,
+ * so their values are passed as an array: the value of
+ * the variable getVariables()[i] is slots[i].
+ * <p>
+ * Evaluation runs the program once from the first instruction to the last,
+ * without recursion, parsing or string work, into a small register array
+ * taken from a pool shared by all expressions, so every instruction is
+ * computed once however deep the expression is or however many operators
+ * share its value, nothing is allocated per call, and one instance may be
+ * shared and evaluated by many threads at once.
+ */
+public final class CompiledExpression {
+    //region Opcodes
+    static final byte CONST = 0;    // a numeric literal
+    static final byte ADD = 1;
+    static final byte SUB = 2;
+    static final byte MUL = 3;
+    static final byte DIV = 4;
+    static final byte POW = 5;
+    static final byte SIN = 6;
+    static final byte COS = 7;
+    static final byte TAN = 8;
+    static final byte VAR = 9;      // a variable, its slot index is kept in lhs
+    //endregion Opcodes
+
+    private static final double[] NO_SLOTS = new double[0];
+    private static final int BATCH_CHUNK = 256;  // rows evaluated per pass over the program
+    private static final int MIN_REGISTERS = 16;
+    // the register arrays of evaluate(slots), grown to the largest registerCount they served
+    private static final ScratchPool<double[]> REGISTERS = new ScratchPool<>(() -> new double[MIN_REGISTERS]);
+
+    private String source;            // the text this expression was compiled from, made lazily if null
+    private final String[] variables; // a name of every variable slot
+    private final byte[] opcodes;     // an operation of every instruction
+    private final double[] constants; // a literal value of every CONST instruction
+    private final int[] lhs;          // an index of the 1st (or the only) operand
+    private final int[] rhs;          // an index of the 2nd operand of binary operators
+    private final int[] registers;    // a register (a batch buffer) every instruction writes to
+    private final int registerCount;  // the number of registers
+
+    /**
+     * Make a compiled expression from the ready program arrays
+     * (the arrays are owned by this object afterwards)
+     * @param source    A text of the expression; null to use the postfix form when asked
+     * @param variables A name of every variable slot
+     * @param opcodes   An operation of every instruction
+     * @param constants A literal of every CONST instruction
+     * @param lhs       An index of the 1st operand of every instruction
+     * @param rhs       An index of the 2nd operand of every instruction
+     */
+    CompiledExpression(String source, String[] variables,
+                       byte[] opcodes, double[] constants, int[] lhs, int[] rhs) {
+        this.variables = variables;
+        this.opcodes = opcodes;
+        this.constants = constants;
+        this.lhs = lhs;
+        this.rhs = rhs;
+        this.registers = new int[opcodes.length];
+        this.registerCount = allocateRegisters();
+        this.source = source;
+    }
+
+    /**
+     * Evaluates the expression that has no variables
+     * @return A value of the expression
+     * @throws ArithmeticException if the expression divides by 0
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public double evaluate() {
+        return evaluate(NO_SLOTS);
+    }
+
+    /**
+     * Evaluates the expression for the given values of its variables
+     * @param slots A value of every variable, in the order of getVariables()
+     * @return A value of the expression
+     * @throws ArithmeticException if the expression divides by 0
+     * @throws IllegalArgumentException if there are fewer slots than variables
+     */
+    public double evaluate(double[] slots) {
+        checkSlots(slots);
+        double[] values = REGISTERS.acquire();
+        if (values.length < registerCount) {
+            values = new double[Math.max(registerCount, 2 * values.length)];
+        }
+        try {
+            return run(slots, values);
+        } finally {
+            REGISTERS.release(values);
+        }
+    }
+
+    /**
+     * Evaluates the expression for every row of the columnar input
+     * @param columns A column of values of every variable: columns[slot][row]
+     * @param results An array to write the value of every row to;
+     *                its length is the number of rows
+     * @throws ArithmeticException if the expression divides by 0 in any row
+     * @throws IllegalArgumentException if there are fewer columns than variables
+     * or some column is shorter than results
+     */
+    public void evaluate(double[][] columns, double[] results) {
+        evaluate(columns, results, 0, results.length);
+    }
+
+    /**
+     * Evaluates the expression for a range of rows of the columnar input.
+     * <p>
+     * Each operation is applied to a chunk of rows in a tight loop over arrays,
+     * which HotSpot unrolls and vectorizes, instead of walking the program per row
+     * @param columns A column of values of every variable: columns[slot][row]
+     * @param results An array to write the value of every row to
+     * @param from    The first row to evaluate
+     * @param to      The row after the last row to evaluate
+     * @throws ArithmeticException if the expression divides by 0 in any row
+     * @throws IllegalArgumentException if there are fewer columns than variables
+     * or some column is shorter than the range
+     */
+    public void evaluate(double[][] columns, double[] results, int from, int to) {
+        if (columns.length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length
+                    + " variable columns, got " + columns.length);
+        }
+        if (from < 0 || to > results.length || from > to) {
+            throw new IllegalArgumentException("Invalid row range [" + from + ", " + to + ")");
+        }
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (columns[slot].length < to) {
+                throw new IllegalArgumentException("Column of '" + variables[slot] + "' is too short");
+            }
+        }
+        double[][] buffers = new double[registerCount][Math.min(BATCH_CHUNK, to - from)];
+        for (int offset = from; offset < to; offset += BATCH_CHUNK) {
+            int length = Math.min(BATCH_CHUNK, to - offset);
+            evaluateChunk(columns, buffers, offset, length);
+            System.arraycopy(buffers[registers[opcodes.length - 1]], 0, results, offset, length);
+        }
+    }
+
+    /**
+     * Makes an equivalent expression with fewer instructions: constant subexpressions
+     * are folded, x ^ 2 becomes x * x, operations with 0 and 1 that don't change
+     * the other operand are removed, and equal subexpressions become one instruction,
+     * computed once by evaluate, batches and the bytecode backend (a method handle
+     * tree still computes it at every use). An optimized expression gives the same
+     * values, except that x + 0 gives x where the sign of a zero x is kept;
+     * a division by 0 still throws when evaluated: it is not folded, and x ^ 0
+     * becomes 1 only if x doesn't divide
+     * @return The optimized expression (this one is not changed)
+     */
+    public CompiledExpression optimize() {
+        return ExpressionOptimizer.optimize(this);
+    }
+
+    /**
+     * Prepares the evaluation of this expression with the given backend,
+     * so that the cost of preparing it is paid once
+     * @param backend A backend to evaluate with
+     * @return A function of the variable slots, like evaluate(slots);
+     * an interpreting one if the backend can't handle this expression
+     */
+    public ToDoubleFunction<double[]> toFunction(Backend backend) {
+        ToDoubleFunction<double[]> prepared = backend.prepare(this);
+        if (prepared == null) {
+            return this::evaluate;
+        }
+        return slots -> {
+            checkSlots(slots);
+            return prepared.applyAsDouble(slots);
+        };
+    }
+
+    /**
+     * Get the names of the variables, a variable's index is its slot
+     * @return A copy of the variable names
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Get the slot of a variable
+     * @param name A name of the variable
+     * @return The slot index; -1 if the expression has no such variable
+     */
+    public int slotOf(String name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of instructions in the program
+     * @return The program size
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    /**
+     * Get the text this expression was compiled from
+     * @return The source expression
+     */
+    public String getSource() {
+        String text = source;
+        if (text == null) {
+            // a racing thread makes an equal string, which is safe to publish
+            text = toString();
+            source = text;
+        }
+        return text;
+    }
+
+    /**
+     * Makes a postfix (RPN) representation of the expression;
+     * a subexpression shared by an optimized program is written at every use
+     * @return A space-separated list of literals, variables and operator symbols
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        // instructions to write, an operator whose operands are already written is pushed as ~pc
+        int[] pending = new int[16];
+        int top = 0;
+        pending[top++] = opcodes.length - 1;
+        while (top > 0) {
+            int pc = pending[--top];
+            if (pc < 0 || opcodes[pc] == CONST || opcodes[pc] == VAR) {
+                if (s.length() > 0) {
+                    s.append(' ');
+                }
+                if (pc < 0) {
+                    s.append(symbolOf(opcodes[~pc]));
+                } else if (opcodes[pc] == CONST) {
+                    s.append(constants[pc]);
+                } else {
+                    s.append(variables[lhs[pc]]);
+                }
+                continue;
+            }
+            if (top + 3 > pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[top++] = ~pc;
+            if (rhs[pc] >= 0) {
+                pending[top++] = rhs[pc];
+            }
+            pending[top++] = lhs[pc];
+        }
+        return s.toString();
+    }
+
+    /**
+     * Checks that there is a value of every variable
+     * @param slots Values of the variables
+     * @throws IllegalArgumentException if there are fewer slots than variables
+     */
+    void checkSlots(double[] slots) {
+        if (slots.length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length
+                    + " variable values, got " + slots.length);
+        }
+    }
+
+    //region Program access
+
+    String[] variables() {
+        return variables;
+    }
+
+    byte opcodeAt(int pc) {
+        return opcodes[pc];
+    }
+
+    /**
+     * Get the number of nodes of the expression written out as a tree, where an
+     * instruction shared by several operators counts at every use; this is the
+     * length of toString() in tokens and the work of a method handle tree
+     * @return The tree size, saturated at 2^61
+     */
+    long treeSize() {
+        long[] sizes = new long[opcodes.length];
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            long size = 1;
+            if (opcodes[pc] != CONST && opcodes[pc] != VAR) {
+                size += sizes[lhs[pc]] + (rhs[pc] >= 0 ? sizes[rhs[pc]] : 0);
+            }
+            sizes[pc] = Math.min(size, 1L << 61);
+        }
+        return sizes[opcodes.length - 1];
+    }
+
+    /**
+     * Get the number of operators on the longest path from the result to an operand
+     * @return The depth, 0 for a single number or variable
+     */
+    int depth() {
+        int[] depths = new int[opcodes.length];
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            if (opcodes[pc] != CONST && opcodes[pc] != VAR) {
+                depths[pc] = 1 + Math.max(depths[lhs[pc]], rhs[pc] >= 0 ? depths[rhs[pc]] : 0);
+            }
+        }
+        return depths[opcodes.length - 1];
+    }
+
+    double constantAt(int pc) {
+        return constants[pc];
+    }
+
+    int lhsAt(int pc) {
+        return lhs[pc];
+    }
+
+    int rhsAt(int pc) {
+        return rhs[pc];
+    }
+    //endregion Program access
+
+    /**
+     * Runs the whole program for one row of values
+     * @param slots  A value of every variable
+     * @param values A register array of registerCount values
+     * @return A value of the last instruction
+     */
+    private double run(double[] slots, double[] values) {
+        // an operand's register may be reused by its operator, which reads it first
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            double value;
+            switch (opcodes[pc]) {
+                case CONST:
+                    value = constants[pc];
+                    break;
+                case VAR:
+                    value = slots[lhs[pc]];
+                    break;
+                case ADD:
+                    value = values[registers[lhs[pc]]] + values[registers[rhs[pc]]];
+                    break;
+                case SUB:
+                    value = values[registers[lhs[pc]]] - values[registers[rhs[pc]]];
+                    break;
+                case MUL:
+                    value = values[registers[lhs[pc]]] * values[registers[rhs[pc]]];
+                    break;
+                case DIV:
+                    value = divide(values[registers[lhs[pc]]], values[registers[rhs[pc]]]);
+                    break;
+                case POW:
+                    value = FunctionCache.pow(values[registers[lhs[pc]]], values[registers[rhs[pc]]]);
+                    break;
+                case SIN:
+                    value = FunctionCache.sin(values[registers[lhs[pc]]]);
+                    break;
+                case COS:
+                    value = FunctionCache.cos(values[registers[lhs[pc]]]);
+                    break;
+                case TAN:
+                    value = FunctionCache.tan(values[registers[lhs[pc]]]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode: " + opcodes[pc]);
+            }
+            values[registers[pc]] = value;
+        }
+        return values[registers[opcodes.length - 1]];
+    }
+
+    /**
+     * Runs the whole program over a chunk of rows
+     * @param columns A column of values of every variable
+     * @param buffers A buffer of every register
+     * @param offset  The first row of the chunk
+     * @param length  The number of rows in the chunk
+     */
+    private void evaluateChunk(double[][] columns, double[][] buffers, int offset, int length) {
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            double[] out = buffers[registers[pc]];
+            switch (opcodes[pc]) {
+                case CONST:
+                    Arrays.fill(out, 0, length, constants[pc]);
+                    break;
+                case VAR:
+                    System.arraycopy(columns[lhs[pc]], offset, out, 0, length);
+                    break;
+                case ADD: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    double[] b = buffers[registers[rhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = a[i] + b[i];
+                    }
+                    break;
+                }
+                case SUB: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    double[] b = buffers[registers[rhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = a[i] - b[i];
+                    }
+                    break;
+                }
+                case MUL: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    double[] b = buffers[registers[rhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = a[i] * b[i];
+                    }
+                    break;
+                }
+                case DIV: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    double[] b = buffers[registers[rhs[pc]]];
+                    // check all divisors first to keep the division loop branch-free
+                    for (int i = 0; i < length; i++) {
+                        if (b[i] == 0) {
+                            throw new ArithmeticException("Cannot divide by 0");
+                        }
+                    }
+                    for (int i = 0; i < length; i++) {
+                        out[i] = a[i] / b[i];
+                    }
+                    break;
+                }
+                case POW: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    double[] b = buffers[registers[rhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = FunctionCache.pow(a[i], b[i]);
+                    }
+                    break;
+                }
+                case SIN: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = FunctionCache.sin(a[i]);
+                    }
+                    break;
+                }
+                case COS: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = FunctionCache.cos(a[i]);
+                    }
+                    break;
+                }
+                case TAN: {
+                    double[] a = buffers[registers[lhs[pc]]];
+                    for (int i = 0; i < length; i++) {
+                        out[i] = FunctionCache.tan(a[i]);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode: " + opcodes[pc]);
+            }
+        }
+    }
+
+    /**
+     * Assigns a register to every instruction, so that a register is reused
+     * as soon as the last instruction reading it has been executed
+     * @return The number of registers used
+     */
+    private int allocateRegisters() {
+        int n = opcodes.length;
+        // an index of the last instruction reading a result of every instruction
+        int[] lastUse = new int[n];
+        Arrays.fill(lastUse, n - 1);
+        for (int pc = 0; pc < n; pc++) {
+            if (opcodes[pc] != CONST && opcodes[pc] != VAR) {
+                lastUse[lhs[pc]] = pc;
+                if (rhs[pc] >= 0) {
+                    lastUse[rhs[pc]] = pc;
+                }
+            }
+        }
+        int[] free = new int[n];    // a stack of released registers
+        int freeCount = 0;
+        int count = 0;
+        for (int pc = 0; pc < n; pc++) {
+            // operands are released before the result is assigned,
+            // which is safe since every loop reads a[i] before writing out[i]
+            if (opcodes[pc] != CONST && opcodes[pc] != VAR) {
+                if (lastUse[lhs[pc]] == pc) {
+                    free[freeCount++] = registers[lhs[pc]];
+                }
+                if (rhs[pc] >= 0 && rhs[pc] != lhs[pc] && lastUse[rhs[pc]] == pc) {
+                    free[freeCount++] = registers[rhs[pc]];
+                }
+            }
+            registers[pc] = freeCount > 0 ? free[--freeCount] : count++;
+        }
+        return count;
+    }
+
+    /**
+     * Applies an operator opcode to the values of its operands
+     * @param opcode An opcode of the operator
+     * @param left   A value of the 1st (or the only) operand
+     * @param right  A value of the 2nd operand; ignored by functions
+     * @return The result of the operator
+     */
+    static double apply(byte opcode, double left, double right) {
+        switch (opcode) {
+            case ADD: return left + right;
+            case SUB: return left - right;
+            case MUL: return left * right;
+            case DIV: return divide(left, right);
+            case POW: return FunctionCache.power(left, right);
+            case SIN: return Math.sin(left);
+            case COS: return Math.cos(left);
+            case TAN: return Math.tan(left);
+            default:
+                throw new IllegalStateException("Not an operator opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Divides two values the same way UpdatedCalculator does
+     * @param dividend A value to divide
+     * @param divisor  A value to divide by
+     * @return The quotient
+     * @throws ArithmeticException if the divisor is 0
+     */
+    static double divide(double dividend, double divisor) {
+        if (divisor == 0) {
+            throw new ArithmeticException("Cannot divide by 0");
+        }
+        return dividend / divisor;
+    }
+
+    /**
+     * Get a symbol of an operator opcode
+     * @param opcode An opcode of the operator
+     * @return The symbol used in expressions
+     */
+    static String symbolOf(byte opcode) {
+        switch (opcode) {
+            case ADD: return "+";
+            case SUB: return "-";
+            case MUL: return "*";
+            case DIV: return "/";
+            case POW: return "^";
+            case SIN: return "sin";
+            case COS: return "cos";
+            case TAN: return "tan";
+            default: return "?";
+        }
+    }
+}
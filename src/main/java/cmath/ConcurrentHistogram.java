@@ -0,0 +1,191 @@
+/*
+ * File: ConcurrentHistogram.java
+ * Description: A lock-free histogram of non-negative values
+ * with log-linear buckets.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of values such as latencies in nanoseconds or sizes, recorded
+ * by any number of threads at once (in the manner of HdrHistogram).
+ * <p>
+ * Values below 32 have a bucket each; every further power of two is split into
+ * 32 buckets, so a value is known within about 3% however large it is, with
+ * a fixed number of buckets. Every bucket is a LongAdder, so recording is a
+ * few shifts and one uncontended add, without locks; the count and the mean
+ * are computed from the buckets. Values from 2^40 up
+ * (18 minutes in nanoseconds) share the last bucket; the maximum is exact.
+ */
+public final class ConcurrentHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;     // buckets per power of two
+    private static final int MAX_MAGNITUDE = 40;            // values are tracked below 2^40
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BITS + 1) * SUB_COUNT;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public ConcurrentHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a value
+     * @param value A value, negative ones are recorded as 0
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        buckets[bucketOf(v)].increment();
+        if (v > max.get()) {
+            max.accumulate(v);
+        }
+    }
+
+    /**
+     * Forget all recorded values; values recorded meanwhile may be partly forgotten
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        max.reset();
+    }
+
+    /**
+     * Get the number of values recorded
+     */
+    public long getCount() {
+        long total = 0;
+        for (LongAdder bucket : buckets) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Take a consistent-enough copy of the histogram to compute statistics from
+     * @return A snapshot of the bucket counts
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+            sum += counts[i] * middleValueOf(i);
+        }
+        return new Snapshot(counts, total, sum, max.get());
+    }
+
+    /**
+     * Get an index of the bucket of a value
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MAGNITUDE - 1);
+        int shift = magnitude - SUB_BITS;
+        long mantissa = Math.min(value >>> shift, 2 * SUB_COUNT - 1);
+        return ((shift + 1) << SUB_BITS) + (int) (mantissa - SUB_COUNT);
+    }
+
+    /**
+     * Get the value in the middle of a bucket
+     */
+    static double middleValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        return highestValueOf(bucket) - ((1L << shift) - 1) / 2.0;
+    }
+
+    /**
+     * Get the greatest value falling into a bucket
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long lowest = (long) ((bucket & (SUB_COUNT - 1)) + SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of a histogram
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final double sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, double sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Get the arithmetic mean of the values, counting every value
+         * as the middle of its bucket
+         * @return The mean; 0 if there are no values
+         */
+        public double getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Get the value below or at which the given share of the values are
+         * @param percentile A percentile in [0, 100]
+         * @return The greatest value of the bucket the percentile falls into,
+         * not more than the maximum; 0 if there are no values
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be in [0, 100]: " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // the last bucket has no upper bound
+                    return i == counts.length - 1 ? max : Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + String.format("%.1f", getMean())
+                    + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+                    + ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + max;
+        }
+    }
+}
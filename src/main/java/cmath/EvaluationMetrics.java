@@ -0,0 +1,382 @@
+/*
+ * File: EvaluationMetrics.java
+ * Description: Latency, size and operator statistics
+ * of the evaluations made by an expression engine.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import cmath.UpdatedCalculator.Operator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The instrumentation of an ExpressionEngine: histograms of the latency of
+ * evaluations, of its parse part (getting the compiled form: a cache lookup,
+ * or parsing on a miss) and evaluate part, and of the lengths of the expressions
+ * compiled or interpreted;
+ * the number of applications of every operator, and the failures by kind.
+ * <p>
+ * Everything is recorded with LongAdders, without locks. Reading the clock
+ * costs more than the cheap evaluations themselves, so only a random sample
+ * of the evaluations, one in 16 by default, is timed and recorded; the operator
+ * counts are scaled up by the sampling interval. The evaluations and
+ * the failures are counted exactly. So the metrics may be left on under load;
+ * a disabled instance costs a field read per evaluation. The values are read
+ * through snapshot() or, once registered, as an MXBean under
+ * cmath:type=ExpressionEngine.
+ */
+public final class EvaluationMetrics implements EvaluationMetricsMXBean {
+    private static final Operator[] OPERATORS = Operator.values();
+    public static final int DEFAULT_SAMPLING_INTERVAL = 16;
+
+    /**
+     * A copy of the metrics at one moment
+     * @param evaluations       The number of evaluations that returned a value
+     * @param failures          The number of evaluations that threw an exception
+     * @param malformed         The failures caused by malformed or too long expressions
+     * @param arithmeticErrors  The failures caused by divisions by 0
+     * @param cacheHits         The lookups that found a compiled expression
+     * @param cacheMisses       The lookups that had to compile one
+     * @param latency           Nanoseconds per sampled evaluation
+     * @param parseTimes        Nanoseconds to get the compiled form, per sampled compiled evaluation
+     * @param evaluateTimes     Nanoseconds to evaluate the compiled form, per sampled compiled evaluation
+     * @param expressionLengths Characters per sampled expression
+     * @param operatorCounts    The estimated number of applications of every operator
+     */
+    public record Snapshot(long evaluations, long failures, long malformed, long arithmeticErrors,
+                           long cacheHits, long cacheMisses,
+                           ConcurrentHistogram.Snapshot latency,
+                           ConcurrentHistogram.Snapshot parseTimes,
+                           ConcurrentHistogram.Snapshot evaluateTimes,
+                           ConcurrentHistogram.Snapshot expressionLengths,
+                           Map<Operator, Long> operatorCounts) {
+    }
+
+    /**
+     * The operators a compiled program applies, with the number of times each,
+     * counted once per expression so recording costs an add per kind
+     * @param operators Ordinals of the operators applied
+     * @param counts    The number of applications of every one of them
+     */
+    record OperatorMix(byte[] operators, int[] counts) {
+    }
+
+    private final ExpressionEngine engine;
+    private final ConcurrentHistogram latency = new ConcurrentHistogram();
+    private final ConcurrentHistogram parseTimes = new ConcurrentHistogram();
+    private final ConcurrentHistogram evaluateTimes = new ConcurrentHistogram();
+    private final ConcurrentHistogram expressionLengths = new ConcurrentHistogram();
+    private final LongAdder[] operatorCounts = new LongAdder[OPERATORS.length];
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder arithmeticErrors = new LongAdder();
+    private volatile boolean enabled = true;
+    private volatile int samplingMask = DEFAULT_SAMPLING_INTERVAL - 1;
+    private volatile ObjectName name;
+
+    EvaluationMetrics(ExpressionEngine engine) {
+        this.engine = engine;
+        for (int i = 0; i < operatorCounts.length; i++) {
+            operatorCounts[i] = new LongAdder();
+        }
+    }
+
+    //region Recording
+
+    /**
+     * Decide whether to record the evaluation about to start
+     * @return True if the metrics are enabled and the evaluation is sampled
+     */
+    boolean sample() {
+        if (!enabled) {
+            return false;
+        }
+        int mask = samplingMask;
+        return mask == 0 || (ThreadLocalRandom.current().nextInt() & mask) == 0;
+    }
+
+    /**
+     * Record a sampled evaluation of a compiled expression
+     * @param start           nanoTime before getting the compiled form
+     * @param evaluationStart nanoTime before evaluating it
+     * @param end             nanoTime after evaluating it
+     */
+    void recordCompiled(int length, OperatorMix mix, long start, long evaluationStart, long end) {
+        latency.record(end - start);
+        parseTimes.record(evaluationStart - start);
+        evaluateTimes.record(end - evaluationStart);
+        expressionLengths.record(length);
+        long weight = samplingMask + 1L;
+        byte[] operators = mix.operators();
+        int[] counts = mix.counts();
+        for (int i = 0; i < operators.length; i++) {
+            operatorCounts[operators[i]].add(counts[i] * weight);
+        }
+    }
+
+    /**
+     * Record a sampled interpretation, which parses and evaluates at once
+     * @param applied The number of applications of every operator, by ordinal
+     */
+    void recordInterpreted(int length, int[] applied, long start, long end) {
+        latency.record(end - start);
+        expressionLengths.record(length);
+        long weight = samplingMask + 1L;
+        for (int i = 0; i < applied.length; i++) {
+            if (applied[i] != 0) {
+                operatorCounts[i].add(applied[i] * weight);
+            }
+        }
+    }
+
+    /**
+     * Count a failure by its kind, every one while the metrics are enabled
+     */
+    void recordFailure(RuntimeException e) {
+        if (!enabled) {
+            return;
+        }
+        if (e instanceof ArithmeticException) {
+            arithmeticErrors.increment();
+        } else if (e instanceof IllegalArgumentException) {
+            malformed.increment();
+        }
+    }
+
+    /**
+     * Count the operators a compiled program applies
+     */
+    static OperatorMix mixOf(CompiledExpression expression) {
+        int[] counts = new int[OPERATORS.length];
+        for (int pc = 0; pc < expression.size(); pc++) {
+            Operator operator = operatorOf(expression.opcodeAt(pc));
+            if (operator != null) {
+                counts[operator.ordinal()]++;
+            }
+        }
+        int kinds = 0;
+        for (int count : counts) {
+            if (count != 0) {
+                kinds++;
+            }
+        }
+        byte[] operators = new byte[kinds];
+        int[] nonzero = new int[kinds];
+        for (int i = 0, k = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                operators[k] = (byte) i;
+                nonzero[k++] = counts[i];
+            }
+        }
+        return new OperatorMix(operators, nonzero);
+    }
+
+    private static Operator operatorOf(byte opcode) {
+        switch (opcode) {
+            case CompiledExpression.ADD: return Operator.ADD;
+            case CompiledExpression.SUB: return Operator.SUB;
+            case CompiledExpression.MUL: return Operator.MUL;
+            case CompiledExpression.DIV: return Operator.DIV;
+            case CompiledExpression.POW: return Operator.POW;
+            case CompiledExpression.SIN: return Operator.SIN;
+            case CompiledExpression.COS: return Operator.COS;
+            case CompiledExpression.TAN: return Operator.TAN;
+            default: return null;
+        }
+    }
+    //endregion Recording
+
+    /**
+     * Take a copy of all metrics
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        Map<Operator, Long> operators = new EnumMap<>(Operator.class);
+        for (Operator operator : OPERATORS) {
+            long count = operatorCounts[operator.ordinal()].sum();
+            if (count != 0) {
+                operators.put(operator, count);
+            }
+        }
+        ExpressionCache cache = engine.getCache();
+        return new Snapshot(engine.getEvaluations(), engine.getFailures(), malformed.sum(),
+                arithmeticErrors.sum(), cache.getHits(), cache.getMisses(),
+                latency.snapshot(), parseTimes.snapshot(), evaluateTimes.snapshot(),
+                expressionLengths.snapshot(), Collections.unmodifiableMap(operators));
+    }
+
+    //region JMX
+
+    /**
+     * Register the metrics with the platform MBean server
+     * @param name A name telling the engine apart from the others
+     * @return The name it is registered under
+     * @throws JMException if the name is malformed or taken
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (this.name != null) {
+            throw new IllegalStateException("Already registered as " + this.name);
+        }
+        ObjectName objectName = new ObjectName("cmath:type=ExpressionEngine,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server, if they are registered
+     * @throws JMException if the server fails to remove them
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public int getSamplingInterval() {
+        return samplingMask + 1;
+    }
+
+    @Override
+    public void setSamplingInterval(int interval) {
+        if (interval < 1 || Integer.bitCount(interval) != 1) {
+            throw new IllegalArgumentException("Sampling interval must be a power of two: " + interval);
+        }
+        samplingMask = interval - 1;
+    }
+
+    @Override
+    public long getEvaluations() {
+        return engine.getEvaluations();
+    }
+
+    @Override
+    public long getFailures() {
+        return engine.getFailures();
+    }
+
+    @Override
+    public long getMalformedExpressions() {
+        return malformed.sum();
+    }
+
+    @Override
+    public long getArithmeticErrors() {
+        return arithmeticErrors.sum();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        return engine.getCache().getHitRate();
+    }
+
+    @Override
+    public double getFunctionCacheHitRate() {
+        return FunctionCache.getHitRate();
+    }
+
+    @Override
+    public int getCacheSize() {
+        return engine.getCache().size();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latency.snapshot().getMean();
+    }
+
+    @Override
+    public long getLatencyP50() {
+        return latency.snapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getLatencyP99() {
+        return latency.snapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getLatencyP999() {
+        return latency.snapshot().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latency.snapshot().getMax();
+    }
+
+    @Override
+    public double getMeanParseTime() {
+        return parseTimes.snapshot().getMean();
+    }
+
+    @Override
+    public double getMeanEvaluateTime() {
+        return evaluateTimes.snapshot().getMean();
+    }
+
+    @Override
+    public double getMeanExpressionLength() {
+        return expressionLengths.snapshot().getMean();
+    }
+
+    @Override
+    public long getMaxExpressionLength() {
+        return expressionLengths.snapshot().getMax();
+    }
+
+    @Override
+    public Map<String, Long> getOperatorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        snapshot().operatorCounts().forEach((operator, count) -> counts.put(operator.name(), count));
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        parseTimes.reset();
+        evaluateTimes.reset();
+        expressionLengths.reset();
+        for (LongAdder count : operatorCounts) {
+            count.reset();
+        }
+        malformed.reset();
+        arithmeticErrors.reset();
+    }
+    //endregion JMX
+
+    @Override
+    public String toString() {
+        Snapshot snapshot = snapshot();
+        return "EvaluationMetrics{evaluations=" + snapshot.evaluations() + ", failures=" + snapshot.failures()
+                + ", latency={" + snapshot.latency() + "}, operators=" + snapshot.operatorCounts() + "}";
+    }
+}
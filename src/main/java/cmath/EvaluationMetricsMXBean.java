@@ -0,0 +1,75 @@
+/*
+ * File: EvaluationMetricsMXBean.java
+ * Description: The JMX management interface
+ * of the metrics of an expression engine.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.Map;
+
+/**
+ * The attributes and operations of EvaluationMetrics seen by JMX clients
+ * such as JConsole; the times are in nanoseconds
+ */
+public interface EvaluationMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Get the number of evaluations per one recorded, a power of two
+     */
+    int getSamplingInterval();
+
+    /**
+     * @param interval Record one in this many evaluations, a power of two; 1 records all
+     * @throws IllegalArgumentException if the interval is not a power of two
+     */
+    void setSamplingInterval(int interval);
+
+    long getEvaluations();
+
+    long getFailures();
+
+    long getMalformedExpressions();
+
+    long getArithmeticErrors();
+
+    double getCacheHitRate();
+
+    /**
+     * Get the hit rate of the memo of sin, cos, tan and ^ results, shared by all engines
+     */
+    double getFunctionCacheHitRate();
+
+    int getCacheSize();
+
+    double getMeanLatency();
+
+    long getLatencyP50();
+
+    long getLatencyP99();
+
+    long getLatencyP999();
+
+    long getMaxLatency();
+
+    double getMeanParseTime();
+
+    double getMeanEvaluateTime();
+
+    double getMeanExpressionLength();
+
+    long getMaxExpressionLength();
+
+    Map<String, Long> getOperatorCounts();
+
+    /**
+     * Forget the recorded distributions and operator counts
+     */
+    void reset();
+}
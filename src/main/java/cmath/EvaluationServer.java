@@ -0,0 +1,324 @@
+/*
+ * File: EvaluationServer.java
+ * Description: An embeddable TCP server evaluating pipelined
+ * expressions line by line in micro-batches.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A server evaluating expressions sent over TCP by any number of clients.
+ * <p>
+ * The protocol is ASCII text, a request per line (LF or CRLF): an expression,
+ * optionally followed by ';' and the values of its variables, in the order
+ * of their first appearance, separated by commas or whitespaces. Every request
+ * gets a line with its value, or with "ERR " and the reason it failed; an
+ * expression nested deeper than MAX_DEPTH operators is refused.
+ * <p>
+ * Clients may pipeline: send many requests without waiting for the answers,
+ * which come in the same order. Every connection is served by its own task
+ * doing blocking reads; all the complete requests a read brings are evaluated
+ * as one batch and answered by one write, so the per-request cost of system
+ * calls falls as the load grows. The requests of a batch repeating the expression
+ * of the request before them reuse its compiled form without making a String
+ * or looking it up in the engine's cache, which is shared by all connections.
+ * Identical requests of different connections are not coalesced: evaluating
+ * a compiled expression is a small part of a round trip, less than synchronizing
+ * the connections would cost.
+ * <p>
+ * The tasks run on the given executor, by default a cached pool of daemon
+ * threads; on a JVM with virtual threads pass one that starts a virtual thread
+ * per task, the tasks only block in socket reads and writes.
+ */
+public final class EvaluationServer implements Closeable {
+    /** The most operators on a path from the result of an expression to an operand */
+    public static final int MAX_DEPTH = 1024;
+
+    private static final int BUFFER_SIZE = 1 << 16;             // also the longest request
+    private static final int MAX_ERROR_LENGTH = 200;
+
+    private final ExpressionEngine engine;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Start a server on an ephemeral port of the loopback address
+     * @param engine An engine to evaluate with
+     * @throws IOException if the port can't be bound
+     */
+    public EvaluationServer(ExpressionEngine engine) throws IOException {
+        this(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                Executors.newCachedThreadPool(task -> {
+                    Thread thread = new Thread(task, "evaluation-connection");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    /**
+     * Start a server
+     * @param engine      An engine to evaluate with
+     * @param address     An address to listen at; port 0 picks a free one
+     * @param connections An executor running a task per connection, shut down by close()
+     * @throws IOException if the address can't be bound
+     */
+    public EvaluationServer(ExpressionEngine engine, InetSocketAddress address,
+                            ExecutorService connections) throws IOException {
+        if (engine == null || address == null || connections == null) {
+            throw new IllegalArgumentException("Engine, address and executor must not be null");
+        }
+        this.engine = engine;
+        this.connections = connections;
+        this.server = ServerSocketChannel.open().bind(address);
+        this.acceptor = new Thread(this::accept, "evaluation-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Get the address the server listens at, with the port actually bound
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("Server is closed", e);
+        }
+    }
+
+    public int getPort() {
+        return getAddress().getPort();
+    }
+
+    /**
+     * Get the number of clients connected now
+     */
+    public int getConnectionCount() {
+        return clients.size();
+    }
+
+    /**
+     * Stop accepting, close all connections and shut the executor down;
+     * the requests being evaluated are not answered
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                continue;   // e.g. the client reset the connection before it was accepted
+            }
+            try {
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                clients.add(client);
+                connections.execute(new Connection(client));
+            } catch (IOException | RuntimeException e) {
+                // the executor is shut down or the client is gone
+                clients.remove(client);
+                closeQuietly(client);
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Serves one client: reads a batch of requests, evaluates them, writes their answers
+     */
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteSequence values = new ByteSequence();
+        private final StringBuilder text = new StringBuilder(MAX_ERROR_LENGTH);
+        private byte[] lastExpression = new byte[64];   // the expression of the request before
+        private int lastLength = -1;                    // -1 if it failed to compile
+        private TieredExpression lastTiered;
+        private double[] slots;
+        private long succeeded;
+        private long failed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                serve();
+            } catch (IOException e) {
+                // the client disconnected or the server is closing
+            } finally {
+                clients.remove(channel);
+                closeQuietly(channel);
+            }
+        }
+
+        private void serve() throws IOException {
+            byte[] bytes = input.array();
+            while (channel.read(input) >= 0) {
+                int limit = input.position();
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (bytes[i] == '\n') {
+                        evaluateLine(lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                engine.record(succeeded, failed);
+                succeeded = 0;
+                failed = 0;
+                flush();
+                if (lineStart == 0 && limit == bytes.length) {
+                    writeError("Request is longer than " + BUFFER_SIZE + " bytes");
+                    flush();
+                    return;
+                }
+                // keep the incomplete request for the next read
+                input.limit(limit).position(lineStart);
+                input.compact();
+            }
+        }
+
+        /**
+         * Evaluates a request and writes its answer
+         */
+        private void evaluateLine(int start, int end) throws IOException {
+            byte[] bytes = input.array();
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            int separator = start;
+            while (separator < end && bytes[separator] != ';') {
+                separator++;
+            }
+            try {
+                TieredExpression tiered = tieredOf(start, separator);
+                String[] variables = tiered.getExpression().variables();
+                if (slots == null || slots.length != variables.length) {
+                    slots = new double[variables.length];
+                }
+                int count = 0;
+                if (separator < end) {
+                    values.reset(input, separator + 1, end);
+                    count = StreamEvaluator.parseValues(values, 0, slots);
+                }
+                if (count < slots.length) {
+                    throw new IllegalArgumentException("Expected " + slots.length + " values, got " + count);
+                }
+                writeResult(tiered.evaluate(slots));
+                succeeded++;
+            } catch (RuntimeException | StackOverflowError e) {
+                // a bug in a backend fails the request, not the connection
+                writeError(e instanceof IllegalArgumentException || e instanceof ArithmeticException
+                        ? e.getMessage() : e.toString());
+                failed++;
+            }
+        }
+
+        /**
+         * Get the tiered form of the expression in the given bytes,
+         * reusing the one of the request before if it is the same
+         */
+        private TieredExpression tieredOf(int start, int end) {
+            byte[] bytes = input.array();
+            int length = end - start;
+            if (length == lastLength && Arrays.equals(bytes, start, end, lastExpression, 0, length)) {
+                return lastTiered;
+            }
+            lastLength = -1;
+            TieredExpression tiered = engine.tiered(new String(bytes, start, length, StandardCharsets.ISO_8859_1));
+            if (tiered.getExpression().depth() > MAX_DEPTH) {
+                throw new IllegalArgumentException("Expression is nested deeper than " + MAX_DEPTH);
+            }
+            if (lastExpression.length < length) {
+                lastExpression = new byte[Math.max(length, 2 * lastExpression.length)];
+            }
+            System.arraycopy(bytes, start, lastExpression, 0, length);
+            lastLength = length;
+            lastTiered = tiered;
+            return tiered;
+        }
+
+        private void writeResult(double value) throws IOException {
+            text.setLength(0);
+            text.append(value);
+            writeText();
+        }
+
+        private void writeError(String message) throws IOException {
+            text.setLength(0);
+            text.append("ERR ").append(message);
+            text.setLength(Math.min(text.length(), MAX_ERROR_LENGTH));
+            for (int i = 0; i < text.length(); i++) {
+                char symbol = text.charAt(i);
+                if (symbol == '\n' || symbol == '\r' || symbol > 0x7F) {
+                    text.setCharAt(i, ' ');
+                }
+            }
+            writeText();
+        }
+
+        /**
+         * Writes the text and a line end to the output buffer, flushing it when it is full
+         */
+        private void writeText() throws IOException {
+            if (output.remaining() < text.length() + 1) {
+                flush();
+            }
+            for (int i = 0; i < text.length(); i++) {
+                output.put((byte) text.charAt(i));
+            }
+            output.put((byte) '\n');
+        }
+
+        private void flush() throws IOException {
+            output.flip();
+            while (output.hasRemaining()) {
+                channel.write(output);
+            }
+            output.clear();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * File: EvaluationTrace.java
+ * Description: A record of the steps of interpreting an expression
+ * kept in pre-allocated arrays.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import cmath.UpdatedCalculator.Operator;
+
+/**
+ * A trace of one interpretation: every token read, every value and operator
+ * pushed, every operator popped and applied, with its operands and result,
+ * and the time since the start, so both wrong and slow evaluations may be
+ * examined afterwards.
+ * <p>
+ * The events are kept in parallel arrays allocated once, so tracing makes
+ * no objects per event and a trace is reused by the next interpretation.
+ * The events past the capacity are counted but not kept. Interpretation
+ * without a trace doesn't record anything. A trace is not thread-safe.
+ */
+public final class EvaluationTrace {
+    /** The capacity of the traces logged by UpdatedCalculator.eval in the debug mode */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * A kind of step of the interpretation
+     */
+    public enum Event {
+        TOKEN,          // a token has been read, see getStart() and getEnd()
+        PUSH_VALUE,     // a number has been pushed onto the values stack, see getValue()
+        PUSH_OPERATOR,  // an operator or a bracket has been pushed onto the operators stack
+        POP_OPERATOR,   // an operator or a bracket has been popped from the operators stack
+        APPLY           // an operator has been applied, see getLeft(), getRight() and getValue()
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private final byte[] events;
+    private final byte[] operators;     // an ordinal of the operator, -1 if none
+    private final int[] starts;         // the source range of the token read last
+    private final int[] ends;
+    private final double[] values;
+    private final double[] lefts;
+    private final double[] rights;
+    private final long[] times;         // nanoseconds since the start
+
+    private String expression;
+    private int size;
+    private long dropped;
+    private long startTime;
+    private long elapsed;
+    private double result;
+    private String failure;
+
+    /**
+     * Make an empty trace
+     * @param capacity The maximal number of events kept
+     */
+    public EvaluationTrace(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.events = new byte[capacity];
+        this.operators = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.values = new double[capacity];
+        this.lefts = new double[capacity];
+        this.rights = new double[capacity];
+        this.times = new long[capacity];
+        this.expression = "";
+        this.result = Double.NaN;
+    }
+
+    //region Recording
+
+    /**
+     * Forget the previous interpretation and start recording a new one
+     */
+    void start(CharSequence source) {
+        expression = source.toString();
+        size = 0;
+        dropped = 0;
+        elapsed = 0;
+        result = Double.NaN;
+        failure = null;
+        startTime = System.nanoTime();
+    }
+
+    void token(int start, int end) {
+        int i = next(Event.TOKEN, null, start, end);
+        if (i >= 0) {
+            values[i] = Double.NaN;
+        }
+    }
+
+    void pushValue(double value, int start, int end) {
+        int i = next(Event.PUSH_VALUE, null, start, end);
+        if (i >= 0) {
+            values[i] = value;
+        }
+    }
+
+    void pushOperator(Operator operator, int start, int end) {
+        int i = next(Event.PUSH_OPERATOR, operator, start, end);
+        if (i >= 0) {
+            values[i] = Double.NaN;
+        }
+    }
+
+    void popOperator(Operator operator, int start, int end) {
+        int i = next(Event.POP_OPERATOR, operator, start, end);
+        if (i >= 0) {
+            values[i] = Double.NaN;
+        }
+    }
+
+    /**
+     * @param left  The left operand; NaN for a function
+     * @param right The right operand, or the argument of a function
+     * @param value The result
+     */
+    void apply(Operator operator, double left, double right, double value, int start, int end) {
+        int i = next(Event.APPLY, operator, start, end);
+        if (i >= 0) {
+            lefts[i] = left;
+            rights[i] = right;
+            values[i] = value;
+        }
+    }
+
+    void finish(double value) {
+        elapsed = System.nanoTime() - startTime;
+        result = value;
+    }
+
+    void fail(RuntimeException e) {
+        elapsed = System.nanoTime() - startTime;
+        failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    /**
+     * Claim the slot of the next event
+     * @return An index of the slot; -1 if the trace is full
+     */
+    private int next(Event event, Operator operator, int start, int end) {
+        if (size == events.length) {
+            dropped++;
+            return -1;
+        }
+        int i = size++;
+        events[i] = (byte) event.ordinal();
+        operators[i] = operator == null ? -1 : (byte) operator.ordinal();
+        starts[i] = start;
+        ends[i] = end;
+        lefts[i] = Double.NaN;
+        rights[i] = Double.NaN;
+        times[i] = System.nanoTime() - startTime;
+        return i;
+    }
+    //endregion Recording
+
+    /**
+     * Get the number of events kept
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of events that didn't fit into the trace
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public int getCapacity() {
+        return events.length;
+    }
+
+    /**
+     * Get the expression interpreted
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Get the value of the expression
+     * @return The value; NaN if the interpretation failed
+     */
+    public double getResult() {
+        return result;
+    }
+
+    /**
+     * Get the reason the interpretation failed
+     * @return The type and message of the exception thrown; null if it succeeded
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the duration of the whole interpretation, including the tracing itself
+     */
+    public long getElapsedNanos() {
+        return elapsed;
+    }
+
+    //region Events
+
+    public Event getEvent(int index) {
+        return EVENTS[events[checkIndex(index)]];
+    }
+
+    /**
+     * @return The operator pushed, popped or applied; null for the other events
+     */
+    public Operator getOperator(int index) {
+        byte operator = operators[checkIndex(index)];
+        return operator < 0 ? null : OPERATORS[operator];
+    }
+
+    /**
+     * @return An index of the first character of the token read last
+     */
+    public int getStart(int index) {
+        return starts[checkIndex(index)];
+    }
+
+    /**
+     * @return An index after the last character of the token read last
+     */
+    public int getEnd(int index) {
+        return ends[checkIndex(index)];
+    }
+
+    /**
+     * @return The value pushed, or the result of an operator applied; NaN for the other events
+     */
+    public double getValue(int index) {
+        return values[checkIndex(index)];
+    }
+
+    /**
+     * @return The left operand of a binary operator applied; NaN for the other events
+     */
+    public double getLeft(int index) {
+        return lefts[checkIndex(index)];
+    }
+
+    /**
+     * @return The right operand, or the argument of a function, applied; NaN for the other events
+     */
+    public double getRight(int index) {
+        return rights[checkIndex(index)];
+    }
+
+    /**
+     * @return Nanoseconds from the start of the interpretation to the event
+     */
+    public long getNanos(int index) {
+        return times[checkIndex(index)];
+    }
+    //endregion Events
+
+    /**
+     * Makes a readable listing of the trace, an event per line
+     * @return The expression, the events and the outcome
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("Trace of \"").append(expression).append("\"\n");
+        for (int i = 0; i < size; i++) {
+            s.append(String.format("%4d %8dns %-13s", i, times[i], EVENTS[events[i]]));
+            switch (EVENTS[events[i]]) {
+                case TOKEN -> s.append(" '").append(expression, starts[i], ends[i]).append('\'');
+                case PUSH_VALUE -> s.append(' ').append(values[i]);
+                case PUSH_OPERATOR, POP_OPERATOR -> s.append(' ').append(OPERATORS[operators[i]]);
+                case APPLY -> {
+                    s.append(' ');
+                    if (!AbstractExpressionParser.isFunction(OPERATORS[operators[i]])) {
+                        s.append(lefts[i]).append(' ');
+                    }
+                    s.append(OPERATORS[operators[i]]).append(' ').append(rights[i])
+                            .append(" = ").append(values[i]);
+                }
+            }
+            s.append('\n');
+        }
+        if (dropped > 0) {
+            s.append("... ").append(dropped).append(" more events\n");
+        }
+        if (failure != null) {
+            s.append("failed: ").append(failure);
+        } else {
+            s.append("result: ").append(result);
+        }
+        return s.append(" in ").append(elapsed).append("ns").toString();
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return index;
+    }
+}
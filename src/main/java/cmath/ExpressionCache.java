@@ -0,0 +1,267 @@
+/*
+ * File: ExpressionCache.java
+ * Description: A bounded cache of compiled expressions
+ * keyed by their normalized source text.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe, size-bounded cache of compiled expressions.
+ * <p>
+ * The entries are spread over independent segments by the hash of the key.
+ * A lookup takes no lock: it reads a concurrent map and marks the entry
+ * as referenced. Only insertions lock their segment, which then evicts
+ * by the second-chance (CLOCK) approximation of LRU: the oldest entry
+ * is dropped unless it has been referenced since it was last checked,
+ * in which case it is moved to the end of the queue unmarked. So any number
+ * of threads may evaluate the same hot expression without contention.
+ * Compilation happens outside of any lock; if two threads miss the same
+ * expression at once, both compile it and the first stored result wins.
+ */
+public class ExpressionCache {
+    private static final int SEGMENTS = 16;     // a power of two
+
+    private final Segment[] segments;
+    private final Backend backend;              // the backend hot expressions are promoted to
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile ExpressionStore store;     // the compiled expressions to load on a miss, may be null
+
+    /**
+     * Make an empty cache promoting hot expressions to bytecode
+     * @param capacity The maximal number of expressions to keep
+     */
+    public ExpressionCache(int capacity) {
+        this(capacity, Backend.BYTECODE);
+    }
+
+    /**
+     * Make an empty cache
+     * @param capacity The maximal number of expressions to keep
+     * @param backend  A backend to promote the hot expressions to
+     */
+    public ExpressionCache(int capacity, Backend backend) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int segmentCount = Math.min(SEGMENTS, Integer.highestOneBit(capacity));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // spread the remainder so the capacities sum up to the requested one
+            int segmentCapacity = capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0);
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.backend = backend;
+    }
+
+    /**
+     * Get the optimized compiled form of an expression, compiling it on a miss
+     * @param expression A string representation of the expression
+     * @return The compiled expression
+     * @throws IllegalArgumentException if the expression is malformed (nothing is cached then)
+     */
+    public CompiledExpression get(String expression) {
+        return getTiered(expression).getExpression();
+    }
+
+    /**
+     * Get the tiered form of an expression, compiling it on a miss;
+     * the expressions evaluated through it often get their bytecode generated
+     * @param expression A string representation of the expression
+     * @return The tiered expression wrapping the optimized compiled one
+     * @throws IllegalArgumentException if the expression is malformed (nothing is cached then)
+     */
+    public TieredExpression getTiered(String expression) {
+        String key = normalize(expression);
+        Segment segment = segmentFor(key);
+        Entry entry = segment.entries.get(key);
+        if (entry != null) {
+            if (!entry.referenced) {
+                entry.referenced = true;    // write only once per clock pass, keeping the line shared
+            }
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        ExpressionStore store = this.store;
+        CompiledExpression compiled = store != null ? store.get(key) : null;
+        if (compiled == null) {
+            compiled = UpdatedCalculator.compile(key).optimize();
+        }
+        TieredExpression tiered = new TieredExpression(compiled, TieredExpression.DEFAULT_THRESHOLD, backend);
+        return segment.putIfAbsent(key, tiered);
+    }
+
+    /**
+     * Set a store the missed expressions are loaded from before compiling them
+     * @param store A store of compiled expressions; null to always compile
+     */
+    public void setStore(ExpressionStore store) {
+        this.store = store;
+    }
+
+    public ExpressionStore getStore() {
+        return store;
+    }
+
+    /**
+     * Remove all expressions, the counters are kept
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached expressions
+     * @return The number of expressions
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.entries.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the share of the lookups that found a compiled expression
+     * @return A hit rate from 0 to 1; 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache{size=" + size() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "}";
+    }
+
+    /**
+     * Makes the cache key of an expression by removing the whitespaces
+     * that do not separate tokens: a run of whitespaces between two
+     * letters or digits becomes one space, any other run is dropped
+     * @param expression A string representation of the expression
+     * @return The normalized expression
+     */
+    static String normalize(String expression) {
+        int length = expression.length();
+        int i = 0;
+        while (i < length && !Character.isWhitespace(expression.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return expression;  // nothing to remove, the common case
+        }
+        StringBuilder s = new StringBuilder(length);
+        s.append(expression, 0, i);
+        boolean pendingSpace = false;
+        for (; i < length; i++) {
+            char currentChar = expression.charAt(i);
+            if (Character.isWhitespace(currentChar)) {
+                pendingSpace = s.length() > 0 && isWordChar(s.charAt(s.length() - 1));
+            } else {
+                if (pendingSpace && isWordChar(currentChar)) {
+                    s.append(' ');
+                }
+                pendingSpace = false;
+                s.append(currentChar);
+            }
+        }
+        return s.toString();
+    }
+
+    private static boolean isWordChar(char symbol) {
+        return Character.isLetterOrDigit(symbol) || symbol == '.' || symbol == '_';
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * A cached expression with its second-chance mark
+     */
+    private static final class Entry {
+        final String key;
+        final TieredExpression value;
+        volatile boolean referenced;    // whether it has been looked up since the clock passed it
+
+        Entry(String key, TieredExpression value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The entries of one segment: a concurrent map for lookups and,
+     * guarded by the segment's lock, the clock queue in order of insertion
+     */
+    private final class Segment {
+        private final int capacity;
+        private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Stores an expression unless the key is there already,
+         * evicting the entries the clock finds unreferenced
+         * @return The stored or the existing expression
+         */
+        synchronized TieredExpression putIfAbsent(String key, TieredExpression value) {
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            while (entries.size() >= capacity) {
+                Entry eldest = clock.pollFirst();
+                if (eldest.referenced) {
+                    eldest.referenced = false;
+                    clock.addLast(eldest);
+                } else {
+                    entries.remove(eldest.key);
+                    evictions.increment();
+                }
+            }
+            Entry entry = new Entry(key, value);
+            entries.put(key, entry);
+            clock.addLast(entry);
+            return value;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            clock.clear();
+        }
+    }
+}
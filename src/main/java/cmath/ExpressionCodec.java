@@ -0,0 +1,428 @@
+/*
+ * File: ExpressionCodec.java
+ * Description: A versioned binary encoding of compiled expressions
+ * and of batches of results.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary messages to ship expressions parsed once to the workers that
+ * evaluate them, and the results back, without text on either side.
+ * <p>
+ * Every message starts with a kind byte and a version byte. An expression
+ * (kind 'X') is a flags byte (bit 0: the source text follows), the variable
+ * names, the number of instructions and the program in postfix order: every
+ * instruction is an opcode byte followed by its operands. A literal is kept
+ * as an int, a float or a double, whichever is the shortest exact form;
+ * a variable by its slot; an operator refers to its operands by their
+ * distance back from it, which is usually a single byte. A batch of results
+ * (kind 'R') is the number of values followed by the values as IEEE-754 doubles.
+ * Counts, lengths, slots and distances are unsigned LEB128 varints, strings
+ * are UTF-8 and the doubles big-endian, whatever the order of the buffer.
+ * <p>
+ * Decoding checks the whole message, so a program read from a corrupt or
+ * hostile buffer can't index out of its arrays when evaluated. An operator
+ * may use any earlier instruction, so a few bytes can describe a program
+ * whose tree doubles with every instruction; evaluation computes each
+ * instruction once, but its text would not fit in memory, so a program whose
+ * tree has more than MAX_TREE_SIZE nodes is rejected.
+ */
+public final class ExpressionCodec {
+    /** The version written, and the only one read */
+    public static final byte VERSION = 1;
+
+    /** The largest number of nodes of a decoded expression written out as a tree */
+    public static final int MAX_TREE_SIZE = 1 << 20;
+
+    private static final byte EXPRESSION = 'X';
+    private static final byte RESULTS = 'R';
+    private static final int HAS_SOURCE = 1;
+
+    // literal forms on the wire; other opcodes are written as CompiledExpression has them
+    private static final byte CONST_INT = 0x40;     // a zigzag varint
+    private static final byte CONST_FLOAT = 0x41;   // 4 bytes
+    private static final int SMALL_INT_LIMIT = 1 << 30;
+
+    private ExpressionCodec() {
+    }
+
+    //region Expressions
+
+    /**
+     * Get the number of bytes encode will write
+     * @param expression An expression to encode
+     * @param withSource Whether to include the source text
+     */
+    public static int encodedSize(CompiledExpression expression, boolean withSource) {
+        int size = 3;
+        if (withSource) {
+            size += stringSize(expression.getSource());
+        }
+        String[] variables = expression.variables();
+        size += varintSize(variables.length);
+        for (String variable : variables) {
+            size += stringSize(variable);
+        }
+        size += varintSize(expression.size());
+        for (int pc = 0; pc < expression.size(); pc++) {
+            size += 1;
+            byte opcode = expression.opcodeAt(pc);
+            if (opcode == CompiledExpression.CONST) {
+                double value = expression.constantAt(pc);
+                size += isInt(value) ? varintSize(zigzag((int) value)) : isFloat(value) ? Float.BYTES : Double.BYTES;
+            } else if (opcode == CompiledExpression.VAR) {
+                size += varintSize(expression.lhsAt(pc));
+            } else {
+                size += varintSize(pc - expression.lhsAt(pc));
+                if (expression.rhsAt(pc) >= 0) {
+                    size += varintSize(pc - expression.rhsAt(pc));
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Encodes an expression at the position of the buffer, advancing it
+     * @param expression An expression to encode
+     * @param buffer     A buffer with at least encodedSize(expression, withSource) bytes remaining
+     * @param withSource Whether to include the source text; without it the decoded
+     *                   expression has its postfix form as the source
+     * @throws BufferOverflowException if the buffer is too small (it is left partly written)
+     */
+    public static void encode(CompiledExpression expression, ByteBuffer buffer, boolean withSource) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            buffer.put(EXPRESSION).put(VERSION).put((byte) (withSource ? HAS_SOURCE : 0));
+            if (withSource) {
+                putString(buffer, expression.getSource());
+            }
+            String[] variables = expression.variables();
+            putVarint(buffer, variables.length);
+            for (String variable : variables) {
+                putString(buffer, variable);
+            }
+            putVarint(buffer, expression.size());
+            for (int pc = 0; pc < expression.size(); pc++) {
+                byte opcode = expression.opcodeAt(pc);
+                if (opcode == CompiledExpression.CONST) {
+                    putConstant(buffer, expression.constantAt(pc));
+                } else if (opcode == CompiledExpression.VAR) {
+                    buffer.put(opcode);
+                    putVarint(buffer, expression.lhsAt(pc));
+                } else {
+                    buffer.put(opcode);
+                    putVarint(buffer, pc - expression.lhsAt(pc));
+                    if (expression.rhsAt(pc) >= 0) {
+                        putVarint(buffer, pc - expression.rhsAt(pc));
+                    }
+                }
+            }
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Encodes an expression into a new array
+     * @param expression An expression to encode
+     * @param withSource Whether to include the source text
+     * @return The message
+     */
+    public static byte[] encode(CompiledExpression expression, boolean withSource) {
+        byte[] bytes = new byte[encodedSize(expression, withSource)];
+        encode(expression, ByteBuffer.wrap(bytes), withSource);
+        return bytes;
+    }
+
+    /**
+     * Decodes an expression at the position of the buffer, advancing it past the message
+     * @param buffer A buffer holding the message
+     * @return The expression, as it was encoded (not optimized again)
+     * @throws IllegalArgumentException if the message is malformed, truncated or of another version
+     */
+    public static CompiledExpression decode(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            checkHeader(buffer, EXPRESSION);
+            int flags = buffer.get();
+            if ((flags & ~HAS_SOURCE) != 0) {
+                throw malformed("unknown flags " + flags);
+            }
+            String source = (flags & HAS_SOURCE) != 0 ? getString(buffer) : null;
+            String[] variables = new String[getCount(buffer)];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = getString(buffer);
+            }
+            int size = getCount(buffer);
+            if (size == 0) {
+                throw malformed("empty program");
+            }
+            byte[] opcodes = new byte[size];
+            double[] constants = new double[size];
+            int[] lhs = new int[size];
+            int[] rhs = new int[size];
+            for (int pc = 0; pc < size; pc++) {
+                byte opcode = buffer.get();
+                int left = -1;
+                int right = -1;
+                switch (opcode) {
+                    case CONST_INT:
+                        constants[pc] = unzigzag(getVarint(buffer));
+                        opcode = CompiledExpression.CONST;
+                        break;
+                    case CONST_FLOAT:
+                        constants[pc] = buffer.getFloat();
+                        opcode = CompiledExpression.CONST;
+                        break;
+                    case CompiledExpression.CONST:
+                        constants[pc] = buffer.getDouble();
+                        break;
+                    case CompiledExpression.VAR:
+                        left = getVarint(buffer);
+                        if (left >= variables.length) {
+                            throw malformed("slot " + left + " of " + variables.length + " variables");
+                        }
+                        break;
+                    case CompiledExpression.SIN:
+                    case CompiledExpression.COS:
+                    case CompiledExpression.TAN:
+                        left = getOperand(buffer, pc);
+                        break;
+                    case CompiledExpression.ADD:
+                    case CompiledExpression.SUB:
+                    case CompiledExpression.MUL:
+                    case CompiledExpression.DIV:
+                    case CompiledExpression.POW:
+                        left = getOperand(buffer, pc);
+                        right = getOperand(buffer, pc);
+                        break;
+                    default:
+                        throw malformed("unknown opcode " + opcode + " at " + pc);
+                }
+                opcodes[pc] = opcode;
+                lhs[pc] = left;
+                rhs[pc] = right;
+            }
+            CompiledExpression expression = new CompiledExpression(source, variables, opcodes, constants, lhs, rhs);
+            if (expression.treeSize() > MAX_TREE_SIZE) {
+                throw malformed("the tree of " + size + " instructions has more than " + MAX_TREE_SIZE + " nodes");
+            }
+            return expression;
+        } catch (BufferUnderflowException e) {
+            throw malformed("truncated");
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Decodes an expression from an array holding exactly one message
+     * @param bytes The message
+     * @return The expression
+     * @throws IllegalArgumentException if the message is malformed, truncated or of another version
+     */
+    public static CompiledExpression decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CompiledExpression expression = decode(buffer);
+        if (buffer.hasRemaining()) {
+            throw malformed(buffer.remaining() + " bytes after the expression");
+        }
+        return expression;
+    }
+    //endregion Expressions
+
+    //region Results
+
+    /**
+     * Get the number of bytes a batch of the given number of results takes
+     */
+    public static int resultsSize(int count) {
+        return 2 + varintSize(count) + count * Double.BYTES;
+    }
+
+    /**
+     * Encodes a batch of results at the position of the buffer, advancing it;
+     * the values are copied in bulk
+     * @param results An array holding the results
+     * @param from    An index of the first result to write
+     * @param to      An index after the last result to write
+     * @param buffer  A buffer with at least resultsSize(to - from) bytes remaining
+     * @throws BufferOverflowException if the buffer is too small (nothing is written then)
+     */
+    public static void encodeResults(double[] results, int from, int to, ByteBuffer buffer) {
+        if (from < 0 || to > results.length || from > to) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") of " + results.length);
+        }
+        int count = to - from;
+        if (buffer.remaining() < resultsSize(count)) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(RESULTS).put(VERSION);
+        putVarint(buffer, count);
+        buffer.duplicate().order(ByteOrder.BIG_ENDIAN).asDoubleBuffer().put(results, from, count);
+        buffer.position(buffer.position() + count * Double.BYTES);
+    }
+
+    /**
+     * Decodes a batch of results at the position of the buffer, advancing it past the batch
+     * @param buffer A buffer holding the batch
+     * @return A read-only view of the values in the buffer, without copying them;
+     * valid while the buffer's content is
+     * @throws IllegalArgumentException if the batch is malformed, truncated or of another version
+     */
+    public static DoubleBuffer decodeResults(ByteBuffer buffer) {
+        try {
+            checkHeader(buffer, RESULTS);
+            int count = getCount(buffer);
+            if (buffer.remaining() / Double.BYTES < count) {
+                throw malformed("truncated");
+            }
+            DoubleBuffer values = buffer.slice().limit(count * Double.BYTES)
+                    .order(ByteOrder.BIG_ENDIAN).asDoubleBuffer().asReadOnlyBuffer();
+            buffer.position(buffer.position() + count * Double.BYTES);
+            return values;
+        } catch (BufferUnderflowException e) {
+            throw malformed("truncated");
+        }
+    }
+    //endregion Results
+
+    //region Primitives
+
+    private static void checkHeader(ByteBuffer buffer, byte kind) {
+        byte actual = buffer.get();
+        if (actual != kind) {
+            throw malformed("expected kind '" + (char) kind + "', got " + actual);
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw malformed("unsupported version " + version);
+        }
+    }
+
+    private static void putConstant(ByteBuffer buffer, double value) {
+        if (isInt(value)) {
+            buffer.put(CONST_INT);
+            putVarint(buffer, zigzag((int) value));
+        } else if (isFloat(value)) {
+            buffer.put(CONST_FLOAT).putFloat((float) value);
+        } else {
+            buffer.put(CompiledExpression.CONST).putDouble(value);
+        }
+    }
+
+    private static boolean isInt(double value) {
+        // -0.0 is not an int: it would come back as 0.0; the zigzag form must stay non-negative
+        return (int) value == value && Math.abs(value) < SMALL_INT_LIMIT
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    private static boolean isFloat(double value) {
+        // NaN is kept as a double so its bits are not changed
+        return (float) value == value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads the index of an operand written as its distance back from the instruction
+     */
+    private static int getOperand(ByteBuffer buffer, int pc) {
+        int distance = getVarint(buffer);
+        if (distance < 1 || distance > pc) {
+            throw malformed("operand " + distance + " back from " + pc);
+        }
+        return pc - distance;
+    }
+
+    /**
+     * Reads a count and checks it against the bytes left, at least one per item
+     */
+    private static int getCount(ByteBuffer buffer) {
+        int count = getVarint(buffer);
+        if (count > buffer.remaining()) {
+            throw malformed("truncated");
+        }
+        return count;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getCount(buffer);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int stringSize(String value) {
+        int length = value.getBytes(StandardCharsets.UTF_8).length;
+        return varintSize(length) + length;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a non-negative int of at most 5 varint bytes
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw malformed("varint out of range");
+                }
+                return value;
+            }
+        }
+        throw malformed("varint too long");
+    }
+
+    private static int varintSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+    //endregion Primitives
+
+    private static IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("Malformed message: " + reason);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * File: ExpressionCompiler.java
+ * Description: Translates an arithmetic expression
+ * into the postfix program of a CompiledExpression
+ * using Dijkstra's shunting-yard algorithm.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import cmath.UpdatedCalculator.Operator;
+import linkedlist.staque.IntStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single-use compiler of one expression.
+ * <p>
+ * Instead of calculating values as UpdatedCalculator.eval does,
+ * the applied operators are emitted as instructions,
+ * and the values stack holds indices of the instructions computing the operands.
+ */
+final class ExpressionCompiler extends AbstractExpressionParser {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String source;    // an expression to compile
+    private final List<String> variables = new ArrayList<>(); // a name of every slot
+    private final boolean fixedVariables; // whether unknown names are rejected
+
+    // define the stack of operands (instruction indices)
+    private final IntStack operands = new IntStack();
+
+    // the program under construction
+    private byte[] opcodes = new byte[INITIAL_CAPACITY];
+    private double[] constants = new double[INITIAL_CAPACITY];
+    private int[] lhs = new int[INITIAL_CAPACITY];
+    private int[] rhs = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private ExpressionCompiler(String source, String[] variables) {
+        super(source);
+        this.source = source;
+        this.size = 0;
+        this.fixedVariables = variables != null;
+        if (fixedVariables) {
+            for (String name : variables) {
+                if (this.variables.contains(name)) {
+                    throw new IllegalArgumentException("Duplicate variable '" + name + "'");
+                }
+                this.variables.add(name);
+            }
+        }
+    }
+
+    /**
+     * Compiles an arithmetic expression
+     * @param expression A string representation of the expression
+     * @param variables  Names of the variable slots in their order;
+     *                   null to assign slots in order of the first appearance
+     * @return The compiled expression
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    static CompiledExpression compile(String expression, String[] variables) {
+        ExpressionCompiler compiler = new ExpressionCompiler(expression, variables);
+        compiler.parse();
+        return compiler.build();
+    }
+
+    /**
+     * Appends a literal instruction
+     * @param value A value of the literal
+     */
+    @Override
+    protected void pushConstant(double value) {
+        append(CompiledExpression.CONST, value, -1, -1);
+    }
+
+    /**
+     * Appends a variable instruction,
+     * a new name gets the next slot unless the slots are fixed
+     */
+    @Override
+    protected void pushVariable() {
+        String name = source.substring(tokenizer.getStart(), tokenizer.getEnd());
+        int slot = variables.indexOf(name);
+        if (slot < 0) {
+            if (fixedVariables) {
+                throw tokenizer.error("Unknown variable '" + name + "'");
+            }
+            slot = variables.size();
+            variables.add(name);
+        }
+        append(CompiledExpression.VAR, 0, slot, -1);
+    }
+
+    /**
+     * Appends an instruction of the given operator,
+     * taking its operands from the operands stack
+     * @param operator An operator to apply
+     */
+    @Override
+    protected void apply(Operator operator) {
+        if (isFunction(operator)) {
+            int argument = operands.extract();
+            append(opcodeOf(operator), 0, argument, -1);
+        } else {
+            int right = operands.extract();
+            int left = operands.extract();
+            append(opcodeOf(operator), 0, left, right);
+        }
+    }
+
+    /**
+     * Appends an instruction to the program
+     * and pushes its index as a new operand
+     */
+    private void append(byte opcode, double constant, int left, int right) {
+        if (size == opcodes.length) {
+            int capacity = size * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+            lhs = Arrays.copyOf(lhs, capacity);
+            rhs = Arrays.copyOf(rhs, capacity);
+        }
+        opcodes[size] = opcode;
+        constants[size] = constant;
+        lhs[size] = left;
+        rhs[size] = right;
+        operands.add(size);
+        size++;
+    }
+
+    /**
+     * Makes the immutable expression from the program built so far
+     */
+    private CompiledExpression build() {
+        return new CompiledExpression(source, variables.toArray(new String[0]),
+                Arrays.copyOf(opcodes, size),
+                Arrays.copyOf(constants, size),
+                Arrays.copyOf(lhs, size),
+                Arrays.copyOf(rhs, size));
+    }
+
+    private static byte opcodeOf(Operator operator) {
+        switch (operator) {
+            case ADD: return CompiledExpression.ADD;
+            case SUB: return CompiledExpression.SUB;
+            case MUL: return CompiledExpression.MUL;
+            case DIV: return CompiledExpression.DIV;
+            case POW: return CompiledExpression.POW;
+            case SIN: return CompiledExpression.SIN;
+            case COS: return CompiledExpression.COS;
+            case TAN: return CompiledExpression.TAN;
+            default:
+                throw new IllegalArgumentException("Not an operation: " + operator);
+        }
+    }
+}
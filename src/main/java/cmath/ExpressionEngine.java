@@ -0,0 +1,216 @@
+/*
+ * File: ExpressionEngine.java
+ * Description: A configurable, thread-safe object evaluating
+ * arithmetic expressions with its own cache, limits and counters.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An engine evaluating arithmetic expressions given as strings.
+ * <p>
+ * An engine owns a cache of compiled expressions, an evaluation backend
+ * the hot expressions are promoted to, a limit on the expression length,
+ * and counters and metrics of its evaluations. UpdatedCalculator's static methods
+ * use a default engine; applications may create engines with other settings.
+ * <p>
+ * All methods are safe to call from many threads at once. Compiled
+ * expressions are immutable and shared, and the interpreter's stacks
+ * are reused through a small pool instead of a ThreadLocal, so concurrent
+ * calls don't contend on a lock and finished threads leave nothing behind.
+ */
+public final class ExpressionEngine {
+    /** The cache capacity of the default engine */
+    public static final int DEFAULT_CACHE_CAPACITY = 1024;
+
+    private final Backend backend;
+    private final int maxExpressionLength;
+    private final ExpressionCache cache;
+    private final ScratchPool<UpdatedCalculator.Interpreter> interpreters =
+            new ScratchPool<>(UpdatedCalculator.Interpreter::new);
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final EvaluationMetrics metrics = new EvaluationMetrics(this);
+
+    /**
+     * Make an engine promoting hot expressions to bytecode, with the default
+     * cache capacity and no limit on the expression length
+     */
+    public ExpressionEngine() {
+        this(Backend.BYTECODE, DEFAULT_CACHE_CAPACITY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Make an engine
+     * @param backend             A backend to promote the hot expressions to
+     * @param cacheCapacity       The maximal number of compiled expressions to keep
+     * @param maxExpressionLength The maximal number of characters in an expression
+     */
+    public ExpressionEngine(Backend backend, int cacheCapacity, int maxExpressionLength) {
+        if (backend == null) {
+            throw new IllegalArgumentException("Backend must not be null");
+        }
+        if (maxExpressionLength < 1) {
+            throw new IllegalArgumentException("Maximal expression length must be positive: " + maxExpressionLength);
+        }
+        this.backend = backend;
+        this.maxExpressionLength = maxExpressionLength;
+        this.cache = new ExpressionCache(cacheCapacity, backend);
+    }
+
+    /**
+     * Evaluates an expression, compiling it on the first use
+     * @param expression A string representation of the expression
+     * @param values     A value of every variable, in the order of their first appearance
+     * @return A value of the expression
+     * @throws IllegalArgumentException if the expression is malformed or too long,
+     * or there are fewer values than variables
+     * @throws ArithmeticException if the expression divides by 0
+     */
+    public double evaluate(String expression, double... values) {
+        boolean measured = metrics.sample();
+        long start = measured ? System.nanoTime() : 0;
+        try {
+            TieredExpression tiered = tiered(expression);
+            long evaluationStart = measured ? System.nanoTime() : 0;
+            double value = tiered.evaluate(values);
+            evaluations.increment();
+            if (measured) {
+                metrics.recordCompiled(expression.length(), tiered.getOperatorMix(),
+                        start, evaluationStart, System.nanoTime());
+            }
+            return value;
+        } catch (RuntimeException e) {
+            failures.increment();
+            metrics.recordFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Interprets an expression token by token, without compiling or caching it
+     * @param expression A string representation of the expression
+     * @return A value of the expression
+     * @throws IllegalArgumentException if the expression is malformed or too long
+     * @throws ArithmeticException if the expression divides by 0
+     */
+    public double interpret(String expression) {
+        return interpret(expression, null);
+    }
+
+    /**
+     * Interprets an expression token by token, recording every step of it
+     * @param expression A string representation of the expression
+     * @param trace      A trace to record the steps to, dropping its previous content;
+     *                   null to record nothing
+     * @return A value of the expression
+     * @throws IllegalArgumentException if the expression is malformed or too long
+     * @throws ArithmeticException if the expression divides by 0
+     */
+    public double interpret(String expression, EvaluationTrace trace) {
+        boolean measured = metrics.sample();
+        long start = measured ? System.nanoTime() : 0;
+        UpdatedCalculator.Interpreter interpreter = interpreters.acquire();
+        try {
+            checkLength(expression);
+            double value = trace == null
+                    ? interpreter.interpret(expression)
+                    : interpreter.interpret(expression, trace);
+            evaluations.increment();
+            if (measured) {
+                metrics.recordInterpreted(expression.length(), interpreter.applied, start, System.nanoTime());
+            }
+            return value;
+        } catch (RuntimeException e) {
+            failures.increment();
+            metrics.recordFailure(e);
+            throw e;
+        } finally {
+            interpreters.release(interpreter);
+        }
+    }
+
+    /**
+     * Get the compiled form of an expression, from the cache if it is there
+     * @param expression A string representation of the expression
+     * @return The optimized compiled expression
+     * @throws IllegalArgumentException if the expression is malformed or too long
+     */
+    public CompiledExpression compile(String expression) {
+        return tiered(expression).getExpression();
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public int getMaxExpressionLength() {
+        return maxExpressionLength;
+    }
+
+    public ExpressionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the latency, size and operator statistics of this engine's evaluations
+     * @return The metrics, enabled by default
+     */
+    public EvaluationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the number of evaluations that returned a value
+     */
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Get the number of evaluations that threw an exception
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionEngine{backend=" + backend + ", evaluations=" + getEvaluations()
+                + ", failures=" + getFailures() + ", cache=" + cache + "}";
+    }
+
+    /**
+     * Get the tiered form of an expression from the cache
+     * @throws IllegalArgumentException if the expression is malformed or too long
+     */
+    TieredExpression tiered(String expression) {
+        checkLength(expression);
+        return cache.getTiered(expression);
+    }
+
+    /**
+     * Counts the evaluations done outside of this engine's methods, e.g. by a BulkEvaluator
+     * @param succeeded The number of evaluations that returned a value
+     * @param failed    The number of evaluations that threw an exception
+     */
+    void record(long succeeded, long failed) {
+        evaluations.add(succeeded);
+        failures.add(failed);
+    }
+
+    private void checkLength(String expression) {
+        if (expression == null) {
+            throw new IllegalArgumentException("Expression must not be null");
+        }
+        if (expression.length() > maxExpressionLength) {
+            throw new IllegalArgumentException("Expression is longer than " + maxExpressionLength
+                    + " characters: " + expression.length());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * File: ExpressionOptimizer.java
+ * Description: Simplifies the program of a CompiledExpression.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static cmath.CompiledExpression.ADD;
+import static cmath.CompiledExpression.CONST;
+import static cmath.CompiledExpression.DIV;
+import static cmath.CompiledExpression.MUL;
+import static cmath.CompiledExpression.POW;
+import static cmath.CompiledExpression.SUB;
+import static cmath.CompiledExpression.VAR;
+
+/**
+ * A single-use optimizer of one program.
+ * <p>
+ * The instructions are rewritten in order, so the operands of every
+ * instruction are already rewritten when it is visited. Every new instruction
+ * is looked up among the ones emitted before (value numbering), so equal
+ * subexpressions end up as one instruction referred to several times.
+ * Finally, the instructions no longer reachable from the result are dropped.
+ */
+final class ExpressionOptimizer {
+    private final CompiledExpression source;
+
+    // the program under construction
+    private final byte[] opcodes;
+    private final double[] constants;
+    private final int[] lhs;
+    private final int[] rhs;
+    private final boolean[] mayThrow;   // whether an instruction may divide by 0
+    private int size;
+
+    // an index of the emitted instruction for every distinct instruction
+    private final Map<Instruction, Integer> emitted = new HashMap<>();
+
+    /**
+     * A key of an instruction, literals are compared by their bits
+     */
+    private record Instruction(byte opcode, long constant, int lhs, int rhs) {
+    }
+
+    private ExpressionOptimizer(CompiledExpression source) {
+        this.source = source;
+        // the optimized program is never longer than the source one
+        int capacity = source.size();
+        this.opcodes = new byte[capacity];
+        this.constants = new double[capacity];
+        this.lhs = new int[capacity];
+        this.rhs = new int[capacity];
+        this.mayThrow = new boolean[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Optimizes the program of a compiled expression
+     * @param expression An expression to optimize
+     * @return An equivalent expression
+     */
+    static CompiledExpression optimize(CompiledExpression expression) {
+        return new ExpressionOptimizer(expression).run();
+    }
+
+    private CompiledExpression run() {
+        // an index in the new program of every source instruction
+        int[] rewritten = new int[source.size()];
+        for (int pc = 0; pc < source.size(); pc++) {
+            byte opcode = source.opcodeAt(pc);
+            if (opcode == CONST) {
+                rewritten[pc] = constant(source.constantAt(pc));
+            } else if (opcode == VAR) {
+                rewritten[pc] = emit(VAR, 0, source.lhsAt(pc), -1);
+            } else {
+                int left = rewritten[source.lhsAt(pc)];
+                int right = source.rhsAt(pc) >= 0 ? rewritten[source.rhsAt(pc)] : -1;
+                rewritten[pc] = operator(opcode, left, right);
+            }
+        }
+        return compact(rewritten[source.size() - 1]);
+    }
+
+    /**
+     * Emits an operator, folding or simplifying it when possible
+     * @param opcode An opcode of the operator
+     * @param left   An index of the 1st operand in the new program
+     * @param right  An index of the 2nd operand in the new program; -1 for functions
+     * @return An index of the instruction computing the result
+     */
+    private int operator(byte opcode, int left, int right) {
+        boolean leftConstant = opcodes[left] == CONST;
+        boolean rightConstant = right >= 0 && opcodes[right] == CONST;
+        if (right < 0) {
+            if (leftConstant) {
+                return constant(CompiledExpression.apply(opcode, constants[left], 0));
+            }
+            return emit(opcode, 0, left, -1);
+        }
+        // fold, unless it is a division by 0 that has to throw when evaluated
+        if (leftConstant && rightConstant && !(opcode == DIV && constants[right] == 0)) {
+            return constant(CompiledExpression.apply(opcode, constants[left], constants[right]));
+        }
+        switch (opcode) {
+            case ADD:
+                if (isConstant(left, 0)) return right;
+                if (isConstant(right, 0)) return left;
+                break;
+            case SUB:
+                if (isConstant(right, 0)) return left;
+                break;
+            case MUL:
+                if (isConstant(left, 1)) return right;
+                if (isConstant(right, 1)) return left;
+                break;
+            case DIV:
+                if (isConstant(right, 1)) return left;
+                break;
+            case POW:
+                // x ^ 0 is 1 for every x, but the division by 0 in x has to throw
+                if (isConstant(right, 0) && !mayThrow[left]) return constant(1.0);
+                if (isConstant(right, 1)) return left;
+                if (isConstant(right, 2)) return emit(MUL, 0, left, left);
+                break;
+            default:
+                break;
+        }
+        if ((opcode == ADD || opcode == MUL) && left > right) {
+            // put the operands of commutative operators in one order, so a + b equals b + a
+            int swap = left;
+            left = right;
+            right = swap;
+        }
+        return emit(opcode, 0, left, right);
+    }
+
+    private boolean isConstant(int pc, double value) {
+        return opcodes[pc] == CONST && constants[pc] == value;
+    }
+
+    private int constant(double value) {
+        return emit(CONST, value, -1, -1);
+    }
+
+    /**
+     * Appends an instruction unless the same one is already in the new program
+     * @return An index of the instruction
+     */
+    private int emit(byte opcode, double constant, int left, int right) {
+        Instruction key = new Instruction(opcode, Double.doubleToRawLongBits(constant), left, right);
+        Integer existing = emitted.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        opcodes[size] = opcode;
+        constants[size] = constant;
+        lhs[size] = left;
+        rhs[size] = right;
+        mayThrow[size] = opcode != CONST && opcode != VAR
+                && (mayThrow[left] || right >= 0 && mayThrow[right]
+                || opcode == DIV && !(opcodes[right] == CONST && constants[right] != 0));
+        emitted.put(key, size);
+        return size++;
+    }
+
+    /**
+     * Drops the instructions that the result doesn't depend on
+     * @param result An index of the result instruction
+     * @return The expression made of the remaining instructions
+     */
+    private CompiledExpression compact(int result) {
+        // operands precede their operators, so one backward pass marks all dependencies
+        boolean[] used = new boolean[size];
+        used[result] = true;
+        for (int pc = result; pc >= 0; pc--) {
+            if (used[pc] && opcodes[pc] != CONST && opcodes[pc] != VAR) {
+                used[lhs[pc]] = true;
+                if (rhs[pc] >= 0) {
+                    used[rhs[pc]] = true;
+                }
+            }
+        }
+        int[] moved = new int[size];
+        int count = 0;
+        for (int pc = 0; pc <= result; pc++) {
+            if (!used[pc]) {
+                continue;
+            }
+            moved[pc] = count;
+            opcodes[count] = opcodes[pc];
+            constants[count] = constants[pc];
+            boolean hasOperands = opcodes[pc] != CONST && opcodes[pc] != VAR;
+            lhs[count] = hasOperands ? moved[lhs[pc]] : lhs[pc];
+            rhs[count] = hasOperands && rhs[pc] >= 0 ? moved[rhs[pc]] : rhs[pc];
+            count++;
+        }
+        return new CompiledExpression(source.getSource(), source.variables(),
+                Arrays.copyOf(opcodes, count),
+                Arrays.copyOf(constants, count),
+                Arrays.copyOf(lhs, count),
+                Arrays.copyOf(rhs, count));
+    }
+}
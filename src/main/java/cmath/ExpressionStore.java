@@ -0,0 +1,243 @@
+/*
+ * File: ExpressionStore.java
+ * Description: A persistent, memory-mapped catalogue of compiled
+ * expressions keyed by the hash of their text.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A read-only file of compiled expressions, written once from a catalogue
+ * and opened by every process that evaluates it, so a restarted process
+ * gets the compiled forms without parsing them again.
+ * <p>
+ * The file is a header, an open-addressing hash index and the expressions
+ * as ExpressionCodec messages with their normalized source. Opening maps
+ * the file and checks the header only; an expression is decoded from the
+ * mapping when it is first asked for, and only the pages touched are read
+ * from the disk. A hash match is confirmed by the stored source, so two
+ * expressions with the same hash are told apart.
+ * <p>
+ * Set as the store of an ExpressionCache, it is consulted on every cache
+ * miss before compiling. A store is immutable and safe to share between threads.
+ */
+public final class ExpressionStore {
+    private static final int MAGIC = 0x434D5853;    // "CMXS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;      // magic, version, count, capacity
+    private static final int SLOT_SIZE = 12;        // a long hash and an int offset, 0 if empty
+
+    private final Path path;
+    private final ByteBuffer file;
+    private final int count;
+    private final int mask;
+    private final LongAdder loads = new LongAdder();
+
+    private ExpressionStore(Path path, ByteBuffer file, int count, int capacity) {
+        this.path = path;
+        this.file = file;
+        this.count = count;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Compiles the expressions and writes them to a store file, replacing
+     * the file at once so readers never see it half written
+     * @param path        A file to write
+     * @param expressions The expressions; duplicates, also after normalization, are stored once
+     * @return The number of expressions stored
+     * @throws IllegalArgumentException if an expression is malformed
+     * @throws IOException if the file can't be written
+     */
+    public static int write(Path path, Collection<String> expressions) throws IOException {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String expression : expressions) {
+            keys.add(ExpressionCache.normalize(expression));
+        }
+        List<CompiledExpression> compiled = new ArrayList<>(keys.size());
+        long size = 0;
+        for (String key : keys) {
+            CompiledExpression expression = UpdatedCalculator.compile(key).optimize();
+            compiled.add(expression);
+            size += ExpressionCodec.encodedSize(expression, true);
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, keys.size() * 2 - 1)) << 1;   // load factor <= 1/2
+        size += HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Store would be larger than 2 GB: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(compiled.size()).putInt(capacity);
+        int offset = HEADER_SIZE + capacity * SLOT_SIZE;
+        buffer.position(offset);
+        for (CompiledExpression expression : compiled) {
+            String key = expression.getSource();
+            long hash = hash(key);
+            int slot = slotOf(hash, capacity - 1);
+            while (buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + Long.BYTES) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+            buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE + Long.BYTES, buffer.position());
+            ExpressionCodec.encode(expression, buffer, true);
+        }
+        buffer.flip();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return compiled.size();
+    }
+
+    /**
+     * Maps a store file; nothing is decoded until asked for
+     * @param path A file written by write
+     * @return The store
+     * @throws IOException if the file can't be read or is not a store of this version
+     */
+    public static ExpressionStore open(Path path) throws IOException {
+        MappedByteBuffer file;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Store is larger than 2 GB: " + path);
+            }
+            // the mapping stays valid after the channel is closed
+            file = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (file.limit() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+            throw new IOException("Not an expression store: " + path);
+        }
+        if (file.getInt(4) != VERSION) {
+            throw new IOException("Unsupported expression store version " + file.getInt(4) + ": " + path);
+        }
+        int count = file.getInt(8);
+        int capacity = file.getInt(12);
+        if (capacity < 1 || Integer.bitCount(capacity) != 1 || count < 0 || count >= capacity
+                || HEADER_SIZE + (long) capacity * SLOT_SIZE > file.limit()) {
+            throw new IOException("Corrupt expression store header: " + path);
+        }
+        return new ExpressionStore(path, file, count, capacity);
+    }
+
+    /**
+     * Get the compiled form of an expression, decoding it from the file
+     * @param expression A string representation of the expression, normalized or not
+     * @return The optimized compiled expression; null if it is not stored
+     * @throws IllegalStateException if the file is corrupt
+     */
+    public CompiledExpression get(String expression) {
+        CompiledExpression compiled = find(ExpressionCache.normalize(expression));
+        if (compiled != null) {
+            loads.increment();
+        }
+        return compiled;
+    }
+
+    public boolean contains(String expression) {
+        return find(ExpressionCache.normalize(expression)) != null;
+    }
+
+    /**
+     * Get the number of expressions stored
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the number of expressions decoded by get so far
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionStore{path=" + path + ", size=" + count + ", loads=" + getLoads() + "}";
+    }
+
+    /**
+     * Probes the index from the slot of the key's hash until an empty slot
+     * @return The decoded expression; null if it is not stored
+     */
+    private CompiledExpression find(String key) {
+        long hash = hash(key);
+        int slot = slotOf(hash, mask);
+        for (int probes = 0; probes <= mask; probes++, slot = (slot + 1) & mask) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            int offset = file.getInt(position + Long.BYTES);
+            if (offset == 0) {
+                return null;
+            }
+            if (file.getLong(position) == hash) {
+                CompiledExpression compiled = decodeAt(offset);
+                if (compiled.getSource().equals(key)) {
+                    return compiled;
+                }
+            }
+        }
+        return null;    // a corrupt index without empty slots
+    }
+
+    private CompiledExpression decodeAt(int offset) {
+        if (offset < HEADER_SIZE || offset >= file.limit()) {
+            throw new IllegalStateException("Corrupt expression store, offset " + offset + ": " + path);
+        }
+        try {
+            // a duplicate has its own position, so threads don't disturb each other
+            return ExpressionCodec.decode(file.duplicate().position(offset));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Corrupt expression store at " + offset + ": " + path, e);
+        }
+    }
+
+    /**
+     * Hashes a key with 64-bit FNV-1a over its chars, which is the same in every JVM
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static int slotOf(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
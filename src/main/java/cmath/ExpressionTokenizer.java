@@ -0,0 +1,200 @@
+/*
+ * File: ExpressionTokenizer.java
+ * Description: Splits an arithmetic expression into tokens
+ * in a single forward pass over its characters.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import cmath.UpdatedCalculator.Operator;
+
+/**
+ * A forward-only tokenizer over a CharSequence.
+ * <p>
+ * A token is described by its type, its offsets in the source
+ * and, depending on the type, a numeric value or an operator;
+ * no substrings are made. Whitespaces separate tokens and are skipped.
+ */
+final class ExpressionTokenizer {
+    /**
+     * A kind of token
+     */
+    enum Token {
+        NUMBER,     // a numeric literal, see getNumber()
+        FUNCTION,   // sin, cos or tan, see getOperator()
+        NAME,       // a variable name, see getStart() and getEnd()
+        OPERATOR,   // +, -, *, /, ^, ( or ), see getOperator()
+        END         // no more tokens
+    }
+
+    private static final char DOT = '.';
+    private static final char UNDERSCORE = '_';
+
+    private CharSequence source;        // an expression to split
+    private int position;               // an index of the next character to read
+
+    // the current token
+    private Token type;
+    private int start;
+    private double number;
+    private Operator operator;
+
+    /**
+     * Make a tokenizer positioned before the first token
+     * @param source An expression to split
+     */
+    ExpressionTokenizer(CharSequence source) {
+        reset(source);
+    }
+
+    /**
+     * Start splitting another expression, so the tokenizer may be reused
+     * @param source An expression to split
+     */
+    void reset(CharSequence source) {
+        this.source = source;
+        this.position = 0;
+        this.start = 0;
+        this.type = null;
+    }
+
+    /**
+     * Reads the next token
+     * @return A type of the token
+     * @throws IllegalArgumentException if the source has a character out of the grammar
+     */
+    Token next() {
+        int length = source.length();
+        while (position < length && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        start = position;
+        if (position == length) {
+            return type = Token.END;
+        }
+        char currentChar = source.charAt(position);
+        if ((currentChar >= '0' && currentChar <= '9') || currentChar == DOT) {
+            number = readNumber();
+            return type = Token.NUMBER;
+        }
+        if (Character.isLetter(currentChar) || currentChar == UNDERSCORE) {
+            // Only letters make a function name, so sin45.0 is sin(45.0)
+            while (position < length && Character.isLetter(source.charAt(position))) {
+                position++;
+            }
+            operator = functionAt(start, position);
+            if (operator != null) {
+                return type = Token.FUNCTION;
+            }
+            while (position < length && isNameChar(source.charAt(position))) {
+                position++;
+            }
+            return type = Token.NAME;
+        }
+        operator = Operator.fromSymbol(currentChar);
+        if (operator == null || isFunctionSymbol(operator)) {
+            throw error("Unexpected character '" + currentChar + "'");
+        }
+        position++;
+        return type = Token.OPERATOR;
+    }
+
+    Token getType() {
+        return type;
+    }
+
+    /**
+     * Get the value of the current NUMBER token
+     */
+    double getNumber() {
+        return number;
+    }
+
+    /**
+     * Get the operator of the current FUNCTION or OPERATOR token
+     */
+    Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Get an index of the first character of the current token
+     */
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * Get an index after the last character of the current token
+     */
+    int getEnd() {
+        return position;
+    }
+
+    CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * Makes an exception pointing at the current token
+     * @param message A description of the problem
+     * @return The exception to throw
+     */
+    IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + start + ": " + source);
+    }
+
+    /**
+     * Reads a numeric literal, see NumberLiteral for its syntax
+     * @return A value of the literal
+     */
+    private double readNumber() {
+        int end = NumberLiteral.scan(source, start);
+        if (end < 0) {
+            throw error("Malformed number");
+        }
+        position = end;
+        return NumberLiteral.parse(source, start, end);
+    }
+
+    /**
+     * Try to find the trigonometric function named by a region of the source
+     * @return SIN, COS or TAN; null if the region is not a function name
+     */
+    private Operator functionAt(int from, int to) {
+        if (to - from != 3) {
+            return null;
+        }
+        if (regionEquals(from, to, "sin")) {
+            return Operator.SIN;
+        } else if (regionEquals(from, to, "cos")) {
+            return Operator.COS;
+        } else if (regionEquals(from, to, "tan")) {
+            return Operator.TAN;
+        }
+        return null;
+    }
+
+    private boolean regionEquals(int from, int to, String text) {
+        if (to - from != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(from + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(char symbol) {
+        return Character.isLetterOrDigit(symbol) || symbol == UNDERSCORE;
+    }
+
+    private static boolean isFunctionSymbol(Operator operator) {
+        return operator == Operator.SIN || operator == Operator.COS || operator == Operator.TAN;
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * File: FormulaSheet.java
+ * Description: Named cells holding values or formulas over other cells,
+ * recalculated incrementally in dependency order.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A spreadsheet without a grid: every cell has a name and holds either
+ * a value or a formula whose variables are the names of other cells.
+ * <p>
+ * The cells form a dependency graph. A change marks the changed cell and
+ * everything downstream of it dirty, and recalculate() evaluates only the
+ * dirty formulas, level by level in topological order, so every formula is
+ * evaluated once, after all its inputs. A dirty formula none of whose inputs
+ * actually changed value keeps its value without being evaluated, which stops
+ * a change from spreading further than it has effect. The formulas of a level
+ * don't depend on each other and are evaluated in parallel when the level is
+ * large. Circular references are rejected when a formula is set.
+ * <p>
+ * Like a spreadsheet, a failing formula doesn't stop the recalculation: its
+ * value is NaN and getError() tells why (a division by 0, a reference to an
+ * undefined cell or to a failed one). A sheet is not thread-safe; it uses
+ * the threads of its pool only inside recalculate().
+ */
+public final class FormulaSheet {
+    /** The default number of formulas of a level from which they are evaluated in parallel */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+
+    private final ExpressionEngine engine;
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+    private final Map<String, Cell> cells = new HashMap<>();
+    private final List<Cell> dirty = new ArrayList<>();
+    private long evaluations;   // the number of formulas evaluated by all recalculations
+
+    /**
+     * Make a sheet with UpdatedCalculator's engine, the common pool
+     * and the default parallel threshold
+     */
+    public FormulaSheet() {
+        this(UpdatedCalculator.getEngine(), ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Make a sheet
+     * @param engine            An engine to compile the formulas with
+     * @param pool              A pool to evaluate the large levels in
+     * @param parallelThreshold The number of formulas of a level from which they are evaluated in parallel
+     */
+    public FormulaSheet(ExpressionEngine engine, ForkJoinPool pool, int parallelThreshold) {
+        if (engine == null || pool == null) {
+            throw new IllegalArgumentException("Engine and pool must not be null");
+        }
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold must be positive: " + parallelThreshold);
+        }
+        this.engine = engine;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    //region Editing
+
+    /**
+     * Put a value into a cell, replacing its formula if it has one
+     * @param name  A name of the cell, a valid variable name
+     * @param value The value
+     * @throws IllegalArgumentException if the name is not a variable name
+     */
+    public void setValue(String name, double value) {
+        Cell cell = cellOf(name);
+        boolean wasValue = cell.defined && cell.formula == null;
+        cell.detach();
+        cell.defined = true;
+        cell.formula = null;
+        if (wasValue && !cell.dirty && Double.compare(cell.value, value) == 0) {
+            return;     // nothing changes
+        }
+        cell.value = value;
+        cell.error = null;
+        markDirty(cell);
+    }
+
+    /**
+     * Put a formula into a cell, replacing its value or formula;
+     * it is evaluated by the next recalculation
+     * @param name    A name of the cell, a valid variable name
+     * @param formula An expression whose variables are names of cells,
+     *                the ones not defined yet may be defined later
+     * @throws IllegalArgumentException if the name is not a variable name,
+     * the formula is malformed or refers to the cell itself, directly or not
+     */
+    public void setFormula(String name, String formula) {
+        Cell cell = cellOf(name);
+        CompiledExpression compiled = engine.compile(formula);
+        String[] variables = compiled.variables();
+        Cell[] inputs = new Cell[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            inputs[i] = cellOf(variables[i]);
+        }
+        checkAcyclic(cell, inputs);
+        cell.detach();
+        cell.defined = true;
+        cell.formula = compiled;
+        cell.source = formula;
+        cell.inputs = inputs;
+        cell.slots = new double[inputs.length];
+        for (Cell input : inputs) {
+            input.dependents.add(cell);
+        }
+        markDirty(cell);
+    }
+
+    /**
+     * Make a cell undefined; the formulas referring to it fail by the next recalculation
+     * @param name A name of the cell
+     */
+    public void remove(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null || !cell.defined) {
+            return;
+        }
+        cell.detach();
+        cell.defined = false;
+        cell.formula = null;
+        cell.value = Double.NaN;
+        cell.error = null;
+        markDirty(cell);
+    }
+    //endregion Editing
+
+    //region Reading
+
+    /**
+     * Get the value of a cell, recalculating the sheet first if it has changed
+     * @param name A name of the cell
+     * @return The value; NaN if the cell is undefined or its formula failed
+     */
+    public double get(String name) {
+        recalculate();
+        Cell cell = cells.get(name);
+        return cell == null ? Double.NaN : cell.value;
+    }
+
+    /**
+     * Get the reason the formula of a cell failed, recalculating the sheet first if it has changed
+     * @param name A name of the cell
+     * @return A message; null if the cell has a value
+     */
+    public String getError(String name) {
+        recalculate();
+        Cell cell = cells.get(name);
+        if (cell == null || !cell.defined) {
+            return "Undefined cell '" + name + "'";
+        }
+        return cell.error;
+    }
+
+    /**
+     * Get the formula of a cell
+     * @param name A name of the cell
+     * @return The source of the formula; null if the cell holds a value or is undefined
+     */
+    public String getFormula(String name) {
+        Cell cell = cells.get(name);
+        return cell == null || cell.formula == null ? null : cell.source;
+    }
+
+    /**
+     * Get the number of defined cells
+     */
+    public int size() {
+        int size = 0;
+        for (Cell cell : cells.values()) {
+            if (cell.defined) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of cells waiting for the next recalculation
+     */
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Get the number of formulas evaluated by all recalculations so far
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+    //endregion Reading
+
+    /**
+     * Evaluates the formulas affected by the changes since the previous recalculation
+     * @return The number of formulas evaluated
+     */
+    public int recalculate() {
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        // the first level: the dirty cells none of whose inputs is dirty
+        List<Cell> level = new ArrayList<>();
+        for (Cell cell : dirty) {
+            int pending = 0;
+            if (cell.inputs != null) {
+                for (Cell input : cell.inputs) {
+                    if (input.dirty) {
+                        pending++;
+                    }
+                }
+            }
+            cell.pending = pending;
+            if (pending == 0) {
+                level.add(cell);
+            }
+        }
+        int evaluated = 0;
+        long failed = 0;
+        while (!level.isEmpty()) {
+            if (level.size() >= parallelThreshold) {
+                pool.invoke(new LevelTask(level, 0, level.size()));
+            } else {
+                for (Cell cell : level) {
+                    cell.update();
+                }
+            }
+            List<Cell> next = new ArrayList<>();
+            for (Cell cell : level) {
+                if (cell.evaluated) {
+                    evaluated++;
+                    if (cell.error != null) {
+                        failed++;
+                    }
+                }
+                for (Cell dependent : cell.dependents) {
+                    if (dependent.dirty && --dependent.pending == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            level = next;
+        }
+        // the flags are read by the dependents until the last level
+        for (Cell cell : dirty) {
+            cell.dirty = false;
+            cell.changed = false;
+            cell.evaluated = false;
+        }
+        dirty.clear();
+        evaluations += evaluated;
+        engine.record(evaluated - failed, failed);
+        return evaluated;
+    }
+
+    @Override
+    public String toString() {
+        return "FormulaSheet{cells=" + size() + ", dirty=" + dirty.size() + ", evaluations=" + evaluations + "}";
+    }
+
+    /**
+     * Get a cell by its name, making an undefined one if there is none
+     * @throws IllegalArgumentException if the name is not a variable name
+     */
+    private Cell cellOf(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            checkName(name);
+            cell = new Cell(name);
+            cells.put(name, cell);
+        }
+        return cell;
+    }
+
+    private static void checkName(String name) {
+        CompiledExpression expression;
+        try {
+            expression = name == null ? null : UpdatedCalculator.compile(name);
+        } catch (IllegalArgumentException e) {
+            expression = null;
+        }
+        if (expression == null || expression.size() != 1 || expression.variables().length != 1
+                || !expression.variables()[0].equals(name)) {
+            throw new IllegalArgumentException("Invalid cell name: " + name);
+        }
+    }
+
+    /**
+     * Checks that the cell is not among the given inputs or anything they depend on
+     * @throws IllegalArgumentException if it is, naming the cells of the cycle
+     */
+    private static void checkAcyclic(Cell cell, Cell[] inputs) {
+        // a depth-first walk up the inputs, with the way back to the start kept for the message
+        Map<Cell, Cell> reachedFrom = new HashMap<>();
+        ArrayDeque<Cell> stack = new ArrayDeque<>();
+        for (Cell input : inputs) {
+            if (reachedFrom.putIfAbsent(input, cell) == null) {
+                stack.push(input);
+            }
+        }
+        while (!stack.isEmpty()) {
+            Cell current = stack.pop();
+            if (current == cell) {
+                // the way back lists the cells in the reverse order of their references
+                List<String> names = new ArrayList<>();
+                for (Cell step = reachedFrom.get(cell); step != cell; step = reachedFrom.get(step)) {
+                    names.add(step.name);
+                }
+                StringBuilder cycle = new StringBuilder(cell.name);
+                for (int i = names.size() - 1; i >= 0; i--) {
+                    cycle.append(" -> ").append(names.get(i));
+                }
+                throw new IllegalArgumentException("Circular reference: " + cycle.append(" -> ").append(cell.name));
+            }
+            if (current.inputs != null) {
+                for (Cell input : current.inputs) {
+                    if (reachedFrom.putIfAbsent(input, current) == null) {
+                        stack.push(input);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a changed cell and everything downstream of it dirty;
+     * the cells already dirty have their downstream marked already
+     */
+    private void markDirty(Cell cell) {
+        cell.changed = true;
+        if (cell.dirty) {
+            return;
+        }
+        ArrayDeque<Cell> stack = new ArrayDeque<>();
+        cell.dirty = true;
+        stack.push(cell);
+        while (!stack.isEmpty()) {
+            Cell current = stack.pop();
+            dirty.add(current);
+            for (Cell dependent : current.dependents) {
+                if (!dependent.dirty) {
+                    dependent.dirty = true;
+                    stack.push(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * A named cell; undefined cells exist while formulas refer to them
+     */
+    private static final class Cell {
+        final String name;
+        final List<Cell> dependents = new ArrayList<>(2);   // the formulas using this cell
+        boolean defined;
+        CompiledExpression formula;     // null if the cell holds a value
+        String source;                  // the text of the formula as it was set
+        Cell[] inputs;                  // the cells of the formula's variables, in slot order
+        double[] slots;                 // the values of the inputs, reused
+        double value = Double.NaN;
+        String error;                   // why the formula failed, null if it has a value
+        boolean dirty;                  // waits for the recalculation
+        boolean changed;                // its value or error changed, or it was edited, in this recalculation
+        boolean evaluated;              // its formula was evaluated in this recalculation
+        int pending;                    // the dirty inputs not recalculated yet
+
+        Cell(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Evaluates the formula if it was edited or an input changed;
+         * sets changed if the value or the error changes
+         */
+        void update() {
+            if (formula == null) {
+                return;     // an edited value, changed is set already
+            }
+            boolean inputChanged = changed;
+            for (Cell input : inputs) {
+                inputChanged |= input.changed;
+            }
+            if (!inputChanged) {
+                return;
+            }
+            double oldValue = value;
+            String oldError = error;
+            evaluate();
+            evaluated = true;
+            changed = Double.compare(oldValue, value) != 0 || !Objects.equals(oldError, error);
+        }
+
+        private void evaluate() {
+            for (int i = 0; i < inputs.length; i++) {
+                Cell input = inputs[i];
+                if (!input.defined) {
+                    fail("Undefined cell '" + input.name + "'");
+                    return;
+                }
+                if (input.error != null) {
+                    fail("Failed cell '" + input.name + "'");
+                    return;
+                }
+                slots[i] = input.value;
+            }
+            try {
+                value = formula.evaluate(slots);
+                error = null;
+            } catch (ArithmeticException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        private void fail(String message) {
+            value = Double.NaN;
+            error = message;
+        }
+
+        /**
+         * Removes the cell from the dependents of its inputs
+         */
+        void detach() {
+            if (inputs != null) {
+                for (Cell input : inputs) {
+                    input.dependents.remove(this);
+                }
+                inputs = null;
+                slots = null;
+            }
+        }
+    }
+
+    /**
+     * Updates a range of the cells of a level, splitting it while it is large
+     */
+    @SuppressWarnings("serial")
+    private final class LevelTask extends RecursiveAction {
+        private final List<Cell> level;
+        private final int from;
+        private final int to;
+
+        LevelTask(List<Cell> level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > Math.max(1, parallelThreshold / 4)) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LevelTask(level, from, middle), new LevelTask(level, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                level.get(i).update();
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * File: FunctionCache.java
+ * Description: An optional, fixed-size memo of the results of the
+ * trigonometric functions and exponentiation, shared by all evaluations.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cmath.CompiledExpression.COS;
+import static cmath.CompiledExpression.POW;
+import static cmath.CompiledExpression.SIN;
+import static cmath.CompiledExpression.TAN;
+
+/**
+ * A memo of sin, cos, tan and ^ results for workloads that call them with
+ * a small set of recurring arguments, such as angles in whole degrees.
+ * <p>
+ * Every backend applies these operators through this class. The memo is
+ * disabled by default, and then the operators cost one more flag check.
+ * When it is enabled, a result is looked up by the raw bits of the arguments
+ * in an open-addressing table of CAPACITY entries split into buckets of four
+ * adjacent slots, and a missed result takes a slot of its bucket. The entries are
+ * immutable and written without locks: two threads may overwrite each other's
+ * entry, which loses a result, but a reader never sees a half-written one.
+ * A result from the memo has the same bits as a computed one.
+ * <p>
+ * A lookup costs a hash, a read of a random cache line and a counter
+ * increment, which is more than an integer power and not much less than
+ * Math.sin, so the memo pays off only when the hit rate is high. The hit rate
+ * is reported here and by EvaluationMetrics to decide per workload.
+ */
+public final class FunctionCache {
+    /** The number of entries in the table, a power of two */
+    public static final int CAPACITY = 4096;
+
+    /** The largest magnitude of an integral exponent computed by repeated squaring */
+    static final int MAX_SQUARING_EXPONENT = 32;
+
+    private static final int WAYS = 4;                      // the slots of a bucket, in one cache line
+
+    private static final Entry[] TABLE = new Entry[CAPACITY];
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static volatile boolean enabled;
+    private static volatile boolean squaring = true;
+
+    /**
+     * A result with the bits of its arguments; the 2nd one is 0 for functions
+     */
+    private record Entry(byte opcode, long left, long right, double value) {
+    }
+
+    private FunctionCache() {
+    }
+
+    /**
+     * Turns the memo on or off for all evaluations in this JVM, the entries are kept
+     * @param enabled Whether to look the results up
+     */
+    public static void setEnabled(boolean enabled) {
+        FunctionCache.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Chooses how ^ with a small integer exponent is computed in this JVM:
+     * by repeated squaring, the default, or by Math.pow. Either way the result
+     * doesn't depend on the host, Math.fma is exact with or without an instruction
+     * for it; without one it is much slower than Math.pow, so turn squaring off there.
+     * The memo keeps the powers computed before, clear it after a change
+     * @param squaring Whether to raise to integer powers by repeated squaring
+     */
+    public static void setSquaringPowers(boolean squaring) {
+        FunctionCache.squaring = squaring;
+    }
+
+    public static boolean isSquaringPowers() {
+        return squaring;
+    }
+
+    /**
+     * Remove all entries and reset the counters
+     */
+    public static void clear() {
+        Arrays.fill(TABLE, null);
+        HITS.reset();
+        MISSES.reset();
+    }
+
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * Get the share of the lookups that found a result
+     * @return A hit rate from 0 to 1; 0 if there were no lookups
+     */
+    public static double getHitRate() {
+        long hitCount = HITS.sum();
+        long total = hitCount + MISSES.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    //region Operators
+
+    static double sin(double value) {
+        return enabled ? lookup(SIN, value, 0) : Math.sin(value);
+    }
+
+    static double cos(double value) {
+        return enabled ? lookup(COS, value, 0) : Math.cos(value);
+    }
+
+    static double tan(double value) {
+        return enabled ? lookup(TAN, value, 0) : Math.tan(value);
+    }
+
+    static double pow(double base, double exponent) {
+        return enabled ? lookup(POW, base, exponent) : power(base, exponent);
+    }
+    //endregion Operators
+
+    /**
+     * Raises a value to a power, by repeated squaring when the exponent is
+     * a small integer and squaring is on. The partial powers
+     * are kept as unevaluated sums of two doubles with the exact errors of their
+     * products, so the result is rounded about once and is within an ulp of
+     * Math.pow, in about half of its time
+     * @param base     A value to raise
+     * @param exponent A power to raise to
+     * @return The power
+     */
+    static double power(double base, double exponent) {
+        int n = (int) exponent;
+        if (squaring && n == exponent && n >= -MAX_SQUARING_EXPONENT && n <= MAX_SQUARING_EXPONENT) {
+            double high = 1;
+            double low = 0;
+            double squareHigh = base;
+            double squareLow = 0;
+            for (int k = Math.abs(n); k != 0; k >>= 1) {
+                if ((k & 1) != 0) {
+                    double product = high * squareHigh;
+                    double error = Math.fma(high, squareHigh, -product) + (high * squareLow + low * squareHigh);
+                    high = product + error;
+                    low = error - (high - product);
+                }
+                if (k > 1) {
+                    double product = squareHigh * squareHigh;
+                    double error = Math.fma(squareHigh, squareHigh, -product) + 2 * squareHigh * squareLow;
+                    squareHigh = product + error;
+                    squareLow = error - (squareHigh - product);
+                }
+            }
+            double result = high + low;
+            if (n < 0) {
+                // 1 / (high + low) with the residual of the reciprocal corrected once
+                double reciprocal = 1 / high;
+                double residual = -Math.fma(reciprocal, high, -1) - reciprocal * low;
+                result = reciprocal + reciprocal * residual;
+            }
+            // an overflow, an underflow or a NaN is left to Math.pow, which rounds it right
+            if (result != 0 && Double.isFinite(result)) {
+                return result;
+            }
+        }
+        return Math.pow(base, exponent);
+    }
+
+    private static double lookup(byte opcode, double left, double right) {
+        long leftBits = Double.doubleToRawLongBits(left);
+        long rightBits = Double.doubleToRawLongBits(right);
+        long hash = hash(opcode, leftBits, rightBits);
+        int bucket = (int) hash & (CAPACITY - WAYS);
+        Entry[] table = TABLE;
+        int free = -1;
+        for (int slot = bucket; slot < bucket + WAYS; slot++) {
+            Entry entry = table[slot];
+            if (entry == null) {
+                // the entries are never removed one by one, so the rest of the bucket is empty
+                free = slot;
+                break;
+            }
+            if (entry.left == leftBits && entry.right == rightBits && entry.opcode == opcode) {
+                HITS.increment();
+                return entry.value;
+            }
+        }
+        MISSES.increment();
+        double value = CompiledExpression.apply(opcode, left, right);
+        // fill an empty slot of the bucket, otherwise replace one chosen by the hash
+        int victim = free >= 0 ? free : bucket + ((int) (hash >>> 32) & (WAYS - 1));
+        table[victim] = new Entry(opcode, leftBits, rightBits, value);
+        return value;
+    }
+
+    private static long hash(byte opcode, long left, long right) {
+        long hash = left * 0x9E3779B97F4A7C15L + right * 0xC2B2AE3D27D4EB4FL + opcode;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * File: MethodHandleBuilder.java
+ * Description: Composes the program of a CompiledExpression
+ * into a single MethodHandle.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.ToDoubleFunction;
+
+import static cmath.CompiledExpression.ADD;
+import static cmath.CompiledExpression.CONST;
+import static cmath.CompiledExpression.COS;
+import static cmath.CompiledExpression.DIV;
+import static cmath.CompiledExpression.MUL;
+import static cmath.CompiledExpression.POW;
+import static cmath.CompiledExpression.SIN;
+import static cmath.CompiledExpression.SUB;
+import static cmath.CompiledExpression.TAN;
+import static cmath.CompiledExpression.VAR;
+
+/**
+ * A builder of method handle trees.
+ * <p>
+ * Every instruction becomes a handle of type (double[])double: a literal is
+ * a constant handle, a variable is an array element getter bound to its slot,
+ * and an operator is the handle of its operation with the operand handles
+ * as argument filters. The handles are built in program order, so a node
+ * shared by an optimized program is built once, but it is still computed
+ * at every use; x * x where both operands are the same node is squared instead.
+ * <p>
+ * The root handle is bound as a constant of a hidden class made by
+ * BytecodeGenerator.bind, so when applyAsDouble is compiled the JIT inlines
+ * the whole tree into it, as it does for the target of an invokedynamic,
+ * instead of calling the shared lambda forms of the handles.
+ */
+final class MethodHandleBuilder {
+    /**
+     * Every level of the tree is a few nested calls when it runs,
+     * so deeper programs stay interpreted instead of overflowing the stack
+     */
+    static final int MAX_DEPTH = 256;
+
+    /**
+     * A tree computes a shared node at every use, so a program whose
+     * tree is larger than this stays interpreted, which computes it once
+     */
+    static final long MAX_TREE_SIZE = 4096;
+
+    private static final MethodType NODE_TYPE = MethodType.methodType(double.class, double[].class);
+    private static final MethodType UNARY_TYPE = MethodType.methodType(double.class, double.class);
+    private static final MethodType BINARY_TYPE = MethodType.methodType(double.class, double.class, double.class);
+
+    //region Operation handles
+    private static final MethodHandle ADD_HANDLE;
+    private static final MethodHandle SUB_HANDLE;
+    private static final MethodHandle MUL_HANDLE;
+    private static final MethodHandle SQUARE_HANDLE;
+    private static final MethodHandle DIV_HANDLE;
+    private static final MethodHandle POW_HANDLE;
+    private static final MethodHandle SIN_HANDLE;
+    private static final MethodHandle COS_HANDLE;
+    private static final MethodHandle TAN_HANDLE;
+    private static final MethodHandle SLOT_GETTER = MethodHandles.arrayElementGetter(double[].class);
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            ADD_HANDLE = lookup.findStatic(MethodHandleBuilder.class, "add", BINARY_TYPE);
+            SUB_HANDLE = lookup.findStatic(MethodHandleBuilder.class, "subtract", BINARY_TYPE);
+            MUL_HANDLE = lookup.findStatic(MethodHandleBuilder.class, "multiply", BINARY_TYPE);
+            SQUARE_HANDLE = lookup.findStatic(MethodHandleBuilder.class, "square", UNARY_TYPE);
+            DIV_HANDLE = lookup.findStatic(CompiledExpression.class, "divide", BINARY_TYPE);
+            POW_HANDLE = lookup.findStatic(FunctionCache.class, "pow", BINARY_TYPE);
+            SIN_HANDLE = lookup.findStatic(FunctionCache.class, "sin", UNARY_TYPE);
+            COS_HANDLE = lookup.findStatic(FunctionCache.class, "cos", UNARY_TYPE);
+            TAN_HANDLE = lookup.findStatic(FunctionCache.class, "tan", UNARY_TYPE);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    //endregion Operation handles
+
+    private MethodHandleBuilder() {
+    }
+
+    /**
+     * Composes the handle tree of an expression
+     * @param expression A compiled expression
+     * @return A function of the variable slots; it doesn't check the number of slots;
+     * null if the tree would be deeper than MAX_DEPTH or larger than MAX_TREE_SIZE
+     */
+    static ToDoubleFunction<double[]> build(CompiledExpression expression) {
+        if (expression.treeSize() > MAX_TREE_SIZE) {
+            return null;
+        }
+        int[] depths = new int[expression.size()];
+        for (int pc = 0; pc < depths.length; pc++) {
+            byte opcode = expression.opcodeAt(pc);
+            if (opcode != CONST && opcode != VAR) {
+                int right = expression.rhsAt(pc) >= 0 ? depths[expression.rhsAt(pc)] : 0;
+                depths[pc] = Math.max(depths[expression.lhsAt(pc)], right) + 1;
+                if (depths[pc] > MAX_DEPTH) {
+                    return null;
+                }
+            }
+        }
+        MethodHandle[] nodes = new MethodHandle[expression.size()];
+        for (int pc = 0; pc < nodes.length; pc++) {
+            byte opcode = expression.opcodeAt(pc);
+            switch (opcode) {
+                case CONST:
+                    nodes[pc] = MethodHandles.dropArguments(
+                            MethodHandles.constant(double.class, expression.constantAt(pc)), 0, double[].class);
+                    break;
+                case VAR:
+                    nodes[pc] = MethodHandles.insertArguments(SLOT_GETTER, 1, expression.lhsAt(pc));
+                    break;
+                case SIN:
+                    nodes[pc] = MethodHandles.filterArguments(SIN_HANDLE, 0, nodes[expression.lhsAt(pc)]);
+                    break;
+                case COS:
+                    nodes[pc] = MethodHandles.filterArguments(COS_HANDLE, 0, nodes[expression.lhsAt(pc)]);
+                    break;
+                case TAN:
+                    nodes[pc] = MethodHandles.filterArguments(TAN_HANDLE, 0, nodes[expression.lhsAt(pc)]);
+                    break;
+                default:
+                    if (opcode == MUL && expression.lhsAt(pc) == expression.rhsAt(pc)) {
+                        nodes[pc] = MethodHandles.filterArguments(SQUARE_HANDLE, 0, nodes[expression.lhsAt(pc)]);
+                        break;
+                    }
+                    // (double[], double[])double with the same array passed to both operands
+                    MethodHandle operation = MethodHandles.filterArguments(binaryHandle(opcode), 0,
+                            nodes[expression.lhsAt(pc)], nodes[expression.rhsAt(pc)]);
+                    nodes[pc] = MethodHandles.permuteArguments(operation, NODE_TYPE, 0, 0);
+                    break;
+            }
+        }
+        return BytecodeGenerator.bind(nodes[nodes.length - 1]);
+    }
+
+    private static MethodHandle binaryHandle(byte opcode) {
+        switch (opcode) {
+            case ADD: return ADD_HANDLE;
+            case SUB: return SUB_HANDLE;
+            case MUL: return MUL_HANDLE;
+            case DIV: return DIV_HANDLE;
+            case POW: return POW_HANDLE;
+            default:
+                throw new IllegalStateException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private static double add(double left, double right) {
+        return left + right;
+    }
+
+    private static double subtract(double left, double right) {
+        return left - right;
+    }
+
+    private static double multiply(double left, double right) {
+        return left * right;
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
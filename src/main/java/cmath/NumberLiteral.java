@@ -0,0 +1,168 @@
+/*
+ * File: NumberLiteral.java
+ * Description: Scanning and converting numeric literals
+ * of arithmetic expressions to doubles.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+/**
+ * A parser of decimal literals: digits, an optional fractional part
+ * and an optional exponent, e.g. 42, 0.5, .25, 1.5e-3, 6E23.
+ * <p>
+ * Most literals have at most 15 significant digits and a small exponent;
+ * those are converted with one exact multiplication or division by a power of ten
+ * (Clinger's fast path), which is correctly rounded since both operands are
+ * exact doubles. Any other literal is passed to Double.parseDouble.
+ */
+final class NumberLiteral {
+    private static final char DOT = '.';
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;   // larger longs may be inexact as doubles
+    private static final int MAX_SIGNIFICAND_DIGITS = 18;         // 10^18 - 1 < 2^63, so they fit in a long
+    private static final int MAX_EXPONENT = 100_000;              // larger exponents saturate to 0 or infinity
+    private static final int MAX_EXACT_POWER = 15;                // 10^15 < 2^53
+
+    // powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private NumberLiteral() {
+    }
+
+    /**
+     * Finds the end of a literal
+     * @param source A text containing the literal
+     * @param start  An index of the first character of the literal
+     * @return An index after the last character of the literal;
+     * -1 if there is no well-formed literal at the start
+     */
+    static int scan(CharSequence source, int start) {
+        int length = source.length();
+        int position = start;
+        int digits = 0;
+        while (position < length && isDigit(source.charAt(position))) {
+            position++;
+            digits++;
+        }
+        if (position < length && source.charAt(position) == DOT) {
+            position++;
+            while (position < length && isDigit(source.charAt(position))) {
+                position++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        // the exponent is taken only if it has digits, so 2e is 2 followed by e
+        if (position < length && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+            int exponent = position + 1;
+            if (exponent < length && (source.charAt(exponent) == '+' || source.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < length && isDigit(source.charAt(exponent))) {
+                position = exponent;
+                while (position < length && isDigit(source.charAt(position))) {
+                    position++;
+                }
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Converts a literal found by scan to the nearest double
+     * @param source A text containing the literal
+     * @param start  An index of the first character of the literal
+     * @param end    An index after the last character of the literal
+     * @return A value of the literal
+     */
+    static double parse(CharSequence source, int start, int end) {
+        long significand = 0;
+        int significandDigits = 0;
+        int exponent10 = 0;         // a power of ten to scale the significand by
+        boolean truncated = false;  // whether some nonzero digits didn't fit in the significand
+        boolean isFractional = false;
+        int position = start;
+        for (; position < end; position++) {
+            char currentChar = source.charAt(position);
+            if (currentChar == DOT) {
+                isFractional = true;
+                continue;
+            }
+            if (!isDigit(currentChar)) {
+                break;  // the exponent
+            }
+            int digit = currentChar - '0';
+            if (significandDigits < MAX_SIGNIFICAND_DIGITS) {
+                if (significand != 0 || digit != 0) {
+                    significand = significand * 10 + digit;
+                    significandDigits++;
+                }
+                if (isFractional) {
+                    exponent10--;
+                }
+            } else {
+                // the digit is dropped, so the integer part is scaled up instead
+                truncated |= digit != 0;
+                if (!isFractional) {
+                    exponent10++;
+                }
+            }
+        }
+        if (position < end) {
+            exponent10 += parseExponent(source, position + 1, end);
+        }
+        if (significand == 0) {
+            return 0.0;
+        }
+        if (!truncated && significand <= MAX_EXACT_SIGNIFICAND) {
+            if (exponent10 >= 0 && exponent10 < POWERS_OF_TEN.length) {
+                return significand * POWERS_OF_TEN[exponent10];
+            }
+            if (exponent10 < 0 && -exponent10 < POWERS_OF_TEN.length) {
+                return significand / POWERS_OF_TEN[-exponent10];
+            }
+            // 123e25: move the excess of the exponent into the significand while it stays exact
+            int maxPower = POWERS_OF_TEN.length - 1;
+            int excess = exponent10 - maxPower;
+            if (excess > 0 && excess <= MAX_EXACT_POWER) {
+                long power = (long) POWERS_OF_TEN[excess];
+                if (significand <= MAX_EXACT_SIGNIFICAND / power) {
+                    return significand * power * POWERS_OF_TEN[maxPower];
+                }
+            }
+        }
+        return Double.parseDouble(source.subSequence(start, end).toString());
+    }
+
+    /**
+     * Parses the digits of an exponent with an optional sign
+     * @return A value of the exponent, saturated to +-MAX_EXPONENT
+     */
+    private static int parseExponent(CharSequence source, int start, int end) {
+        boolean negative = false;
+        int position = start;
+        if (source.charAt(position) == '+' || source.charAt(position) == '-') {
+            negative = source.charAt(position) == '-';
+            position++;
+        }
+        int exponent = 0;
+        for (; position < end; position++) {
+            exponent = Math.min(exponent * 10 + (source.charAt(position) - '0'), MAX_EXPONENT);
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * Check for an ASCII digit; unlike Character.isDigit, other scripts' digits are not accepted
+     */
+    private static boolean isDigit(char symbol) {
+        return symbol >= '0' && symbol <= '9';
+    }
+}
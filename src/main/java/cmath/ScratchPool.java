@@ -0,0 +1,63 @@
+/*
+ * File: ScratchPool.java
+ * Description: A small lock-free pool of reusable scratch objects
+ * shared by the threads of an ExpressionEngine.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of scratch objects, e.g. parsers with their stacks.
+ * <p>
+ * A thread takes the object from the cell picked by its id and puts it back
+ * when done; if the cell is empty (another thread holds its object) a new one
+ * is made, and if the cell was refilled meanwhile one of the two objects is
+ * dropped.
+ * Unlike a ThreadLocal, the pool never keeps more objects than it has cells,
+ * however many (possibly virtual) threads come and go, so nothing leaks.
+ */
+final class ScratchPool<T> {
+    private final AtomicReferenceArray<T> cells;
+    private final int mask;
+    private final Supplier<T> factory;
+
+    /**
+     * Make a pool with two cells per processor
+     * @param factory A maker of new scratch objects
+     */
+    ScratchPool(Supplier<T> factory) {
+        int size = Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        this.cells = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.factory = factory;
+    }
+
+    /**
+     * Takes a scratch object for the exclusive use of the current thread
+     * @return A pooled or a new object
+     */
+    T acquire() {
+        T item = cells.getAndSet(cellIndex(), null);
+        return item != null ? item : factory.get();
+    }
+
+    /**
+     * Returns a scratch object taken by acquire
+     * @param item The object, it must not be used afterwards
+     */
+    void release(T item) {
+        cells.setRelease(cellIndex(), item);     // a plain store: losing an object is cheaper than a CAS
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;   // spread sequential ids
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * File: StreamEvaluator.java
+ * Description: Evaluates files of expressions or of rows of values
+ * line by line, reading them through memory-mapped windows.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A streaming evaluator of text files with one job per line.
+ * <p>
+ * The input is mapped into memory window by window, so files larger than
+ * the memory (or than 2 GB, the limit of one mapping) are read at the speed
+ * the OS pages them in. Every line is tokenized straight from the mapped
+ * bytes through a reusable CharSequence view, without making a String, and
+ * the results are written as text lines through a direct buffer flushed to
+ * a FileChannel. The heap used doesn't depend on the size of the file.
+ * <p>
+ * The input is ASCII text with LF or CRLF line ends. Every input line
+ * gives one output line: its value, or NaN if it fails (a malformed line,
+ * a division by 0). An instance is not thread-safe, use one per thread.
+ */
+public final class StreamEvaluator {
+    /** The default number of bytes mapped at once */
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_RESULT_LENGTH = 32;    // the longest Double.toString and a line end
+
+    /**
+     * The numbers of lines processed by a call
+     * @param lines    The number of lines evaluated
+     * @param failures The number of lines that gave NaN because they failed
+     */
+    public record Summary(long lines, long failures) {
+    }
+
+    private final int windowSize;
+    private final ByteSequence line = new ByteSequence();
+    private final UpdatedCalculator.Interpreter interpreter = new UpdatedCalculator.Interpreter();
+    private final StringBuilder number = new StringBuilder(MAX_RESULT_LENGTH);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+
+    public StreamEvaluator() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Make an evaluator
+     * @param windowSize The number of bytes mapped at once; no line may be longer
+     */
+    public StreamEvaluator(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Evaluates a file with an expression per line, the expressions have no variables
+     * @param input  A file to read
+     * @param output A file to write the value of every line to, it is overwritten
+     * @return The numbers of lines and failures
+     * @throws IOException if a file can't be read or written, or a line is longer than a window
+     */
+    public Summary evaluateExpressions(Path input, Path output) throws IOException {
+        return run(input, output, null, null);
+    }
+
+    /**
+     * Evaluates an expression for every line of values of its variables; the values
+     * of a line are in the order of getVariables() and separated by commas,
+     * semicolons or whitespaces
+     * @param expression A compiled expression
+     * @param input      A file to read
+     * @param output     A file to write the value of every line to, it is overwritten
+     * @return The numbers of lines and failures
+     * @throws IOException if a file can't be read or written, or a line is longer than a window
+     */
+    public Summary evaluateRows(CompiledExpression expression, Path input, Path output) throws IOException {
+        return run(input, output, expression, new double[expression.variables().length]);
+    }
+
+    /**
+     * Reads the input window by window and evaluates its lines
+     * @param expression An expression to evaluate rows with; null if the lines are expressions
+     * @param slots      A buffer for the values of a row
+     */
+    private Summary run(Path input, Path outputPath, CompiledExpression expression, double[] slots)
+            throws IOException {
+        long lines = 0;
+        long failures = 0;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            output.clear();
+            long size = in.size();
+            long windowStart = 0;
+            while (windowStart < size) {
+                long windowEnd = Math.min(size, windowStart + windowSize);
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+                int limit = window.limit();
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (window.get(i) == '\n') {
+                        failures += evaluateLine(window, lineStart, i, expression, slots, out);
+                        lines++;
+                        lineStart = i + 1;
+                    }
+                }
+                if (windowEnd == size) {
+                    if (lineStart < limit) {
+                        // the last line has no line end
+                        failures += evaluateLine(window, lineStart, limit, expression, slots, out);
+                        lines++;
+                    }
+                    break;
+                }
+                if (lineStart == 0) {
+                    throw new IOException("Line at offset " + windowStart + " is longer than "
+                            + windowSize + " bytes: " + input);
+                }
+                // the next window starts with the incomplete line
+                windowStart += lineStart;
+            }
+            flush(out);
+        }
+        return new Summary(lines, failures);
+    }
+
+    /**
+     * Evaluates a line and writes its result
+     * @return 1 if the line failed, 0 otherwise
+     */
+    private int evaluateLine(ByteBuffer window, int start, int end, CompiledExpression expression,
+                             double[] slots, FileChannel out) throws IOException {
+        if (end > start && window.get(end - 1) == '\r') {
+            end--;
+        }
+        line.reset(window, start, end);
+        double value;
+        int failed = 0;
+        try {
+            value = expression == null ? interpreter.interpret(line) : evaluateRow(expression, slots);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            value = Double.NaN;
+            failed = 1;
+        }
+        writeResult(value, out);
+        return failed;
+    }
+
+    /**
+     * Parses the values of the current line into the slots and evaluates the expression
+     */
+    private double evaluateRow(CompiledExpression expression, double[] slots) {
+        int count = parseValues(line, 0, slots);
+        if (count < slots.length) {
+            throw new IllegalArgumentException("Expected " + slots.length + " values, got " + count + ": " + line);
+        }
+        return expression.evaluate(slots);
+    }
+
+    /**
+     * Parses numbers separated by commas, semicolons or whitespaces
+     * @param line     A text holding the numbers
+     * @param position An index to start from, the numbers go to the end of the text
+     * @param slots    An array to put the numbers to, in order
+     * @return The number of numbers parsed
+     * @throws IllegalArgumentException if a number is malformed or there are more numbers than slots
+     */
+    static int parseValues(CharSequence line, int position, double[] slots) {
+        int length = line.length();
+        int count = 0;
+        while (true) {
+            while (position < length && isSeparator(line.charAt(position))) {
+                position++;
+            }
+            if (position == length) {
+                return count;
+            }
+            boolean negative = false;
+            if (line.charAt(position) == '-' || line.charAt(position) == '+') {
+                negative = line.charAt(position) == '-';
+                position++;
+            }
+            int end = NumberLiteral.scan(line, position);
+            if (end < 0 || (end < length && !isSeparator(line.charAt(end)))) {
+                throw new IllegalArgumentException("Malformed value at position " + position + ": " + line);
+            }
+            if (count == slots.length) {
+                throw new IllegalArgumentException("Expected " + slots.length + " values: " + line);
+            }
+            double value = NumberLiteral.parse(line, position, end);
+            slots[count++] = negative ? -value : value;
+            position = end;
+        }
+    }
+
+    /**
+     * Writes a value and a line end to the output buffer, flushing it when it is full
+     */
+    private void writeResult(double value, FileChannel out) throws IOException {
+        if (output.remaining() < MAX_RESULT_LENGTH) {
+            flush(out);
+        }
+        number.setLength(0);
+        number.append(value);
+        for (int i = 0; i < number.length(); i++) {
+            output.put((byte) number.charAt(i));
+        }
+        output.put((byte) '\n');
+    }
+
+    private void flush(FileChannel out) throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            out.write(output);
+        }
+        output.clear();
+    }
+
+    private static boolean isSeparator(char symbol) {
+        return symbol == ',' || symbol == ';' || Character.isWhitespace(symbol);
+    }
+}
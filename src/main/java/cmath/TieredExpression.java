@@ -0,0 +1,153 @@
+/*
+ * File: TieredExpression.java
+ * Description: A compiled expression that is interpreted while it is cold
+ * and replaced by generated bytecode once it gets hot.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+
+package cmath;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A compiled expression with tiered evaluation.
+ * <p>
+ * The first calls walk the program of the CompiledExpression. When the number
+ * of calls reaches the threshold, the expression is prepared for the target
+ * backend, by default a generated JVM class (see BytecodeGenerator), and the later
+ * calls go to it, so HotSpot inlines and optimizes it like hand-written code.
+ * Preparing costs far more than one evaluation, so only the expressions that are
+ * evaluated often pay for it. Programs too large for the JIT stay interpreted.
+ * <p>
+ * The call counter is not synchronized: a lost increment only delays
+ * the promotion a little, and it is not written after the promotion, so
+ * threads sharing a hot expression don't contend on it. Instances are safe
+ * to share between threads.
+ */
+public final class TieredExpression {
+    /** The default number of interpreted calls before the bytecode is generated */
+    public static final int DEFAULT_THRESHOLD = 10_000;
+
+    private static final double[] NO_SLOTS = new double[0];
+
+    private final CompiledExpression expression;
+    private final int threshold;
+    private final Backend backend;                           // the backend to promote to
+    private int calls;                                      // interpreted calls so far
+    private volatile boolean promotionTried;                // set once, under the lock of this
+    private volatile ToDoubleFunction<double[]> generated;  // the prepared backend, null until promoted
+    private final EvaluationMetrics.OperatorMix operatorMix;    // the operators applied per evaluation
+
+    /**
+     * Make a tiered expression promoted after DEFAULT_THRESHOLD calls
+     * @param expression A compiled expression
+     */
+    public TieredExpression(CompiledExpression expression) {
+        this(expression, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Make a tiered expression
+     * @param expression A compiled expression
+     * @param threshold  The number of interpreted calls before the bytecode is generated;
+     *                   0 generates it on the first call
+     */
+    public TieredExpression(CompiledExpression expression, int threshold) {
+        this(expression, threshold, Backend.BYTECODE);
+    }
+
+    /**
+     * Make a tiered expression
+     * @param expression A compiled expression
+     * @param threshold  The number of interpreted calls before the promotion;
+     *                   0 promotes on the first call
+     * @param backend    A backend to promote to; INTERPRETER never promotes
+     */
+    public TieredExpression(CompiledExpression expression, int threshold, Backend backend) {
+        if (expression == null || backend == null) {
+            throw new IllegalArgumentException("Expression and backend must not be null");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + threshold);
+        }
+        this.expression = expression;
+        this.threshold = threshold;
+        this.backend = backend;
+        this.operatorMix = EvaluationMetrics.mixOf(expression);
+        // nothing to promote to, so don't even count
+        this.promotionTried = backend == Backend.INTERPRETER;
+    }
+
+    /**
+     * Evaluates the expression that has no variables
+     * @return A value of the expression
+     * @throws ArithmeticException if the expression divides by 0
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public double evaluate() {
+        return evaluate(NO_SLOTS);
+    }
+
+    /**
+     * Evaluates the expression for the given values of its variables
+     * @param slots A value of every variable, in the order of getVariables()
+     * @return A value of the expression
+     * @throws ArithmeticException if the expression divides by 0
+     * @throws IllegalArgumentException if there are fewer slots than variables
+     */
+    public double evaluate(double[] slots) {
+        ToDoubleFunction<double[]> function = this.generated;
+        if (function != null) {
+            expression.checkSlots(slots);
+            return function.applyAsDouble(slots);
+        }
+        if (!promotionTried && ++calls >= threshold) {
+            promote();
+        }
+        return expression.evaluate(slots);
+    }
+
+    /**
+     * Prepares the target backend now, without waiting for the threshold;
+     * does nothing if it has already been tried
+     * @return Whether the expression is evaluated by the target backend
+     */
+    public synchronized boolean promote() {
+        if (!promotionTried) {
+            promotionTried = true;
+            generated = backend.prepare(expression);
+        }
+        return generated != null;
+    }
+
+    /**
+     * Check whether the calls go to the target backend
+     * @return True, if the expression has been promoted
+     */
+    public boolean isPromoted() {
+        return generated != null;
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Get the expression being evaluated
+     * @return The compiled expression
+     */
+    public CompiledExpression getExpression() {
+        return expression;
+    }
+
+    EvaluationMetrics.OperatorMix getOperatorMix() {
+        return operatorMix;
+    }
+
+    @Override
+    public String toString() {
+        return expression.getSource() + " [" + (isPromoted() ? backend : Backend.INTERPRETER) + "]";
+    }
+}
@@ -13,7 +13,10 @@
  */
 
 package cmath;
-import linkedlist.staque.Stack;
+import linkedlist.staque.DoubleStack;
+import utils.Logger;
+
+import java.util.Arrays;
 
 /**
  * The calculator that may evaluate arithmetic expressions
@@ -81,319 +84,197 @@ public class UpdatedCalculator {
         }
 
     } // end public enum Operator
-    private static final char DOT = '.';
+
+    // the engine behind the static methods, with the compiled forms of the recently evaluated expressions
+    private static final ExpressionEngine ENGINE = new ExpressionEngine();
 
     /**
-     * Evaluates an arithmetic expression
+     * Parses an arithmetic expression once, so it may be evaluated many times
+     * without re-parsing: UpdatedCalculator.compile(text).evaluate()
+     * gives the same value as UpdatedCalculator.eval(text, false)
+     * <p>
+     * Names other than sin, cos and tan are variables (x, rate, t0),
+     * their slots are assigned in order of the first appearance
      * @param expression A string representation of the expression
-     * @return last Calculated value
+     * @return The compiled expression
+     * @throws IllegalArgumentException if the expression is malformed
      */
-    public static double eval(String expression, boolean debug) {
-        // define the stacks of operators and values
-        Stack<Operator> operators = new Stack<>();
-        Stack<Double> values = new Stack<>();
-
-        // Trim expression and replace all whitespaces
-        expression = expression.trim().replaceAll("\\s+", "");
-
-        // While staying in expression's range
-        int currentIndex = 0;
-        /*
-        Using "While" loop to avoid useless
-        incrementing and manage them as needed
-         */
-        while (currentIndex < expression.length()) {
-            char currentChar = expression.charAt(currentIndex);
-            // Handle the digit
-            if (Character.isDigit(currentChar)) {
-                int localPowCounter = 0;
-                int fractionalCounter = 0; // To control infinity deviding
-                double num = 0.0;
-                boolean isFractional = false;
-                // Similar loops doesn't upcent our complexity to O(n^2)
-                // cause after that loop our currentIndex move to last
-                // while's loop position
-                while (currentIndex < expression.length() &&
-                      (Character.isDigit(currentChar) || currentChar == DOT)) {
-                    if (currentChar == DOT) {
-                        isFractional = true; // Switch our state to upload num after the DOT
-                        localPowCounter++;
-                        currentIndex++;
-                        // Predicting infinity deviding
-                        fractionalCounter++;
-                        if (fractionalCounter > 10) {
-                            break;
-                        }
-                        currentChar = expression.charAt(currentIndex);
-                        continue; // Skip the dot and continue parsing the fractional part
-                    }
-                    if (isFractional) {
-                        // Add a fractional digit's part
-                        num += Character.getNumericValue(currentChar) * Math.pow(10, -1 * (localPowCounter - 1));
-                    } else {
-                        num = num * 10 + Character.getNumericValue(currentChar);
-                    }
-                    localPowCounter++;
-                    currentIndex++;
+    public static CompiledExpression compile(String expression) {
+        return ExpressionCompiler.compile(expression, null);
+    }
 
-                    if (currentIndex < expression.length()) {
-                        // Move our current character
-                        currentChar = expression.charAt(currentIndex);
-                    }
-                }
-                // Upload the num value into Stack<Double> values
-                values.add(num);
-            } else if (Operator.fromSymbol(currentChar) == Operator.SIN ||
-                       Operator.fromSymbol(currentChar) == Operator.COS ||
-                       Operator.fromSymbol(currentChar) == Operator.TAN) {
-                // Remember our old value of CurrentIndex before incrementing
-                Operator currentOp = Operator.fromSymbol(expression.charAt(currentIndex));
-                // Assuming 's' is for sin(...), 'c' for cos(...)..
-                currentIndex += 3;
-                // Init some helpful params
-                double result = 0;
-                // If the next symbol is OPEN bracket : we should solve
-                // expression into it: cos(60 + 23) -> cos(83) -> cos83
-                if (Operator.fromSymbol(expression.charAt(currentIndex)) == Operator.OPEN) {
-                    // Next char is OpenBracket => loop started
-                    // with next char should notice 1 OPEN bracket
-                    int bracketsOnTheWay = 1;
-                    for (int j = currentIndex + 1; j < expression.length(); j++) {
-                        // Meeting CLOSE bracket == checking if it is Parentheses
-                        if (Operator.fromSymbol(expression.charAt(j)) == Operator.CLOSE) {
-                            bracketsOnTheWay--;
-                            /*
-                            If bracketsOnTheWay == 0 : we bumped on a
-                            matched close bracket for our open bracket
-                            1   2  1 2  1   0 - we bumped on a pair
-                            (...(..).(..)...)
-                            */
-                            if (bracketsOnTheWay == 0) {
-                                // We bumped with a match CLOSE bracket
+    /**
+     * Parses an arithmetic expression once, binding its variables to the given slots
+     * @param expression A string representation of the expression
+     * @param variables  Names of the variables, a name's index is its slot
+     * @return The compiled expression
+     * @throws IllegalArgumentException if the expression is malformed
+     * or uses a variable that is not listed
+     */
+    public static CompiledExpression compile(String expression, String... variables) {
+        return ExpressionCompiler.compile(expression, variables.clone());
+    }
 
-                                // HighLight the subString to count it by
-                                // UpdatedCalculator.eval("subResult", true)
-                                String subResult = expression.substring(currentIndex + 1, j);
-                                result = eval(subResult, true);
-                                // Move current index to don't increase our complexity
-                                currentIndex = j + 1;
-                                // Break the loop after finding new expression's value
-                                break;
-                            }
-                        }
-                    }
-                } else {
-                    // It means we have a basic expression
-                    // above the trigonometry, lets count it
+    /**
+     * Evaluates an arithmetic expression.
+     * Expressions are compiled on the first use and taken from the cache afterwards,
+     * the ones evaluated often are turned into generated bytecode;
+     * in the debug mode the expression is interpreted token by token instead,
+     * and its trace is logged at the DEBUG level if that is enabled
+     * @param expression A string representation of the expression
+     * @param debug      Whether to interpret and trace the expression rather than use its compiled form
+     * @return last Calculated value
+     */
+    public static double eval(String expression, boolean debug) {
+        if (!debug) {
+            return ENGINE.evaluate(expression);
+        }
+        if (!Logger.isEnabled(Logger.Level.DEBUG)) {
+            return ENGINE.interpret(expression);
+        }
+        EvaluationTrace trace = new EvaluationTrace(EvaluationTrace.DEFAULT_CAPACITY);
+        try {
+            return ENGINE.interpret(expression, trace);
+        } finally {
+            Logger.log(Logger.Level.DEBUG, trace);
+        }
+    }
 
-                    // Update the currentChar value
-                    currentChar = expression.charAt(currentIndex);
+    /**
+     * Interprets an arithmetic expression token by token, recording every step,
+     * a failed evaluation too, to a trace owned by the caller
+     * @param expression A string representation of the expression
+     * @param trace      A trace to record the steps to, dropping its previous content
+     * @return last Calculated value
+     */
+    public static double eval(String expression, EvaluationTrace trace) {
+        if (trace == null) {
+            throw new IllegalArgumentException("Trace is null");
+        }
+        return ENGINE.interpret(expression, trace);
+    }
 
-                    boolean isFractional = false;
-                    int localPowCounter = 0;
-                    int fractionalCounter = 0; // To control infinity deviding
-                    while (Character.isDigit(currentChar)) {
-                        if (currentChar == DOT) {
-                            isFractional = true;
-                            currentIndex++;
-                            localPowCounter++;
+    /**
+     * Get the engine used by eval; its metrics are not exposed over JMX
+     * unless registered: getEngine().getMetrics().register("default")
+     * @return The shared engine
+     */
+    public static ExpressionEngine getEngine() {
+        return ENGINE;
+    }
 
-                            fractionalCounter++;
+    /**
+     * Get the cache of compiled expressions used by eval
+     * @return The shared cache
+     */
+    public static ExpressionCache getCache() {
+        return ENGINE.getCache();
+    }
 
-                            if (fractionalCounter > 10) {
-                                break;
-                            }
-                            // Update currentChar after Incrementing
-                            currentChar = expression.charAt(currentIndex);
-                            continue; // Skip the dot and continue parsing the fractional part
-                        }
-                        if (isFractional) {
-                            result += Character.getNumericValue(currentChar) * Math.pow(10, -1 * (localPowCounter - 1));
-                        } else {
-                            result = result * 10 + Character.getNumericValue(currentChar);
-                        }
-                        currentIndex++;
-                        localPowCounter++;
-                        if (currentIndex < expression.length()) {
-                            currentChar = expression.charAt(currentIndex);
-                        }
-                    }
-                    // Skip the Digit's tail FX:
-                    // for 45.0 we'd skip 5,.,0 chars because
-                    // we have added them. On the other side we have
-                    // a localPowCounter == length of out digit =>
-                    currentIndex += localPowCounter;
-                }
-                // Apply the trigonometric function
-                switch (currentOp) {
-                    case SIN -> values.add(Math.sin(result));
-                    case COS -> values.add(Math.cos(result));
-                    case TAN -> values.add(Math.tan(result));
+    /**
+     * Applies an operator to the values on the top of the stack
+     * @param values   A DoubleStack of values of counted expression
+     * @param operator An operator to apply
+     * Upload a value Stack by adding a result
+     */
+    private static void calculate(DoubleStack values, Operator operator) {
+        double num1 = values.extract();
+        switch (operator) {
+            // Apply the trigonometric function
+            case SIN -> values.add(FunctionCache.sin(num1));
+            case COS -> values.add(FunctionCache.cos(num1));
+            case TAN -> values.add(FunctionCache.tan(num1));
+            default -> {
+                double num2 = values.extract();
+                switch (operator) {
+                    // Push the result back onto the values stack
+                    case ADD -> values.add(num2 + num1);
+                    case SUB -> values.add(num2 - num1);
+                    case MUL -> values.add(num2 * num1);
+                    case DIV -> values.add(CompiledExpression.divide(num2, num1));
+                    case POW -> values.add(FunctionCache.pow(num2, num1));
                 }
-            } else if(Operator.fromSymbol(currentChar) == Operator.POW) {
-                // If next Symbol is Open bracket -> Pow func has value in brackets
-                // we split our expression in UpdatedCalculator.java, eval, line: 96;
-                // that is why our next symbol should be a OPEN BRACKET OR A DIGIT
-                if (Operator.fromSymbol(expression.charAt(currentIndex + 1)) == Operator.OPEN) {
-                    int openedBracketIndex = currentIndex + 1;
-                    int lastClosedBracket = 0;
-                    // Param to control matched Brackets
-                    int bracketsOnTheWay = 1; // Current symbol is OPEN Bracket
-                    double result = 0D;
-                    boolean state = true;
-                    for (int j = openedBracketIndex + 1; j < expression.length() && state; j++) {
-                        Operator currentOperator = Operator.fromSymbol(expression.charAt(j));
-                        if (currentOperator == Operator.OPEN) {
-                            bracketsOnTheWay++;
-                        } else if (currentOperator == Operator.CLOSE) {
-                            bracketsOnTheWay--;
-                            /*
-                            If bracketsOnTheWay == 0 : we bumped on a
-                            matched close bracket for our open bracket
-                            1   2  1 2  1   0 - we bumped on a pair
-                            (...(..).(..)...)
-                            */
-                            if (bracketsOnTheWay == 0) {
-                                lastClosedBracket = j;
-                                String subResult = expression.substring(openedBracketIndex + 1, lastClosedBracket);
-                                result = eval(subResult, true);
-                                values.add(Math.pow(values.extract(), result));
-                                state = false;
-                                // Move current Index
-                                currentIndex = j + 1;
-                                break;
-                            }
-                        }
-                    }
-                } else {
-                    currentIndex++;
-                    char character = expression.charAt(currentIndex);
+            }
+        }
+    }
 
-                    boolean isFractional = false; // To control fractional part of Digit
-                    int fractionalCounter = 0; // To control infinity deviding
-                    double num = 0D;
-                    int localPowCounter = 0;
-                    while (Character.isDigit(expression.charAt(currentIndex))) {
-                        if (character == DOT) {
-                            isFractional = true;
-                            currentIndex++;
-                            localPowCounter++;
+    /**
+     * The shunting-yard parser that calculates every operator as soon as it is applied,
+     * with the stacks of operators and values; it may be reused for many expressions
+     */
+    static final class Interpreter extends AbstractExpressionParser {
+        private final DoubleStack values = new DoubleStack();
+        final int[] applied = new int[Operator.values().length];   // applications of every operator
 
-                            fractionalCounter++;
-                            if (fractionalCounter > 10) {
-                                break;
-                            }
-                            character = expression.charAt(currentIndex);
-                            continue; // Skip the dot and continue parsing the fractional part
-                        }
-                        if (isFractional) {
-                            num += Character.getNumericValue(character) * Math.pow(10, -1 * (localPowCounter - 1));
-                        } else {
-                            num = num * 10 + Character.getNumericValue(character);
-                        }
-                        currentIndex++;
-                        localPowCounter++;
-                        if (currentIndex < expression.length()) {
-                            character = expression.charAt(currentIndex);
-                        } else {
-                            break;
-                        }
-                    }
-                    values.add(Math.pow(values.extract(), num));
-                    currentIndex += 2;
-                }
-            } else {
-                /*
-                If currentNumber is Operator
-                Make new Operator
-                 */
-                Operator operatorCurrent = Operator.fromSymbol(currentChar);
-                if (operators.isEmpty()) {
-                    // Push curr Operator into operators Stack
-                    operators.add(operatorCurrent);
-                    currentIndex++;
-                } else if (operatorCurrent == Operator.ADD ||
-                        operatorCurrent == Operator.SUB) {
-                    // If current Operator is '+' or '-'
-                    Operator topCharacter = operators.get();
-                    if (topCharacter == Operator.OPEN) {
-                        /*
-                        If Current Operator is Open Bracket '('
-                        than push it to handle after Close Bracket ')'
-                         */
-                        operators.add(operatorCurrent);
-                        currentIndex++;
-                    } else {
-                        /*
-                        Handle the expression into pair of Brackets
-                        "(expression)" -> calculate (stack1, stack2)
-                         */
-                        calculate(values, operators);
-                    }
-                } else if (operatorCurrent == Operator.MUL ||
-                           operatorCurrent == Operator.DIV) {
-                    // If operator is '*' or '/' ->
-                    Operator topCharacter = operators.get();
+        Interpreter() {
+            super("");
+        }
 
-                    if (topCharacter == Operator.OPEN) {
-                        // If last operator is '(' -> push it and count
-                        operators.add(operatorCurrent);
-                        currentIndex++;
-                    } else if (topCharacter == Operator.MUL ||
-                               topCharacter == Operator.DIV) {
-                        // Same logic according to higher priority
-                        calculate(values, operators);
-                    } else if (topCharacter == Operator.ADD ||
-                               topCharacter == Operator.SUB) {
-                        // Add current Operator and handle it later
-                        operators.add(operatorCurrent);
-                        currentIndex++;
-                    }
-                } else if (operatorCurrent == Operator.OPEN) {
-                    // Current operator is '(' -> add Open Bracket
-                    operators.add(operatorCurrent);
-                    currentIndex++;
-                } else if (operatorCurrent == Operator.CLOSE) {
-                    // If Current operator is ')' -> count till meet '('
-                    while (operators.get() != Operator.OPEN) {
-                        calculate(values, operators);
-                    }
-                    // Extract the '('
-                    operators.extract();
-                    currentIndex++;
-                }
-            }
+        /**
+         * Interprets an arithmetic expression, reusing the stacks
+         * @param expression A string representation of the expression
+         * @return last Calculated value
+         */
+        double interpret(CharSequence expression) {
+            reset(expression);
+            values.clear();
+            Arrays.fill(applied, 0);
+            parse();
+            // Return last Calculated value
+            return values.get();
+        }
 
+        /**
+         * Interprets an arithmetic expression, recording its steps
+         * @param expression A string representation of the expression
+         * @param trace      A trace to record to, its previous content is dropped
+         * @return last Calculated value
+         */
+        double interpret(CharSequence expression, EvaluationTrace trace) {
+            trace.start(expression);
+            this.trace = trace;
+            try {
+                double value = interpret(expression);
+                trace.finish(value);
+                return value;
+            } catch (RuntimeException e) {
+                trace.fail(e);
+                throw e;
+            } finally {
+                this.trace = null;
+            }
         }
-        // Count half-solved expression without precedence brackets
-        while (!operators.isEmpty()) {
-            calculate(values, operators);
+
+        @Override
+        protected void pushConstant(double value) {
+            if (trace != null) {
+                trace.pushValue(value, tokenizer.getStart(), tokenizer.getEnd());
+            }
+            values.add(value);
         }
-        // Return last Calculated value
-        return values.get();
-    }
 
-    /**
-     * Evaluates an arithmetic expression above two digits
-     * @param values    A Stack<Double> of values of counted expression,
-     * @param operators A Stack<Operator> of last added operators
-     * Upload a value Stack by adding a result
-     */
-    private static void calculate(Stack<Double> values, Stack<Operator> operators) {
-        double num1 = values.extract();
-        double num2 = values.extract();
+        @Override
+        protected void pushVariable() {
+            throw tokenizer.error("Unknown variable '" + tokenizer.getSource()
+                    .subSequence(tokenizer.getStart(), tokenizer.getEnd()) + "' (variables need compile)");
+        }
 
-        switch (operators.extract()) {
-            // Push the result back onto the values stack
-            case ADD -> values.add(num2 + num1);
-            case SUB -> values.add(num2 - num1);
-            case MUL -> values.add(num2 * num1);
-            case DIV -> {
-                if (num2 == 0) {
-                    throw new ArithmeticException("Cannot divide by 0");
-                }
-                values.add(num2 / num1);
+        @Override
+        protected void apply(Operator operator) {
+            applied[operator.ordinal()]++;
+            if (trace == null) {
+                calculate(values, operator);
+                return;
+            }
+            double right = values.get();
+            double left = Double.NaN;
+            if (!isFunction(operator)) {
+                values.extract();
+                left = values.get();
+                values.add(right);
             }
+            calculate(values, operator);
+            trace.apply(operator, left, right, values.get(), tokenizer.getStart(), tokenizer.getEnd());
         }
     }
 }
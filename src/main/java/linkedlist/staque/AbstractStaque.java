@@ -13,7 +13,6 @@ package linkedlist.staque;
 
 import linkedlist.LLItem;
 import linkedlist.LLIterator;
-import utils.Logger;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -70,7 +69,9 @@ public abstract class AbstractStaque<T>
     @Override
     public T extract() {
         T old1stValue = this.get();
-        this.first = this.first.next;   // 'delete' the first node by making it the next one
+        LLItem<T> old1stItem = this.first;
+        this.first = old1stItem.next;   // 'delete' the first node by making it the next one
+        old1stItem.value = null;        // don't let the detached node retain the value
         this.size--;
         return old1stValue;
     }
@@ -96,31 +97,6 @@ public abstract class AbstractStaque<T>
         return s.toString();
     }
 
-    @Override
-    public void doActions(StaqueAction<T>[] actions, boolean debug) {
-        for (StaqueAction<T> act : actions) {
-            switch (act.type) {
-                case ADD:
-                    this.add(act.value);
-                    if (debug) {
-                        Logger.write("Added:", act.value, "\n");
-                    }
-                    break;
-                case GET:
-                    T takenValue = this.get();
-                    if (debug) {
-                        Logger.write("Got:", takenValue, "\n");
-                    }
-                    break;
-                case EXTRACT:
-                    T retrievedValue = this.extract();
-                    if (debug) {
-                        Logger.write("Extracted:", retrievedValue, "\n");
-                    }
-                    break;
-            }
-        }
-    }
     //endregion Public methods
 
     //region Interface overrides
@@ -134,4 +110,4 @@ public abstract class AbstractStaque<T>
         return this.size;
     }
     //endregion Interface overrides
-}
\ No newline at end of file
+}
\ No newline at end of file
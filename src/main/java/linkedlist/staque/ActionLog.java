@@ -0,0 +1,281 @@
+/*
+ * File: ActionLog.java
+ * Description: A compact encoding of a sequence of actions
+ * on Stack and Queue collections and its batched replay.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of actions kept in two parallel arrays: an opcode per action and
+ * the value of every ADD, instead of an object per action.
+ * <p>
+ * doActions(ActionLog, T[]) replays it: the collection is grown once to the
+ * peak size the log reaches, the runs of equal actions, found while appending,
+ * are performed with one bulk call (addAll, extractAll, one get for a run of
+ * GETs), and the values got and extracted are stored to an array given by the
+ * caller. A log may be replayed any number of times.
+ * <p>
+ * Only ArrayStack and ArrayQueue have bulk addAll and extractAll, so only they
+ * gain from long runs, about twice as fast as doActions with action objects;
+ * the linked Stack and Queue still add and extract one node at a time.
+ * @param <T> A type parameter of the values
+ */
+public final class ActionLog<T> {
+    /** An opcode of StaqueAction.ActionType.ADD */
+    public static final byte ADD = 0;
+    /** An opcode of StaqueAction.ActionType.GET */
+    public static final byte GET = 1;
+    /** An opcode of StaqueAction.ActionType.EXTRACT */
+    public static final byte EXTRACT = 2;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private byte[] opcodes;
+    private Object[] values;    // a value of every ADD, null for the other actions
+    private int length;         // number of actions
+    private int[] runEnds;      // an index after the last action of every run of equal actions
+    private int runCount;
+    private int resultCount;    // number of GET and EXTRACT actions
+    private int balance;        // number of ADD minus number of EXTRACT
+    private int peak;           // the greatest balance after an action
+
+    /**
+     * An empty log
+     */
+    public ActionLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * An empty log that may hold given number of actions without growing
+     * @param capacity An initial capacity
+     */
+    public ActionLog(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.opcodes = new byte[capacity];
+        this.values = new Object[capacity];
+        this.runEnds = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Make a log of recorded actions, copying the arrays
+     * @param opcodes An opcode of every action: ADD, GET or EXTRACT
+     * @param values  A value of every ADD at the index of its opcode, the others are ignored
+     * @throws IllegalArgumentException if the arrays differ in length or an opcode is unknown
+     */
+    @SuppressWarnings("unchecked")
+    public ActionLog(byte[] opcodes, Object[] values) {
+        this(opcodes.length);
+        if (opcodes.length != values.length) {
+            throw new IllegalArgumentException("Expected " + opcodes.length + " values, got " + values.length);
+        }
+        for (int i = 0; i < opcodes.length; i++) {
+            append(opcodes[i], (T) values[i]);
+        }
+    }
+
+    /**
+     * Encode an array of actions
+     * @param actions ADD, GET or EXTRACT
+     * @return A log of the same actions
+     */
+    public static <T> ActionLog<T> of(StaqueAction<T>[] actions) {
+        ActionLog<T> log = new ActionLog<>(actions.length);
+        for (StaqueAction<T> action : actions) {
+            log.append((byte) action.type.ordinal(), action.value);
+        }
+        return log;
+    }
+
+    //region Appending
+
+    /**
+     * Append an ADD action
+     * @param value A value to add
+     * @return This log
+     */
+    public ActionLog<T> add(T value) {
+        return append(ADD, value);
+    }
+
+    /**
+     * Append a GET action
+     * @return This log
+     */
+    public ActionLog<T> get() {
+        return append(GET, null);
+    }
+
+    /**
+     * Append an EXTRACT action
+     * @return This log
+     */
+    public ActionLog<T> extract() {
+        return append(EXTRACT, null);
+    }
+
+    /**
+     * Append an action
+     * @param opcode ADD, GET or EXTRACT
+     * @param value  A value to add, ignored unless the opcode is ADD
+     * @return This log
+     * @throws IllegalArgumentException if the opcode is unknown
+     */
+    public ActionLog<T> append(byte opcode, T value) {
+        count(opcode);
+        if (runCount > 0 && opcodes[length - 1] == opcode) {
+            runEnds[runCount - 1]++;
+        } else {
+            if (runCount == runEnds.length) {
+                runEnds = Arrays.copyOf(runEnds, runCount + (runCount >> 1));
+            }
+            runEnds[runCount++] = length + 1;
+        }
+        if (length == opcodes.length) {
+            int capacity = Math.max(length + (length >> 1), DEFAULT_CAPACITY);
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        opcodes[length] = opcode;
+        values[length] = opcode == ADD ? value : null;
+        length++;
+        return this;
+    }
+    //endregion Appending
+
+    /**
+     * Get the number of actions
+     * @return The number of actions
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Get the number of values a replay stores, one per GET and EXTRACT
+     * @return The number of results
+     */
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * Get the opcode of an action
+     * @param index An index of the action
+     * @return ADD, GET or EXTRACT
+     */
+    public byte opcodeAt(int index) {
+        checkIndex(index);
+        return opcodes[index];
+    }
+
+    /**
+     * Get the value of an action
+     * @param index An index of the action
+     * @return The value added; null unless the action is ADD
+     */
+    @SuppressWarnings("unchecked")
+    public T valueAt(int index) {
+        checkIndex(index);
+        return (T) values[index];
+    }
+
+    /**
+     * Perform the actions on a collection
+     * @param target  A collection to perform the actions on
+     * @param results An array to store the values got and extracted to
+     * @return The number of values stored
+     * @throws IllegalArgumentException if the results array is too short
+     */
+    @SuppressWarnings("unchecked")
+    int replay(IStaque<T> target, T[] results) {
+        if (results.length < resultCount) {
+            throw new IllegalArgumentException("Expected at least " + resultCount
+                    + " results, got " + results.length);
+        }
+        target.ensureCapacity(target.getSize() + peak);
+        T[] added = (T[]) values;   // only ever read, as values of type T
+        int stored = 0;
+        int start = 0;
+        for (int run = 0; run < runCount; run++) {
+            byte opcode = opcodes[start];
+            int end = runEnds[run];
+            int count = end - start;
+            // a single action is cheaper to perform directly than through a bulk call
+            switch (opcode) {
+                case ADD:
+                    if (count == 1) {
+                        target.add(added[start]);
+                    } else {
+                        target.addAll(added, start, end);
+                    }
+                    break;
+                case GET:
+                    // the collection doesn't change between them
+                    T value = target.get();
+                    if (count == 1) {
+                        results[stored] = value;
+                    } else {
+                        Arrays.fill(results, stored, stored + count, value);
+                    }
+                    stored += count;
+                    break;
+                default:
+                    if (count == 1) {
+                        results[stored] = target.extract();
+                    } else {
+                        target.extractAll(results, stored, stored + count);
+                    }
+                    stored += count;
+                    break;
+            }
+            start = end;
+        }
+        return stored;
+    }
+
+    /**
+     * Makes a string representation of the log
+     * @return A string of the actions, an ADD with its value
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            switch (opcodes[i]) {
+                case ADD -> s.append("ADD ").append(values[i]);
+                case GET -> s.append("GET");
+                default -> s.append("EXTRACT");
+            }
+            s.append(" ");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Update the counters of actions with a new one
+     */
+    private void count(byte opcode) {
+        switch (opcode) {
+            case ADD -> peak = Math.max(peak, ++balance);
+            case GET -> resultCount++;
+            case EXTRACT -> {
+                resultCount++;
+                balance--;
+            }
+            default -> throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * File: ArrayQueue.java
+ * Description: A Queue data structure
+ * based on a growable ring buffer.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A ring-buffer-based Queue-like collection, a drop-in replacement of Queue
+ * that keeps the values in one contiguous array instead of a node per item
+ * @param <T> A type parameter of the item values
+ */
+public class ArrayQueue<T> implements IStaque<T> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] items;     // a ring buffer of values
+    private int head;           // an index of the front item
+    private int size;           // number of items
+
+    /**
+     * An empty queue
+     */
+    public ArrayQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * An empty queue that may hold given number of items without growing
+     * @param capacity An initial capacity
+     */
+    public ArrayQueue(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.items = new Object[capacity];
+        this.head = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Make a queue from an array of item values,
+     * the first value is in the front
+     * @param values An array of values
+     */
+    public ArrayQueue(T[] values) {
+        this(values.length);
+        for (T value : values) {
+            this.add(value);
+        }
+    }
+
+    //region Public Overrides
+
+    /**
+     * Add the item to the end of queue
+     * @param item An element to add to
+     */
+    @Override
+    public void add(T item) {
+        if (size == items.length) {
+            grow(size + 1);
+        }
+        items[index(size)] = item;
+        size++;
+    }
+
+    /**
+     * Get the front item of the queue
+     * @return A value of the earliest added element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        if (this.isEmpty()) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return (T) items[head];
+    }
+
+    /**
+     * Retrieve and remove the front item from the queue
+     * @return Retrieved element
+     */
+    @Override
+    public T extract() {
+        T value = this.get();
+        items[head] = null;     // don't retain the removed value
+        head = index(1);
+        size--;
+        return value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * An iterator from the front to the end of the queue
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int offset = 0;
+
+            public boolean hasNext() {
+                return offset < size;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return (T) items[index(offset++)];
+            }
+        };
+    }
+
+    /**
+     * Add a range of values to the end of queue, in the order of the array
+     * @param values An array of values
+     * @param from   An index of the first value to add
+     * @param to     An index after the last value to add
+     */
+    @Override
+    public void addAll(T[] values, int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        int tail = index(size);
+        int chunk = Math.min(count, items.length - tail);
+        System.arraycopy(values, from, items, tail, chunk);
+        System.arraycopy(values, from + chunk, items, 0, count - chunk);
+        size += count;
+    }
+
+    /**
+     * Retrieve and remove a number of front values, the earliest added first
+     * @param results An array to store the values to
+     * @param from    An index to store the first value at
+     * @param to      An index after the last value to store
+     * @throws NoSuchElementException if the queue has fewer items, after extracting all of them
+     */
+    @Override
+    public void extractAll(T[] results, int from, int to) {
+        int count = Math.min(to - from, size);
+        if (count > 0) {
+            int chunk = Math.min(count, items.length - head);
+            System.arraycopy(items, head, results, from, chunk);
+            System.arraycopy(items, 0, results, from + chunk, count - chunk);
+            Arrays.fill(items, head, head + chunk, null);   // don't retain the removed values
+            Arrays.fill(items, 0, count - chunk, null);
+            head = index(count);
+            size -= count;
+        }
+        if (count < to - from) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+    }
+    //endregion Public Overrides
+
+    /**
+     * Grow the ring buffer, if needed, to hold given number of items
+     * @param capacity A minimal capacity
+     */
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > items.length) {
+            grow(capacity);
+        }
+    }
+
+    /**
+     * Shrink the ring buffer to the current number of items
+     */
+    public void trimToSize() {
+        if (size < items.length) {
+            resize(size);
+        }
+    }
+
+    /**
+     * Makes a string representation of the queue
+     * @return A string containing values of all items
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (T item : this) {
+            s.append(item);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Get an index in the ring buffer of the item at given distance from the front
+     * @param offset A distance from the front
+     * @return An index in items
+     */
+    private int index(int offset) {
+        int i = head + offset;
+        return i < items.length ? i : i - items.length;
+    }
+
+    /**
+     * Grow the ring buffer at least 1.5 times to make the additions amortized O(1)
+     * @param capacity A minimal capacity
+     */
+    private void grow(int capacity) {
+        resize(Math.max(capacity, Math.max(items.length + (items.length >> 1), DEFAULT_CAPACITY)));
+    }
+
+    /**
+     * Move the items to a new buffer starting at its beginning
+     * @param capacity A capacity of the new buffer (not less than size)
+     */
+    private void resize(int capacity) {
+        Object[] newItems = new Object[capacity];
+        int tail = Math.min(size, items.length - head);
+        System.arraycopy(items, head, newItems, 0, tail);
+        System.arraycopy(items, 0, newItems, tail, size - tail);
+        items = newItems;
+        head = 0;
+    }
+}
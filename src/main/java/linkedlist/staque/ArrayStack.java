@@ -0,0 +1,205 @@
+/*
+ * File: ArrayStack.java
+ * Description: A Stack data structure
+ * based on a growable array.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An array-based Stack-like collection, a drop-in replacement of Stack
+ * that keeps the values in one contiguous array instead of a node per item
+ * @param <T> A type parameter of the item values
+ */
+public class ArrayStack<T> implements IStaque<T> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] items;     // values of the stack, the top one is items[size - 1]
+    private int size;           // number of items
+
+    /**
+     * An empty Stack
+     */
+    public ArrayStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * An empty Stack that may hold given number of items without growing
+     * @param capacity An initial capacity
+     */
+    public ArrayStack(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.items = new Object[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Make a Stack from an array of item values,
+     * the last value is on the top
+     * @param values An array of values
+     */
+    public ArrayStack(T[] values) {
+        this(values.length);
+        for (T value : values) {
+            this.add(value);
+        }
+    }
+
+    //region Public Overrides
+
+    /**
+     * Add the item to the top of stack
+     * @param item An element to add to
+     */
+    @Override
+    public void add(T item) {
+        if (size == items.length) {
+            grow(size + 1);
+        }
+        items[size++] = item;
+    }
+
+    /**
+     * Get an element that is the most recently added to the collection
+     * @return A value of the most recently added element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        if (this.isEmpty()) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return (T) items[size - 1];
+    }
+
+    /**
+     * Get an element that is the most recently added,
+     * and removes it from the collection
+     * @return A value of the most recently added element
+     */
+    @Override
+    public T extract() {
+        T value = this.get();
+        items[--size] = null;   // don't retain the removed value
+        return value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * An iterator from the top to the bottom of the stack
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int index = size - 1;
+
+            public boolean hasNext() {
+                return index >= 0;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return (T) items[index--];
+            }
+        };
+    }
+
+    /**
+     * Push a range of values, the last one ends up on the top
+     * @param values An array of values
+     * @param from   An index of the first value to add
+     * @param to     An index after the last value to add
+     */
+    @Override
+    public void addAll(T[] values, int from, int to) {
+        int count = to - from;
+        ensureCapacity(size + count);
+        System.arraycopy(values, from, items, size, count);
+        size += count;
+    }
+
+    /**
+     * Pop a number of values, the top one first
+     * @param results An array to store the values to
+     * @param from    An index to store the first value at
+     * @param to      An index after the last value to store
+     * @throws NoSuchElementException if the stack has fewer items, after extracting all of them
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void extractAll(T[] results, int from, int to) {
+        int count = Math.min(to - from, size);
+        for (int i = 0; i < count; i++) {
+            results[from + i] = (T) items[size - 1 - i];
+        }
+        Arrays.fill(items, size - count, size, null);   // don't retain the removed values
+        size -= count;
+        if (count < to - from) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+    }
+    //endregion Public Overrides
+
+    /**
+     * Grow the backing array, if needed, to hold given number of items
+     * @param capacity A minimal capacity
+     */
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > items.length) {
+            grow(capacity);
+        }
+    }
+
+    /**
+     * Shrink the backing array to the current number of items
+     */
+    public void trimToSize() {
+        if (size < items.length) {
+            items = Arrays.copyOf(items, size);
+        }
+    }
+
+    /**
+     * Makes a string representation of the stack
+     * @return A string containing values of all items
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (T item : this) {
+            s.append(item);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Grow the backing array at least 1.5 times to make the additions amortized O(1)
+     * @param capacity A minimal capacity
+     */
+    private void grow(int capacity) {
+        int newCapacity = Math.max(capacity, Math.max(items.length + (items.length >> 1), DEFAULT_CAPACITY));
+        items = Arrays.copyOf(items, newCapacity);
+    }
+}
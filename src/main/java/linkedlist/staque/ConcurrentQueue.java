@@ -0,0 +1,271 @@
+/*
+ * File: ConcurrentQueue.java
+ * Description: A lock-free Queue data structure
+ * for many producer and consumer threads.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import linkedlist.LLItem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A linked-list-based Queue-like collection safe for any number of threads
+ * (the Michael-Scott algorithm).
+ * <p>
+ * The list starts with a dummy item whose next item is the front one.
+ * add links a new item after the last one with a CAS on LLItem.next and then
+ * swings the tail; extract swings the head to its next item, which becomes
+ * the new dummy. No thread ever waits for another: a thread finding the tail
+ * lagging behind advances it itself. Null values are not allowed, since
+ * a dummy is told from a value by its null.
+ * <p>
+ * getSize is a sum of counters, exact only while no thread changes the queue;
+ * the iterator is weakly consistent and never throws ConcurrentModificationException.
+ * @param <T> A type parameter of the item values
+ */
+public class ConcurrentQueue<T> implements IStaque<T> {
+    private static final VarHandle NEXT;    // LLItem.next
+    private static final VarHandle VALUE;   // LLItem.value
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            NEXT = lookup.findVarHandle(LLItem.class, "next", LLItem.class);
+            VALUE = lookup.findVarHandle(LLItem.class, "value", Object.class);
+            HEAD = lookup.findVarHandle(ConcurrentQueue.class, "head", LLItem.class);
+            TAIL = lookup.findVarHandle(ConcurrentQueue.class, "tail", LLItem.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile LLItem<T> head;    // the dummy item before the front one
+    private volatile LLItem<T> tail;    // the last item, or one lagging behind it
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * An empty queue
+     */
+    public ConcurrentQueue() {
+        this.head = new LLItem<>();
+        this.tail = this.head;
+    }
+
+    /**
+     * Make a queue from an array of item values,
+     * the first value is in the front
+     * @param values An array of values
+     */
+    public ConcurrentQueue(T[] values) {
+        this();
+        for (T value : values) {
+            this.add(value);
+        }
+    }
+
+    //region Public Overrides
+
+    /**
+     * Add the item to the end of queue
+     * @param item An element to add to
+     * @throws IllegalArgumentException if the item is null
+     */
+    @Override
+    public void add(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Null items are not supported");
+        }
+        LLItem<T> newItem = new LLItem<>(item, null);
+        while (true) {
+            LLItem<T> last = this.tail;
+            LLItem<T> next = next(last);
+            if (next != null) {
+                TAIL.compareAndSet(this, last, next);   // help the thread that linked it
+            } else if (NEXT.compareAndSet(last, null, newItem)) {
+                TAIL.compareAndSet(this, last, newItem);
+                size.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the front item of the queue
+     * @return A value of the earliest added element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public T get() {
+        while (true) {
+            LLItem<T> first = next(this.head);
+            if (first == null) {
+                throw new NoSuchElementException("No such element in the collection!");
+            }
+            T value = value(first);
+            if (value != null) {
+                return value;
+            }
+            // the item has just become the dummy, look again
+        }
+    }
+
+    /**
+     * Retrieve and remove the front item from the queue
+     * @return Retrieved element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public T extract() {
+        T value = poll();
+        if (value == null) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return next(this.head) == null;
+    }
+
+    @Override
+    public int getSize() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size.sum()));
+    }
+
+    /**
+     * Move up to given number of front items to another collection,
+     * detaching all of them from the queue with one CAS
+     * @param target      A collection to add the elements to
+     * @param maxElements The maximal number of elements to move
+     * @return The number of elements moved
+     */
+    @Override
+    public int drainTo(IStaque<? super T> target, int maxElements) {
+        while (true) {
+            LLItem<T> dummy = this.head;
+            LLItem<T> last = dummy;
+            int count = 0;
+            LLItem<T> next;
+            while (count < maxElements && (next = next(last)) != null) {
+                last = next;
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            // the tail only moves forward, push it out of the items to detach
+            for (LLItem<T> item = dummy; item != last; item = next(item)) {
+                LLItem<T> lagging = this.tail;
+                if (lagging == item) {
+                    TAIL.compareAndSet(this, lagging, next(lagging));
+                }
+            }
+            if (HEAD.compareAndSet(this, dummy, last)) {
+                size.add(-count);
+                LLItem<T> item = dummy;
+                for (int i = 0; i < count; i++) {
+                    item = next(item);
+                    target.add(value(item));
+                }
+                VALUE.setRelease(last, null);   // the new dummy
+                return count;
+            }
+        }
+    }
+
+    /**
+     * An iterator from the front to the end of the queue,
+     * it sees the items present when it reaches them
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private LLItem<T> item = head;
+            private T nextValue = advance();
+
+            public boolean hasNext() {
+                return nextValue != null;
+            }
+
+            public T next() {
+                if (nextValue == null) throw new NoSuchElementException();
+                T value = nextValue;
+                nextValue = advance();
+                return value;
+            }
+
+            // skip the items that have been extracted meanwhile
+            private T advance() {
+                for (item = ConcurrentQueue.next(item); item != null; item = ConcurrentQueue.next(item)) {
+                    T value = value(item);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+    //endregion Public Overrides
+
+    /**
+     * Retrieve and remove the front item, if there is one
+     * @return Retrieved element; null if the queue is empty
+     */
+    public T poll() {
+        while (true) {
+            LLItem<T> dummy = this.head;
+            LLItem<T> last = this.tail;
+            LLItem<T> first = next(dummy);
+            if (first == null) {
+                return null;
+            }
+            if (dummy == last) {
+                // the tail lags behind the item being removed, move it first
+                TAIL.compareAndSet(this, last, first);
+                continue;
+            }
+            T value = value(first);
+            if (value != null && HEAD.compareAndSet(this, dummy, first)) {
+                VALUE.setRelease(first, null);  // the new dummy mustn't retain the value
+                size.decrement();
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Makes a string representation of the queue
+     * @return A string containing values of all items
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (T item : this) {
+            s.append(item);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> LLItem<T> next(LLItem<T> item) {
+        return (LLItem<T>) NEXT.getAcquire(item);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T value(LLItem<T> item) {
+        return (T) VALUE.getAcquire(item);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * File: ConcurrentRingQueue.java
+ * Description: A bounded lock-free Queue data structure
+ * based on a ring buffer, for many producer and consumer threads.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded ring-buffer-based Queue-like collection safe for any number of threads
+ * (the Vyukov algorithm), it allocates nothing per item.
+ * <p>
+ * Every cell of the ring has a sequence number telling whose turn it is:
+ * a producer at position p may fill the cell when its sequence is p, and
+ * a consumer at position p may empty it when its sequence is p + 1. A thread
+ * claims its position with a CAS and then publishes the cell by advancing
+ * its sequence, so producers and consumers only contend on their own position.
+ * The two positions are far apart in one array so they never share a cache line.
+ * <p>
+ * The capacity is rounded up to a power of two. add throws IllegalStateException
+ * on a full queue, offer returns false instead. Null values are not allowed.
+ * @param <T> A type parameter of the item values
+ */
+public class ConcurrentRingQueue<T> implements IStaque<T> {
+    private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ITEM = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final int PADDING = 16;              // 128 bytes of longs
+    private static final int ENQUEUE = PADDING;         // an index of the next position to fill
+    private static final int DEQUEUE = 2 * PADDING;     // an index of the next position to empty
+
+    private final Object[] items;
+    private final long[] sequences;
+    private final int mask;
+    private final AtomicLongArray positions = new AtomicLongArray(3 * PADDING);
+
+    /**
+     * An empty queue
+     * @param capacity The maximal number of items, rounded up to a power of two
+     */
+    public ConcurrentRingQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be in [1, 2^30]: " + capacity);
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.items = new Object[size];
+        this.sequences = new long[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences[i] = i;
+        }
+    }
+
+    /**
+     * Make a queue from an array of item values,
+     * the first value is in the front
+     * @param values An array of values
+     */
+    public ConcurrentRingQueue(T[] values) {
+        this(Math.max(1, values.length));
+        for (T value : values) {
+            this.add(value);
+        }
+    }
+
+    //region Public Overrides
+
+    /**
+     * Add the item to the end of queue
+     * @param item An element to add to
+     * @throws IllegalArgumentException if the item is null
+     * @throws IllegalStateException if the queue is full
+     */
+    @Override
+    public void add(T item) {
+        if (!offer(item)) {
+            throw new IllegalStateException("Queue is full: " + getCapacity() + " items");
+        }
+    }
+
+    /**
+     * Get the front item of the queue
+     * @return A value of the earliest added element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        while (true) {
+            long position = positions.get(DEQUEUE);
+            int index = (int) position & mask;
+            long sequence = (long) SEQUENCE.getAcquire(sequences, index);
+            if (sequence < position + 1) {
+                throw new NoSuchElementException("No such element in the collection!");
+            }
+            if (sequence == position + 1) {
+                Object item = ITEM.getAcquire(items, index);
+                if (positions.get(DEQUEUE) == position) {
+                    return (T) item;    // no consumer has claimed it meanwhile
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieve and remove the front item from the queue
+     * @return Retrieved element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public T extract() {
+        T value = poll();
+        if (value == null) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long position = positions.get(DEQUEUE);
+        return (long) SEQUENCE.getAcquire(sequences, (int) position & mask) < position + 1;
+    }
+
+    @Override
+    public int getSize() {
+        long dequeue = positions.get(DEQUEUE);
+        long enqueue = positions.get(ENQUEUE);
+        return (int) Math.max(0, Math.min(items.length, enqueue - dequeue));
+    }
+
+    /**
+     * Move up to given number of front items to another collection,
+     * claiming all of them with one CAS
+     * @param target      A collection to add the elements to
+     * @param maxElements The maximal number of elements to move
+     * @return The number of elements moved
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int drainTo(IStaque<? super T> target, int maxElements) {
+        while (true) {
+            long position = positions.get(DEQUEUE);
+            int count = 0;
+            while (count < maxElements && count < items.length
+                    && (long) SEQUENCE.getAcquire(sequences, (int) (position + count) & mask) == position + count + 1) {
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (positions.compareAndSet(DEQUEUE, position, position + count)) {
+                for (int i = 0; i < count; i++) {
+                    target.add((T) take(position + i));
+                }
+                return count;
+            }
+        }
+    }
+
+    /**
+     * An iterator from the front to the end of the queue,
+     * it sees the items present when it reaches them
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private long position = positions.get(DEQUEUE);
+            private T nextValue = advance();
+
+            public boolean hasNext() {
+                return nextValue != null;
+            }
+
+            public T next() {
+                if (nextValue == null) throw new NoSuchElementException();
+                T value = nextValue;
+                nextValue = advance();
+                return value;
+            }
+
+            // skip the positions that have been emptied meanwhile
+            @SuppressWarnings("unchecked")
+            private T advance() {
+                position = Math.max(position, positions.get(DEQUEUE));
+                while (true) {
+                    int index = (int) position & mask;
+                    if ((long) SEQUENCE.getAcquire(sequences, index) != position + 1) {
+                        return null;
+                    }
+                    Object item = ITEM.getAcquire(items, index);
+                    position++;
+                    if (item != null) {
+                        return (T) item;
+                    }
+                }
+            }
+        };
+    }
+    //endregion Public Overrides
+
+    /**
+     * Add the item to the end of queue, if there is room for it
+     * @param item An element to add to
+     * @return true if added, false if the queue is full
+     * @throws IllegalArgumentException if the item is null
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Null items are not supported");
+        }
+        long position = positions.get(ENQUEUE);
+        while (true) {
+            int index = (int) position & mask;
+            long difference = (long) SEQUENCE.getAcquire(sequences, index) - position;
+            if (difference == 0) {
+                if (positions.compareAndSet(ENQUEUE, position, position + 1)) {
+                    items[index] = item;
+                    SEQUENCE.setRelease(sequences, index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;   // the cell hasn't been emptied since the last round
+            }
+            position = positions.get(ENQUEUE);
+        }
+    }
+
+    /**
+     * Retrieve and remove the front item, if there is one
+     * @return Retrieved element; null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long position = positions.get(DEQUEUE);
+        while (true) {
+            int index = (int) position & mask;
+            long difference = (long) SEQUENCE.getAcquire(sequences, index) - (position + 1);
+            if (difference == 0) {
+                if (positions.compareAndSet(DEQUEUE, position, position + 1)) {
+                    return (T) take(position);
+                }
+            } else if (difference < 0) {
+                return null;    // the cell hasn't been filled yet
+            }
+            position = positions.get(DEQUEUE);
+        }
+    }
+
+    /**
+     * Get the maximal number of items
+     * @return The capacity, a power of two
+     */
+    public int getCapacity() {
+        return items.length;
+    }
+
+    /**
+     * Makes a string representation of the queue
+     * @return A string containing values of all items
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (T item : this) {
+            s.append(item);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Empties a claimed cell and passes it to the producer of the next round
+     * @param position A position claimed by this thread
+     * @return The item of the cell
+     */
+    private Object take(long position) {
+        int index = (int) position & mask;
+        Object item = items[index];
+        ITEM.setOpaque(items, index, null);
+        SEQUENCE.setRelease(sequences, index, position + mask + 1);
+        return item;
+    }
+}
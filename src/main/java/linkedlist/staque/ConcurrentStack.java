@@ -0,0 +1,237 @@
+/*
+ * File: ConcurrentStack.java
+ * Description: A lock-free Stack data structure
+ * for many producer and consumer threads.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import linkedlist.LLItem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A linked-list-based Stack-like collection safe for any number of threads
+ * (the Treiber stack).
+ * <p>
+ * add and extract replace the top item with a CAS and retry if another
+ * thread has changed it meanwhile. Since every add makes a new item, a removed
+ * item never comes back to the top, so there is no ABA problem. Null values
+ * are not allowed, since extract tells a removed item by its null.
+ * <p>
+ * getSize is a sum of counters, exact only while no thread changes the stack;
+ * the iterator is weakly consistent and never throws ConcurrentModificationException.
+ * @param <T> A type parameter of the item values
+ */
+public class ConcurrentStack<T> implements IStaque<T> {
+    private static final VarHandle VALUE;   // LLItem.value
+    private static final VarHandle TOP;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VALUE = lookup.findVarHandle(LLItem.class, "value", Object.class);
+            TOP = lookup.findVarHandle(ConcurrentStack.class, "top", LLItem.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile LLItem<T> top;     // the most recently added item
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * An empty stack
+     */
+    public ConcurrentStack() {
+        this.top = null;
+    }
+
+    /**
+     * Make a stack from an array of item values,
+     * the last value is on the top
+     * @param values An array of values
+     */
+    public ConcurrentStack(T[] values) {
+        this();
+        for (T value : values) {
+            this.add(value);
+        }
+    }
+
+    //region Public Overrides
+
+    /**
+     * Push an item onto the top of the stack
+     * @param item An element to add to
+     * @throws IllegalArgumentException if the item is null
+     */
+    @Override
+    public void add(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Null items are not supported");
+        }
+        LLItem<T> newItem = new LLItem<>(item, null);
+        LLItem<T> oldTop;
+        do {
+            oldTop = this.top;
+            newItem.next = oldTop;      // published by the CAS
+        } while (!TOP.compareAndSet(this, oldTop, newItem));
+        size.increment();
+    }
+
+    /**
+     * Get the top item of the stack
+     * @return A value of the most recently added element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public T get() {
+        while (true) {
+            LLItem<T> first = this.top;
+            if (first == null) {
+                throw new NoSuchElementException("No such element in the collection!");
+            }
+            T value = value(first);
+            if (value != null) {
+                return value;
+            }
+            // the item has just been extracted, look again
+        }
+    }
+
+    /**
+     * Retrieve and remove the top item of the stack
+     * @return Retrieved element
+     * @throws NoSuchElementException if the collection is empty
+     */
+    @Override
+    public T extract() {
+        T value = poll();
+        if (value == null) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.top == null;
+    }
+
+    @Override
+    public int getSize() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size.sum()));
+    }
+
+    /**
+     * Move up to given number of top items to another collection,
+     * detaching all of them from the stack with one CAS
+     * @param target      A collection to add the elements to
+     * @param maxElements The maximal number of elements to move
+     * @return The number of elements moved
+     */
+    @Override
+    public int drainTo(IStaque<? super T> target, int maxElements) {
+        while (true) {
+            LLItem<T> first = this.top;
+            LLItem<T> rest = first;
+            int count = 0;
+            while (count < maxElements && rest != null) {
+                rest = rest.next;
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (TOP.compareAndSet(this, first, rest)) {
+                size.add(-count);
+                for (LLItem<T> item = first; item != rest; item = item.next) {
+                    target.add(value(item));
+                    VALUE.setRelease(item, null);
+                }
+                return count;
+            }
+        }
+    }
+
+    /**
+     * An iterator from the top to the bottom of the stack,
+     * it sees the items present when it reaches them
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private LLItem<T> item = top;
+            private T nextValue = advance();
+
+            public boolean hasNext() {
+                return nextValue != null;
+            }
+
+            public T next() {
+                if (nextValue == null) throw new NoSuchElementException();
+                T value = nextValue;
+                nextValue = advance();
+                return value;
+            }
+
+            // skip the items that have been extracted meanwhile
+            private T advance() {
+                for (; item != null; item = item.next) {
+                    T value = value(item);
+                    if (value != null) {
+                        item = item.next;
+                        return value;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+    //endregion Public Overrides
+
+    /**
+     * Retrieve and remove the top item, if there is one
+     * @return Retrieved element; null if the stack is empty
+     */
+    public T poll() {
+        while (true) {
+            LLItem<T> first = this.top;
+            if (first == null) {
+                return null;
+            }
+            if (TOP.compareAndSet(this, first, first.next)) {
+                T value = value(first);
+                VALUE.setRelease(first, null);  // don't let the detached item retain the value
+                size.decrement();
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Makes a string representation of the stack
+     * @return A string containing values of all items
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (T item : this) {
+            s.append(item);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T value(LLItem<T> item) {
+        return (T) VALUE.getAcquire(item);
+    }
+}
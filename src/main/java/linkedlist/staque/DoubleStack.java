@@ -0,0 +1,104 @@
+/*
+ * File: DoubleStack.java
+ * Description: A Stack data structure
+ * specialized for primitive double values.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An array-based Stack-like collection of primitive doubles.
+ * It follows the add/get/extract contract of IStaque,
+ * but neither boxes values nor allocates a node per item:
+ * the backing array only grows when it is full.
+ */
+public class DoubleStack {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] items;     // values of the stack, the top one is items[size - 1]
+    private int size;           // number of items
+
+    /**
+     * An empty stack
+     */
+    public DoubleStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * An empty stack that may hold given number of items without growing
+     * @param capacity An initial capacity
+     */
+    public DoubleStack(int capacity) {
+        this.items = new double[Math.max(capacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Add the item to the top of the stack
+     * @param item A value to add to
+     */
+    public void add(double item) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = item;
+    }
+
+    /**
+     * Get the most recently added value
+     * @return The top value
+     * @throws NoSuchElementException if the stack is empty
+     */
+    public double get() {
+        if (this.isEmpty()) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return items[size - 1];
+    }
+
+    /**
+     * Get the most recently added value and remove it from the stack
+     * @return The top value
+     * @throws NoSuchElementException if the stack is empty
+     */
+    public double extract() {
+        double value = this.get();
+        size--;
+        return value;
+    }
+
+    /**
+     * Remove all items, keeping the allocated capacity
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Makes a string representation of the stack
+     * @return A string containing values from the top to the bottom
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = size - 1; i >= 0; i--) {
+            s.append(items[i]);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+}
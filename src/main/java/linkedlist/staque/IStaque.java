@@ -7,6 +7,8 @@
  */
 package linkedlist.staque;
 
+import utils.Logger;
+
 /**
  * An interface for Stack and Queue data structures.
  * @param <T> The type parameter
@@ -42,9 +44,93 @@ public interface IStaque<T> extends Iterable<T> {
      */
     int getSize();
 
+    /**
+     * Move up to given number of elements to another collection,
+     * in the order they would be extracted
+     * @param target      A collection to add the elements to
+     * @param maxElements The maximal number of elements to move
+     * @return The number of elements moved
+     */
+    default int drainTo(IStaque<? super T> target, int maxElements) {
+        int count = 0;
+        while (count < maxElements && !this.isEmpty()) {
+            target.add(this.extract());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Prepare the collection to hold given number of elements without growing;
+     * collections that don't preallocate ignore it
+     * @param capacity A minimal capacity
+     */
+    default void ensureCapacity(int capacity) {
+    }
+
+    /**
+     * Add a range of elements, in the order of the array
+     * @param values An array of elements
+     * @param from   An index of the first element to add
+     * @param to     An index after the last element to add
+     */
+    default void addAll(T[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            this.add(values[i]);
+        }
+    }
+
+    /**
+     * Retrieve and remove a number of elements, in the order they are extracted
+     * @param results An array to store the elements to
+     * @param from    An index to store the first element at
+     * @param to      An index after the last element to store
+     * @throws java.util.NoSuchElementException if the collection has fewer elements
+     */
+    default void extractAll(T[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            results[i] = this.extract();
+        }
+    }
+
+    /**
+     * Perform an encoded sequence of actions on current collection,
+     * runs of equal actions are performed in bulk
+     * @param log     Actions to perform
+     * @param results An array to store the values got and extracted to, in order;
+     *                at least log.getResultCount() long
+     * @return The number of values stored
+     */
+    default int doActions(ActionLog<T> log, T[] results) {
+        return log.replay(this, results);
+    }
+
     /**
      * Perform a sequence of actions on current collection
      * @param actions ADD, GET or EXTRACT
      */
-    public void doActions(StaqueAction<T>[] actions, boolean debug);
+    default void doActions(StaqueAction<T>[] actions, boolean debug) {
+        for (StaqueAction<T> act : actions) {
+            switch (act.type) {
+                case ADD:
+                    this.add(act.value);
+                    if (debug) {
+                        Logger.write("Added:", act.value, "\n");
+                    }
+                    break;
+                case GET:
+                    T takenValue = this.get();
+                    if (debug) {
+                        Logger.write("Got:", takenValue, "\n");
+                    }
+                    break;
+                case EXTRACT:
+                    T retrievedValue = this.extract();
+                    if (debug) {
+                        Logger.write("Extracted:", retrievedValue, "\n");
+                    }
+                    break;
+            }
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * File: OperatorStack.java
+ * Description: A Stack data structure
+ * for values of an enum, e.g. operators of an expression.
+ * Authors:
+ *   - Danil Zabinskiy
+ * License: This file is licensed under the MIT License.
+ */
+package linkedlist.staque;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An array-based Stack-like collection of enum values.
+ * It follows the add/get/extract contract of IStaque,
+ * but keeps only the ordinals of the values in a byte array,
+ * so pushing a value allocates nothing.
+ * @param <E> An enum type of the item values (at most 128 constants)
+ */
+public class OperatorStack<E extends Enum<E>> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final E[] values;   // all constants of the enum, indexed by ordinal
+    private byte[] items;       // ordinals of the stack, the top one is items[size - 1]
+    private int size;           // number of items
+
+    /**
+     * An empty stack
+     * @param type A class of the enum
+     */
+    public OperatorStack(Class<E> type) {
+        this(type, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * An empty stack that may hold given number of items without growing
+     * @param type     A class of the enum
+     * @param capacity An initial capacity
+     */
+    public OperatorStack(Class<E> type, int capacity) {
+        this.values = type.getEnumConstants();
+        if (values.length > Byte.MAX_VALUE + 1) {
+            throw new IllegalArgumentException("Too many constants in " + type.getName());
+        }
+        this.items = new byte[Math.max(capacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Add the item to the top of the stack
+     * @param item A value to add to
+     */
+    public void add(E item) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = (byte) item.ordinal();
+    }
+
+    /**
+     * Get the most recently added value
+     * @return The top value
+     * @throws NoSuchElementException if the stack is empty
+     */
+    public E get() {
+        if (this.isEmpty()) {
+            throw new NoSuchElementException("No such element in the collection!");
+        }
+        return values[items[size - 1]];
+    }
+
+    /**
+     * Get the most recently added value and remove it from the stack
+     * @return The top value
+     * @throws NoSuchElementException if the stack is empty
+     */
+    public E extract() {
+        E value = this.get();
+        size--;
+        return value;
+    }
+
+    /**
+     * Remove all items, keeping the allocated capacity
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Makes a string representation of the stack
+     * @return A string containing values from the top to the bottom
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = size - 1; i >= 0; i--) {
+            s.append(values[items[i]]);
+            s.append(" ");
+        }
+        return s.toString();
+    }
+}
@@ -1,7 +1,7 @@
 /*
  * File: Logger.java
- * Description: Just a wrapper around the standard Stopwatch class,
- * implemented for the sake of portablity.
+ * Description: Writes messages to the system console
+ * through an asynchronous background writer.
  * Authors:
  *   - Ilya Tsivilskiy
  * Copyright: (c) 2023 Ilya Tsivilskiy
@@ -11,24 +11,119 @@
 package utils;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
  * A helper class to write information to the system console
+ * <p>
+ * A message is formatted by the calling thread into the reusable buffer of
+ * a slot of a lock-free ring, and a background thread writes the slots to
+ * the output channel in batches, so a caller never takes the lock of a
+ * PrintStream or waits for the console. A message below the current level
+ * costs one field read: its arguments are never formatted, and a Supplier
+ * is never called. write and writeLine log at the INFO level.
+ * <p>
+ * The messages of one thread are written in the order they were logged;
+ * flush waits until everything logged before it has been written.
+ * The writer thread parks while there is nothing to write. A failed write
+ * of the output is counted and its bytes are lost, and a message logged by
+ * the writer thread itself, e.g. by an output channel, is dropped when the
+ * ring is full rather than waiting for its own thread.
  */
 public class Logger {
 
     public static final String DELIMITER = " ";
 
+    /**
+     * Levels of messages, from the most verbose; OFF disables logging
+     */
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static volatile int threshold = Level.INFO.ordinal();
+
+    //region Levels
+
+    /**
+     * Set the least level of messages to write
+     * @param level A level, OFF to write nothing
+     */
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    /**
+     * Get the least level of messages to write
+     * @return The current level
+     */
+    public static Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    /**
+     * Check whether messages of a level are written
+     * @param level A level of messages
+     * @return true if they are written, false if they are dropped
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+    //endregion Levels
+
+    //region Writing
+
     /**
      * Write all arguments sequentially in a single line
      * @param args A sequence of arguments
      */
     public static void write(Object... args) {
-        for (int i = 0; i < args.length; i++) {
-            System.out.print(args[i]);
-            if (i < args.length - 1) {
-                System.out.print(DELIMITER);
+        if (!isEnabled(Level.INFO)) {
+            return;
+        }
+        long position = AsyncWriter.claim();
+        StringBuilder text = AsyncWriter.textAt(position);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                append(text, args[i]);
+                if (i < args.length - 1) {
+                    text.append(DELIMITER);
+                }
             }
+        } finally {
+            AsyncWriter.publish(position);
+        }
+    }
+
+    /**
+     * Write three arguments sequentially in a single line,
+     * without making an array of them
+     */
+    public static void write(Object first, Object second, Object third) {
+        if (!isEnabled(Level.INFO)) {
+            return;
+        }
+        long position = AsyncWriter.claim();
+        StringBuilder text = AsyncWriter.textAt(position);
+        try {
+            append(text, first);
+            text.append(DELIMITER);
+            append(text, second);
+            text.append(DELIMITER);
+            append(text, third);
+        } finally {
+            AsyncWriter.publish(position);
         }
     }
 
@@ -37,20 +132,349 @@ public class Logger {
      * @param args A sequence of arguments
      */
     public static void writeLine(Object... args) {
-        for (Object arg : args) {
-            System.out.println(arg);
+        if (!isEnabled(Level.INFO)) {
+            return;
+        }
+        long position = AsyncWriter.claim();
+        StringBuilder text = AsyncWriter.textAt(position);
+        try {
+            for (Object arg : args) {
+                append(text, arg);
+                text.append('\n');
+            }
+        } finally {
+            AsyncWriter.publish(position);
+        }
+    }
+
+    /**
+     * Write a message as a line starting with its level
+     * @param level   A level of the message
+     * @param message A message, formatted only if the level is enabled
+     */
+    public static void log(Level level, Object message) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long position = AsyncWriter.claim();
+        StringBuilder text = AsyncWriter.textAt(position);
+        try {
+            text.append(level.name()).append(DELIMITER);
+            append(text, message);
+            text.append('\n');
+        } finally {
+            AsyncWriter.publish(position);
+        }
+    }
+
+    /**
+     * Write two arguments as a line starting with its level
+     * @param level A level of the message
+     */
+    public static void log(Level level, Object first, Object second) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long position = AsyncWriter.claim();
+        StringBuilder text = AsyncWriter.textAt(position);
+        try {
+            text.append(level.name()).append(DELIMITER);
+            append(text, first);
+            text.append(DELIMITER);
+            append(text, second);
+            text.append('\n');
+        } finally {
+            AsyncWriter.publish(position);
+        }
+    }
+
+    /**
+     * Write all arguments as a line starting with its level
+     * @param level A level of the message
+     * @param args  A sequence of arguments, formatted only if the level is enabled
+     */
+    public static void log(Level level, Object... args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long position = AsyncWriter.claim();
+        StringBuilder text = AsyncWriter.textAt(position);
+        try {
+            text.append(level.name());
+            for (Object arg : args) {
+                text.append(DELIMITER);
+                append(text, arg);
+            }
+            text.append('\n');
+        } finally {
+            AsyncWriter.publish(position);
+        }
+    }
+
+    /**
+     * Write a message made only if the level is enabled
+     * @param level   A level of the message
+     * @param message A maker of the message
+     */
+    public static void log(Level level, Supplier<?> message) {
+        if (isEnabled(level)) {
+            log(level, (Object) message.get());
+        }
+    }
+
+    /**
+     * Wait until all messages logged before are written
+     */
+    public static void flush() {
+        AsyncWriter.flush();
+    }
+
+    /**
+     * Make the following messages be written to another channel,
+     * the messages logged before are written to the current one
+     * @param output A channel to write to
+     */
+    public static void setOutput(WritableByteChannel output) {
+        if (output == null) {
+            throw new IllegalArgumentException("Output channel is null");
         }
+        AsyncWriter.flush();
+        AsyncWriter.output = output;
+    }
+
+    /**
+     * Make the following messages be written to System.out again,
+     * as it is when they are written
+     */
+    public static void resetOutput() {
+        AsyncWriter.flush();
+        AsyncWriter.output = null;
+    }
+    //endregion Writing
+
+    //region Status
+
+    /**
+     * Get the number of writes the output failed; their messages are lost
+     * @return A count since the start of the JVM
+     */
+    public static long getFailedWrites() {
+        return AsyncWriter.failedWrites;
+    }
+
+    /**
+     * Get the number of messages logged by the writer thread that were dropped
+     * because the ring was full
+     * @return A count since the start of the JVM
+     */
+    public static long getDroppedMessages() {
+        return AsyncWriter.droppedMessages;
     }
+    //endregion Status
 
     /**
      * Prevent the console window from auto-close
      */
     public static void ReadKey() {
         Logger.writeLine("Press any key to exit...");
+        Logger.flush();
         try {
             System.in.read();
         } catch (IOException e) {
-            e.printStackTrace();
+            // there is no console to wait for
+        }
+    }
+
+    /**
+     * Append a value, numbers without making a String of them
+     */
+    private static void append(StringBuilder text, Object value) {
+        if (value instanceof Integer) {
+            text.append((int) (Integer) value);
+        } else if (value instanceof Double) {
+            text.append((double) (Double) value);
+        } else if (value instanceof Long) {
+            text.append((long) (Long) value);
+        } else {
+            text.append(value);
+        }
+    }
+
+    /**
+     * The ring of messages and the thread writing them, started with the first message.
+     * <p>
+     * Every slot has a sequence number telling whose turn it is (as in
+     * ConcurrentRingQueue): a logging thread at position p may fill the slot
+     * when its sequence is p, and the writer may take it when it is p + 1.
+     * A logging thread finding the ring full waits for the writer,
+     * except the writer thread itself, whose message is dropped.
+     */
+    private static final class AsyncWriter {
+        private static final int CAPACITY = 1024;                // slots, a power of two
+        private static final int MASK = CAPACITY - 1;
+        private static final int BUFFER_SIZE = 1 << 16;         // bytes written at once
+        private static final int MAX_RETAINED_TEXT = 1 << 12;   // a larger slot buffer is dropped after use
+        private static final long DROPPED = -1;                 // the position of a dropped message
+        private static final VarHandle SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+        private static final StringBuilder[] texts = new StringBuilder[CAPACITY];
+        private static final long[] sequences = new long[CAPACITY];
+        private static final AtomicLongArray positions = new AtomicLongArray(32);   // 128 bytes of padding
+        private static final int ENQUEUE = 16;
+
+        private static volatile WritableByteChannel output;    // null for System.out
+        private static volatile long written;           // the position up to which all slots are written
+        private static volatile boolean waiting;        // the writer is about to park
+        private static volatile long failedWrites;
+        private static volatile long droppedMessages;
+        private static final Thread thread;
+
+        // owned by the writer thread
+        private static final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private static final StringBuilder dropped = new StringBuilder();
+        private static final CharBuffer chars = CharBuffer.allocate(MAX_RETAINED_TEXT);
+        private static final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        static {
+            for (int i = 0; i < CAPACITY; i++) {
+                texts[i] = new StringBuilder(128);
+                sequences[i] = i;
+            }
+            thread = new Thread(AsyncWriter::run, "logger-writer");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(AsyncWriter::flush, "logger-flush"));
+        }
+
+        /**
+         * Claim the next slot, waiting for the writer while the ring is full
+         * @return A position of the claimed slot, DROPPED if the writer thread finds the ring full
+         */
+        static long claim() {
+            long position = positions.get(ENQUEUE);
+            while (true) {
+                int index = (int) position & MASK;
+                long difference = (long) SEQUENCE.getAcquire(sequences, index) - position;
+                if (difference == 0) {
+                    if (positions.compareAndSet(ENQUEUE, position, position + 1)) {
+                        return position;
+                    }
+                } else if (difference < 0) {
+                    if (Thread.currentThread() == thread) {
+                        return DROPPED;
+                    }
+                    LockSupport.unpark(thread);
+                    Thread.yield();
+                }
+                position = positions.get(ENQUEUE);
+            }
+        }
+
+        static StringBuilder textAt(long position) {
+            return position == DROPPED ? dropped : texts[(int) position & MASK];
+        }
+
+        /**
+         * Pass a filled slot to the writer
+         * @param position A position returned by claim
+         */
+        static void publish(long position) {
+            if (position == DROPPED) {
+                dropped.setLength(0);
+                droppedMessages++;
+                return;
+            }
+            SEQUENCE.setVolatile(sequences, (int) position & MASK, position + 1);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        static void flush() {
+            if (Thread.currentThread() == thread) {
+                return;     // the writer would wait for itself
+            }
+            long target = positions.get(ENQUEUE);
+            while (written < target) {
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(100_000);
+            }
+        }
+
+        /**
+         * Take the slots in order, encode them into the byte buffer and write
+         * it whenever it is full or there are no more slots to take
+         */
+        private static void run() {
+            long position = 0;
+            while (true) {
+                int index = (int) position & MASK;
+                if ((long) SEQUENCE.getAcquire(sequences, index) == position + 1) {
+                    take(index);
+                    SEQUENCE.setRelease(sequences, index, position + CAPACITY);
+                    position++;
+                    continue;
+                }
+                drain();
+                written = position;
+                waiting = true;
+                if ((long) SEQUENCE.getVolatile(sequences, index) != position + 1) {
+                    LockSupport.park();
+                }
+                waiting = false;
+            }
+        }
+
+        /**
+         * Encode the text of a slot and make the slot ready for reuse
+         */
+        private static void take(int index) {
+            StringBuilder text = texts[index];
+            int length = text.length();
+            for (int start = 0, end; start < length; start = end) {
+                end = Math.min(length, start + chars.capacity());
+                if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;  // keep a surrogate pair in one chunk
+                }
+                chars.clear();
+                text.getChars(start, end, chars.array(), 0);
+                chars.limit(end - start);
+                while (encoder.encode(chars, bytes, false).isOverflow()) {
+                    drain();
+                }
+            }
+            if (text.capacity() > MAX_RETAINED_TEXT) {
+                texts[index] = new StringBuilder(128);
+            } else {
+                text.setLength(0);
+            }
+        }
+
+        /**
+         * Write the byte buffer to the output, counting a failure
+         */
+        private static void drain() {
+            bytes.flip();
+            WritableByteChannel channel = output;
+            if (channel == null) {
+                PrintStream console = System.out;
+                console.write(bytes.array(), 0, bytes.limit());
+                console.flush();
+                if (console.checkError()) {
+                    failedWrites++;
+                }
+            } else {
+                try {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failedWrites++;     // the writer thread must survive a broken channel
+                }
+            }
+            bytes.clear();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,25 +1,15 @@
 package org.example;
 
 import cmath.UpdatedCalculator;
-import junit.framework.TestCase;
-import junit.framework.TestSuite;
-import org.junit.jupiter.api.Assertions;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Unit test for simple App.
  */
-public class AppTest extends TestCase {
-    private UpdatedCalculator updatedCalculator;
-
-    @BeforeEach
-    void setUpdatedCalculator() {
-        updatedCalculator = new UpdatedCalculator();
-    }
-
+public class AppTest {
     @Test
     void testBasicArithmetic() {
         assertEquals(2.0, UpdatedCalculator.eval("1.0 + 1.0", false));
@@ -0,0 +1,83 @@
+package org.example;
+
+import cmath.Backend;
+import cmath.BulkEvaluator;
+import cmath.ExpressionEngine;
+import cmath.UpdatedCalculator;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the parallel evaluation of bulk inputs
+ */
+public class BulkEvaluatorTest {
+
+    @Test
+    void testJobs() {
+        String[] shapes = {"x * 2 + y", "sin(x) ^ 2 - y / 3", "(x + y) * (x - y)", "7"};
+        int count = 100_000;
+        String[] expressions = new String[count];
+        double[][] values = new double[count][];
+        for (int job = 0; job < count; job++) {
+            expressions[job] = shapes[job % shapes.length];
+            values[job] = job % shapes.length == 3 ? null : new double[]{job * 0.001, job % 17};
+        }
+        ExpressionEngine engine = new ExpressionEngine(Backend.BYTECODE, 1024, 1000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            double[] results = new double[count];
+            assertEquals(0, new BulkEvaluator(engine, pool, 1000).evaluate(expressions, values, results));
+            for (int job = 0; job < count; job++) {
+                double[] slots = values[job] == null ? new double[0] : values[job];
+                assertEquals(UpdatedCalculator.compile(expressions[job]).evaluate(slots), results[job]);
+            }
+            assertEquals(count, engine.getEvaluations());
+            // workers missing an expression at once may all compile it, but only at first
+            assertTrue(engine.getCache().getMisses() <= shapes.length * pool.getParallelism());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedJobs() {
+        String[] expressions = {"1 / x", "1 / x", "(1 +", "x + y", "2 * 3"};
+        double[][] values = {{2.0}, {0.0}, null, {1.0}, null};
+        double[] results = new double[expressions.length];
+        BulkEvaluator evaluator = new BulkEvaluator(new ExpressionEngine(), ForkJoinPool.commonPool(), 2);
+        assertEquals(3, evaluator.evaluate(expressions, values, results));
+        assertEquals(0.5, results[0]);
+        assertTrue(Double.isNaN(results[1]));
+        assertTrue(Double.isNaN(results[2]));
+        assertTrue(Double.isNaN(results[3]));
+        assertEquals(6.0, results[4]);
+        assertThrows(IllegalArgumentException.class,
+                () -> evaluator.evaluate(expressions, values, new double[1]));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BulkEvaluator(new ExpressionEngine(), ForkJoinPool.commonPool(), 0));
+    }
+
+    @Test
+    void testColumns() {
+        int rows = 50_000;
+        double[][] columns = new double[2][rows];
+        for (int row = 0; row < rows; row++) {
+            columns[0][row] = row * 0.01;
+            columns[1][row] = row + 1;
+        }
+        double[] results = new double[rows];
+        BulkEvaluator evaluator = new BulkEvaluator();
+        evaluator.evaluate("cos(x) * y - x / y", columns, results);
+        for (int row = 0; row < rows; row++) {
+            assertEquals(Math.cos(columns[0][row]) * columns[1][row] - columns[0][row] / columns[1][row],
+                    results[row]);
+        }
+        columns[1][rows - 1] = 0;
+        assertThrows(ArithmeticException.class, () -> evaluator.evaluate("x / y", columns, results));
+    }
+}
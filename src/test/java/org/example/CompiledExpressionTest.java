@@ -0,0 +1,313 @@
+package org.example;
+
+import cmath.Backend;
+import cmath.CompiledExpression;
+import cmath.ExpressionEngine;
+import cmath.TieredExpression;
+import cmath.UpdatedCalculator;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for expressions compiled by UpdatedCalculator.compile
+ */
+public class CompiledExpressionTest {
+
+    @Test
+    void testBasicArithmetic() {
+        assertEquals(2.0, UpdatedCalculator.compile("1.0 + 1.0").evaluate());
+        assertEquals(0.0, UpdatedCalculator.compile("1.0 - 1.0").evaluate());
+        assertEquals(2.0, UpdatedCalculator.compile("1.0 * 2.0").evaluate());
+        assertEquals(0.5, UpdatedCalculator.compile("1.0 / 2.0").evaluate());
+        assertEquals(7.0, UpdatedCalculator.compile("1 + 2 * 3").evaluate());
+        assertEquals(-4.0, UpdatedCalculator.compile("1 - 2 - 3").evaluate());
+    }
+
+    @Test
+    void testSameResultsAsEval() {
+        String[] expressions = {
+                "sin(90.0)",
+                "cos(90.0)",
+                "tan(45.0)",
+                "2.0 ^ 3.0",
+                "sin45.0 ^ (2.0) + cos(45.0) ^ 2.0",
+                "2.0 ^ ((8.0 * 2.0) / 4.0)",
+                "(1 + 2) * (3 + 4) / 7",
+        };
+        for (String expression : expressions) {
+            assertEquals(UpdatedCalculator.eval(expression, true),
+                    UpdatedCalculator.compile(expression).evaluate(), expression);
+        }
+    }
+
+    @Test
+    void testNumberLiterals() {
+        String[] literals = {
+                "0", "7", "0.5", ".25", "3.", "1.5e-3", "6E23", "2e+10", "123456789012345678901234567890",
+                "0.1000000000000000055511151231257827", "9007199254740993", "1e400", "1e-400",
+                "4.9e-324", "1.7976931348623157e308", "0.000000000000000000000000000001",
+                // 18 digits fit in a long, more would overflow it
+                "999999999999999999", "9999999999999999999", "99999999999999999999", "9223372036854775807",
+                "9223372036854775808", "18446744073709551616", "1234567890123456789.5", "0.9999999999999999999"
+        };
+        for (String literal : literals) {
+            assertEquals(Double.parseDouble(literal), UpdatedCalculator.compile(literal).evaluate(), literal);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            String literal = random.nextInt(100_000) + "." + random.nextInt(1_000_000)
+                    + "e" + (random.nextInt(80) - 40);
+            assertEquals(Double.parseDouble(literal), UpdatedCalculator.compile(literal).evaluate(), literal);
+        }
+        assertEquals(1e19, UpdatedCalculator.eval("9999999999999999999", false));
+        assertEquals(1e19, UpdatedCalculator.eval("9999999999999999999", true));
+        assertEquals(2000.0 * 2, UpdatedCalculator.compile("2e3 * 2").evaluate());
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("2e"));
+    }
+
+    @Test
+    void testNestedFunctions() {
+        assertEquals(Math.sin(Math.cos(1.0) + 2.0), UpdatedCalculator.compile("sin(cos(1.0) + 2.0)").evaluate());
+        assertEquals(Math.pow(2.0, Math.sin(3.0)), UpdatedCalculator.compile("2 ^ sin(3)").evaluate());
+    }
+
+    @Test
+    void testDeeplyNestedExpression() {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            expression.append("(1 + ");
+        }
+        expression.append("0");
+        for (int i = 0; i < 500; i++) {
+            expression.append(")");
+        }
+        assertEquals(500.0, UpdatedCalculator.compile(expression.toString()).evaluate());
+        assertEquals(500.0, UpdatedCalculator.eval(expression.toString(), true));
+        assertEquals(Math.sin(Math.sin(2.0 * (1.0 + 2.0))), UpdatedCalculator.eval("sin(sin(2 * (1 + 2)))", true));
+    }
+
+    @Test
+    void testLongChains() {
+        // the program is as deep as the chain is long, and nothing recurses over it
+        StringBuilder ones = new StringBuilder("1");
+        StringBuilder sum = new StringBuilder("x");
+        for (int i = 1; i < 20_000; i++) {
+            ones.append(" + 1");
+            sum.append(i % 2 == 0 ? " + x" : " - y");
+        }
+        CompiledExpression constant = UpdatedCalculator.compile(ones.toString());
+        assertEquals(20_000.0, constant.evaluate());
+        assertTrue(constant.toString().endsWith("1.0 +"));
+        assertEquals(20_000.0, UpdatedCalculator.eval(ones.toString(), false));
+
+        CompiledExpression chain = UpdatedCalculator.compile(sum.toString(), "x", "y");
+        double[] slots = {3, 1};
+        assertEquals(10_000 * 3.0 - 10_000, chain.evaluate(slots));
+        assertEquals(10_000 * 3.0 - 10_000, chain.optimize().evaluate(slots));
+        for (Backend backend : Backend.values()) {
+            assertEquals(10_000 * 3.0 - 10_000, chain.toFunction(backend).applyAsDouble(slots), backend.toString());
+        }
+        TieredExpression tiered = new TieredExpression(chain, 1, Backend.METHOD_HANDLE);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(10_000 * 3.0 - 10_000, tiered.evaluate(slots));
+        }
+        assertEquals(10_000 * 3.0 - 10_000, new ExpressionEngine().evaluate(sum.toString(), 3, 1));
+    }
+
+    @Test
+    void testPooledRegisters() throws InterruptedException {
+        // a right-nested sum needs a register per level, more than a pooled array starts with
+        CompiledExpression wide = UpdatedCalculator.compile("x + (".repeat(40) + "x" + ")".repeat(40), "x");
+        CompiledExpression narrow = UpdatedCalculator.compile("x * 2 - 1", "x");
+        double[] slots = {1.5};
+        assertEquals(41 * 1.5, wide.evaluate(slots));
+        assertEquals(2.0, narrow.evaluate(slots));
+
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    double[] values = {i};
+                    if (wide.evaluate(values) != 41.0 * i || narrow.evaluate(values) != i * 2.0 - 1) {
+                        failed[id] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertArrayEquals(new boolean[threads.length], failed);
+
+        // evaluation takes its registers from the pool, nothing is allocated per call
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        double sum = 0;
+        long before = bean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 10_000; i++) {
+            sum += wide.evaluate(slots) + narrow.evaluate(slots);
+        }
+        long allocated = bean.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(10_000 * (41 * 1.5 + 2.0), sum);
+        assertTrue(allocated < 10_000, allocated + " bytes allocated");
+    }
+
+    @Test
+    void testVariables() {
+        CompiledExpression expression = UpdatedCalculator.compile("x * rate + t0 / x");
+        assertArrayEquals(new String[]{"x", "rate", "t0"}, expression.getVariables());
+        assertEquals(1, expression.slotOf("rate"));
+        assertEquals(-1, expression.slotOf("y"));
+        assertEquals(2.0 * 3.0 + 4.0 / 2.0, expression.evaluate(new double[]{2.0, 3.0, 4.0}));
+        assertEquals(Math.sin(0.5) * 2, UpdatedCalculator.compile("sin(x) * 2").evaluate(new double[]{0.5}));
+    }
+
+    @Test
+    void testBoundVariables() {
+        CompiledExpression expression = UpdatedCalculator.compile("b - a", "a", "b");
+        assertEquals(1.0, expression.evaluate(new double[]{2.0, 3.0}));
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("a + c", "a", "b"));
+        assertThrows(IllegalArgumentException.class, () -> expression.evaluate(new double[]{2.0}));
+    }
+
+    @Test
+    void testBatchEvaluation() {
+        CompiledExpression expression = UpdatedCalculator.compile("sin(x) ^ 2 + cos(x) * y / (y + 1) - 3", "x", "y");
+        int rows = 1000;
+        double[][] columns = new double[2][rows];
+        for (int row = 0; row < rows; row++) {
+            columns[0][row] = row * 0.01;
+            columns[1][row] = row;
+        }
+        double[] results = new double[rows];
+        expression.evaluate(columns, results);
+        for (int row = 0; row < rows; row++) {
+            assertEquals(expression.evaluate(new double[]{columns[0][row], columns[1][row]}), results[row]);
+        }
+        assertThrows(ArithmeticException.class,
+                () -> UpdatedCalculator.compile("1 / y", "x", "y").evaluate(columns, results));
+    }
+
+    @Test
+    void testProgram() {
+        CompiledExpression expression = UpdatedCalculator.compile("1 + 2 * 3");
+        assertEquals(5, expression.size());
+        assertEquals("1.0 2.0 3.0 * +", expression.toString());
+    }
+
+    @Test
+    void testOptimization() {
+        assertOptimized("2.0 ^ ((8.0 * 2.0) / 4.0)", "16.0");
+        assertOptimized("sin(30) * x", Math.sin(30) + " x *");
+        assertOptimized("x ^ 2", "x x *");
+        assertOptimized("x * 1 + 0 - 0 / 1", "x");
+        assertOptimized("(x + y) * (y + x)", "x y + x y + *");
+        assertEquals(4, UpdatedCalculator.compile("(x + y) * (y + x)").optimize().size());
+        assertOptimized("x ^ 0 + y ^ 1", "1.0 y +");
+
+        String expression = "sin(x) ^ 2 + cos(x) ^ 2 * (1 + 2) - (x + 0) / (4 - 3)";
+        CompiledExpression compiled = UpdatedCalculator.compile(expression);
+        CompiledExpression optimized = compiled.optimize();
+        assertTrue(optimized.size() < compiled.size());
+        for (double x = -3; x <= 3; x += 0.25) {
+            assertEquals(compiled.evaluate(new double[]{x}), optimized.evaluate(new double[]{x}));
+        }
+        assertThrows(ArithmeticException.class, () -> UpdatedCalculator.compile("1 / (2 - 2)").optimize().evaluate());
+        // a base that may divide by 0 is kept
+        assertThrows(ArithmeticException.class, () -> UpdatedCalculator.compile("(1 / 0) ^ 0").optimize().evaluate());
+        CompiledExpression division = UpdatedCalculator.compile("(1 / x) ^ 0", "x").optimize();
+        assertThrows(ArithmeticException.class, () -> division.evaluate(new double[]{0}));
+        assertEquals(1.0, division.evaluate(new double[]{2}));
+        assertOptimized("(x / 2) ^ 0", "1.0");
+    }
+
+    @Test
+    void testTieredPromotion() {
+        CompiledExpression expression = UpdatedCalculator.compile("sin(x) ^ 2 + cos(x) * y / (y + 1) - 3 ^ x", "x", "y");
+        TieredExpression tiered = new TieredExpression(expression, 3);
+        for (int call = 0; call < 3; call++) {
+            assertFalse(tiered.isPromoted());
+            assertEquals(expression.evaluate(new double[]{0.5, 2.0}), tiered.evaluate(new double[]{0.5, 2.0}));
+        }
+        assertTrue(tiered.isPromoted());
+        for (double x = -3; x <= 3; x += 0.25) {
+            double[] slots = {x, x * x};
+            assertEquals(expression.evaluate(slots), tiered.evaluate(slots));
+        }
+        assertThrows(ArithmeticException.class, () -> tiered.evaluate(new double[]{0.5, -1.0}));
+        assertThrows(IllegalArgumentException.class, () -> tiered.evaluate(new double[]{0.5}));
+
+        // hundreds of instructions need wide local variable indices
+        StringBuilder longSum = new StringBuilder("x");
+        for (int i = 1; i < 200; i++) {
+            longSum.append(" + x * ").append(i);
+        }
+        CompiledExpression sum = UpdatedCalculator.compile(longSum.toString());
+        TieredExpression tieredSum = new TieredExpression(sum, 0);
+        assertTrue(tieredSum.promote());
+        assertEquals(sum.evaluate(new double[]{1.5}), tieredSum.evaluate(new double[]{1.5}));
+
+        // a method too large for the JIT is not generated
+        StringBuilder hugeSum = new StringBuilder("x");
+        for (int i = 1; i < 2000; i++) {
+            hugeSum.append(" + x * ").append(i);
+        }
+        TieredExpression tieredHuge = new TieredExpression(UpdatedCalculator.compile(hugeSum.toString()), 0);
+        assertFalse(tieredHuge.promote());
+        assertEquals(1.0 + 1999000.0, tieredHuge.evaluate(new double[]{1.0}));
+    }
+
+    @Test
+    void testBackends() {
+        String[] expressions = {
+                "1 + 2 * 3",
+                "sin(x) ^ 2 + cos(x) * y / (y + 1) - 3 ^ x",
+                "(x + y) * (y + x) - tan(x / 2)",
+                "x ^ 2 - y",
+        };
+        for (Backend backend : Backend.values()) {
+            for (String text : expressions) {
+                CompiledExpression expression = UpdatedCalculator.compile(text, "x", "y").optimize();
+                ToDoubleFunction<double[]> function = expression.toFunction(backend);
+                for (double x = -2; x <= 2; x += 0.5) {
+                    double[] slots = {x, x + 3};
+                    assertEquals(expression.evaluate(slots), function.applyAsDouble(slots), backend + ": " + text);
+                }
+                assertThrows(IllegalArgumentException.class, () -> function.applyAsDouble(new double[0]));
+            }
+            ToDoubleFunction<double[]> division = UpdatedCalculator.compile("1 / x").toFunction(backend);
+            assertThrows(ArithmeticException.class, () -> division.applyAsDouble(new double[]{0.0}));
+        }
+        TieredExpression tiered = new TieredExpression(UpdatedCalculator.compile("x * 2"), 1, Backend.METHOD_HANDLE);
+        assertEquals(4.0, tiered.evaluate(new double[]{2.0}));
+        assertTrue(tiered.isPromoted());
+        assertEquals(6.0, tiered.evaluate(new double[]{3.0}));
+        assertFalse(new TieredExpression(UpdatedCalculator.compile("x"), 0, Backend.INTERPRETER).promote());
+    }
+
+    private static void assertOptimized(String expression, String program) {
+        assertEquals(program, UpdatedCalculator.compile(expression).optimize().toString(), expression);
+    }
+
+    @Test
+    void testErrorHandling() {
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("(1.0 +"));
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("(1.0 + 2"));
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("1.0 + 2)"));
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("1 2"));
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.compile("log(2)"));
+        assertThrows(ArithmeticException.class, () -> UpdatedCalculator.compile("1 / (2 - 2)").evaluate());
+    }
+}
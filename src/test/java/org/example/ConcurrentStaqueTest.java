@@ -0,0 +1,234 @@
+package org.example;
+
+import linkedlist.staque.ConcurrentQueue;
+import linkedlist.staque.ConcurrentRingQueue;
+import linkedlist.staque.ConcurrentStack;
+import linkedlist.staque.IStaque;
+import linkedlist.staque.Queue;
+import linkedlist.staque.Stack;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the lock-free Stack and Queue collections
+ */
+public class ConcurrentStaqueTest {
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int ITEMS_PER_PRODUCER = 10_000;
+
+    @Test
+    void testSequentialBehaviour() {
+        assertSameBehaviour(new Queue<>(), new ConcurrentQueue<>());
+        assertSameBehaviour(new Queue<>(), new ConcurrentRingQueue<>(1024));
+        assertSameBehaviour(new Stack<>(), new ConcurrentStack<>());
+    }
+
+    @Test
+    void testDrainTo() {
+        Integer[] values = {1, 2, 3, 4, 5};
+        ConcurrentQueue<Integer> queue = new ConcurrentQueue<>(values);
+        Queue<Integer> drained = new Queue<>();
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals("1 2 3 ", drained.toString());
+        assertEquals(2, queue.getSize());
+        queue.add(6);
+        assertEquals(3, queue.drainTo(drained, 10));
+        assertEquals("1 2 3 4 5 6 ", drained.toString());
+        assertTrue(queue.isEmpty());
+        queue.add(7);   // the tail must have left the drained items
+        assertEquals(7, queue.extract());
+
+        ConcurrentRingQueue<Integer> ring = new ConcurrentRingQueue<>(values);
+        Queue<Integer> fromRing = new Queue<>();
+        assertEquals(5, ring.drainTo(fromRing, 10));
+        assertEquals("1 2 3 4 5 ", fromRing.toString());
+        assertEquals(0, ring.drainTo(fromRing, 10));
+
+        ConcurrentStack<Integer> stack = new ConcurrentStack<>(values);
+        Queue<Integer> fromStack = new Queue<>();
+        assertEquals(2, stack.drainTo(fromStack, 2));
+        assertEquals("5 4 ", fromStack.toString());
+        assertEquals("3 2 1 ", stack.toString());
+
+        // the default implementation
+        Stack<Integer> plain = new Stack<>(values);
+        assertEquals(5, plain.drainTo(stack, 10));
+        assertEquals("1 2 3 4 5 3 2 1 ", stack.toString());
+    }
+
+    @Test
+    void testBoundsAndNulls() {
+        ConcurrentRingQueue<Integer> ring = new ConcurrentRingQueue<>(3);
+        assertEquals(4, ring.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertThrows(IllegalStateException.class, () -> ring.add(4));
+        assertEquals(0, ring.poll());
+        assertTrue(ring.offer(4));
+        assertEquals("1 2 3 4 ", ring.toString());
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentRingQueue<Integer>(0));
+
+        for (IStaque<Integer> staque : List.of(new ConcurrentQueue<Integer>(), new ConcurrentStack<Integer>(), ring)) {
+            assertThrows(IllegalArgumentException.class, () -> staque.add(null));
+        }
+        assertNull(new ConcurrentQueue<Integer>().poll());
+        assertNull(new ConcurrentStack<Integer>().poll());
+        assertThrows(NoSuchElementException.class, () -> new ConcurrentQueue<Integer>().get());
+        assertThrows(NoSuchElementException.class, () -> new ConcurrentStack<Integer>().extract());
+        assertThrows(NoSuchElementException.class, () -> new ConcurrentRingQueue<Integer>(2).get());
+    }
+
+    @Test
+    @Timeout(30)
+    void testConcurrentQueue() throws InterruptedException {
+        assertEveryItemOnce(ConcurrentQueue::new, true);
+    }
+
+    @Test
+    @Timeout(30)
+    void testConcurrentRingQueue() throws InterruptedException {
+        // a small ring keeps the producers running into a full queue
+        assertEveryItemOnce(() -> new ConcurrentRingQueue<>(64), true);
+    }
+
+    @Test
+    @Timeout(30)
+    void testConcurrentStack() throws InterruptedException {
+        assertEveryItemOnce(ConcurrentStack::new, false);
+    }
+
+    /**
+     * Runs producers adding distinct items and consumers taking them one by one
+     * or in batches, then checks that every item has been taken exactly once
+     * and, for a queue, that the items of one producer came out in order
+     */
+    private static void assertEveryItemOnce(Supplier<IStaque<Integer>> factory, boolean fifo)
+            throws InterruptedException {
+        IStaque<Integer> staque = factory.get();
+        int total = PRODUCERS * ITEMS_PER_PRODUCER;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int first = p * ITEMS_PER_PRODUCER;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = first; i < first + ITEMS_PER_PRODUCER; i++) {
+                    if (staque instanceof ConcurrentRingQueue<Integer> ring) {
+                        while (!ring.offer(i)) {
+                            Thread.yield();     // let a consumer run, there may be fewer CPUs than threads
+                        }
+                    } else {
+                        staque.add(i);
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            boolean batched = c % 2 == 1;
+            threads.add(new Thread(() -> {
+                await(start);
+                int[] last = new int[PRODUCERS];
+                Arrays.fill(last, -1);
+                Queue<Integer> batch = new Queue<>();
+                while (consumed.get() < total) {
+                    if (batched) {
+                        staque.drainTo(batch, 32);
+                    } else {
+                        Integer item = poll(staque);
+                        if (item != null) {
+                            batch.add(item);
+                        }
+                    }
+                    if (batch.isEmpty()) {
+                        Thread.yield();
+                    }
+                    while (!batch.isEmpty()) {
+                        int item = batch.extract();
+                        if (seen.getAndIncrement(item) != 0) {
+                            throw new AssertionError("Item " + item + " is taken twice");
+                        }
+                        int producer = item / ITEMS_PER_PRODUCER;
+                        if (fifo && item <= last[producer]) {
+                            throw new AssertionError("Item " + item + " is taken after " + last[producer]);
+                        }
+                        last[producer] = item;
+                        consumed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);     // a thread left running by a timeout doesn't keep the JVM alive
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            });
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals(total, consumed.get());
+        assertTrue(staque.isEmpty());
+        assertEquals(0, staque.getSize());
+    }
+
+    private static Integer poll(IStaque<Integer> staque) {
+        if (staque instanceof ConcurrentQueue<Integer> queue) {
+            return queue.poll();
+        } else if (staque instanceof ConcurrentRingQueue<Integer> ring) {
+            return ring.poll();
+        }
+        return ((ConcurrentStack<Integer>) staque).poll();
+    }
+
+    private static void await(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Applies the same sequence of additions and extractions to both
+     * collections and compares their state after every step
+     */
+    private static void assertSameBehaviour(IStaque<Integer> expected, IStaque<Integer> actual) {
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 == 2 && !expected.isEmpty()) {
+                assertEquals(expected.extract(), actual.extract());
+            } else {
+                expected.add(i);
+                actual.add(i);
+            }
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.get(), actual.get());
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+}
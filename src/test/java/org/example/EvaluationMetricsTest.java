@@ -0,0 +1,122 @@
+package org.example;
+
+import cmath.Backend;
+import cmath.ConcurrentHistogram;
+import cmath.EvaluationMetrics;
+import cmath.ExpressionEngine;
+import cmath.UpdatedCalculator;
+import cmath.UpdatedCalculator.Operator;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the metrics of expression engines
+ */
+public class EvaluationMetricsTest {
+
+    @Test
+    void testHistogram() {
+        ConcurrentHistogram histogram = new ConcurrentHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(1L << 50);     // beyond the tracked range
+        ConcurrentHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1L << 50, snapshot.getMax());
+        // within the resolution of the buckets
+        assertEquals(500_000, snapshot.getValueAtPercentile(50), 500_000 / 32.0);
+        assertEquals(990_000, snapshot.getValueAtPercentile(99), 990_000 / 32.0);
+        assertEquals(1000, snapshot.getValueAtPercentile(0), 1000 / 32.0);
+        assertEquals(1L << 50, snapshot.getValueAtPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(101));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getValueAtPercentile(50));
+        histogram.record(7);
+        assertEquals(7, histogram.snapshot().getValueAtPercentile(50));
+    }
+
+    @Test
+    void testEngineMetrics() {
+        ExpressionEngine engine = new ExpressionEngine(Backend.INTERPRETER, 16, 100);
+        EvaluationMetrics metrics = engine.getMetrics();
+        assertEquals(EvaluationMetrics.DEFAULT_SAMPLING_INTERVAL, metrics.getSamplingInterval());
+        assertThrows(IllegalArgumentException.class, () -> metrics.setSamplingInterval(3));
+        metrics.setSamplingInterval(1);
+        for (int i = 0; i < 10; i++) {
+            engine.evaluate("x * x + sin(x) - 1", i);
+        }
+        engine.interpret("2 ^ 3 / 4");
+        assertThrows(ArithmeticException.class, () -> engine.evaluate("1 / (x - 2)", 2));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("(1 +"));
+
+        EvaluationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(11, snapshot.evaluations());
+        assertEquals(2, snapshot.failures());
+        assertEquals(1, snapshot.arithmeticErrors());
+        assertEquals(1, snapshot.malformed());
+        assertEquals(11, snapshot.latency().getCount());
+        assertEquals(10, snapshot.parseTimes().getCount());
+        assertEquals(10, snapshot.evaluateTimes().getCount());
+        assertEquals("x * x + sin(x) - 1".length(), snapshot.expressionLengths().getMax());
+        assertEquals(9, snapshot.cacheHits());
+        assertEquals(Map.of(Operator.MUL, 10L, Operator.ADD, 10L, Operator.SIN, 10L, Operator.SUB, 10L,
+                Operator.POW, 1L, Operator.DIV, 1L), snapshot.operatorCounts());
+
+        metrics.setEnabled(false);
+        engine.evaluate("x + 1", 1);
+        assertEquals(11, metrics.snapshot().latency().getCount());
+        assertEquals(12, metrics.getEvaluations());
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().latency().getCount());
+        assertTrue(metrics.snapshot().operatorCounts().isEmpty());
+
+        // one in 4 sampled: the operator counts are estimated
+        metrics.setEnabled(true);
+        metrics.setSamplingInterval(4);
+        for (int i = 0; i < 4000; i++) {
+            engine.evaluate("x + 1", i);
+        }
+        assertEquals(1000, metrics.snapshot().latency().getCount(), 150);
+        assertEquals(4000, metrics.snapshot().operatorCounts().get(Operator.ADD), 600);
+    }
+
+    @Test
+    void testMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        UpdatedCalculator.eval("1 + 1", false);
+        ObjectName defaultName = new ObjectName("cmath:type=ExpressionEngine,name=\"default\"");
+        assertFalse(server.isRegistered(defaultName));
+        assertEquals(defaultName, UpdatedCalculator.getEngine().getMetrics().register("default"));
+        try {
+            assertTrue((Long) server.getAttribute(defaultName, "Evaluations") > 0);
+        } finally {
+            UpdatedCalculator.getEngine().getMetrics().unregister();
+        }
+
+        ExpressionEngine engine = new ExpressionEngine();
+        engine.getMetrics().setSamplingInterval(1);
+        engine.evaluate("2 * 3 + 1");
+        ObjectName name = engine.getMetrics().register("test");
+        try {
+            assertEquals(1L, server.getAttribute(name, "Evaluations"));
+            assertEquals(true, server.getAttribute(name, "Enabled"));
+            assertTrue((Long) server.getAttribute(name, "MaxLatency") > 0);
+            assertThrows(IllegalStateException.class, () -> engine.getMetrics().register("again"));
+        } finally {
+            engine.getMetrics().unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
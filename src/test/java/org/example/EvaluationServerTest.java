@@ -0,0 +1,140 @@
+package org.example;
+
+import cmath.EvaluationServer;
+import cmath.ExpressionEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the TCP evaluation server
+ */
+public class EvaluationServerTest {
+
+    @Test
+    void testRequests() throws IOException {
+        ExpressionEngine engine = new ExpressionEngine();
+        try (EvaluationServer server = new EvaluationServer(engine);
+             Socket socket = new Socket(server.getAddress().getAddress(), server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            // pipelined: all requests are sent before any answer is read
+            out.write(("2 + 2 * 2\n"
+                    + "x * y - 1; 3, 4\r\n"
+                    + "x * y - 1;5 6\n"
+                    + "1 / x; 0\n"
+                    + "(1 +\n"
+                    + "x + 1\n"
+                    + "x + 1; 1, 2\n"
+                    + "sin(0)").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertEquals("6.0", in.readLine());
+            assertEquals("11.0", in.readLine());
+            assertEquals("29.0", in.readLine());
+            assertTrue(in.readLine().startsWith("ERR "));
+            assertTrue(in.readLine().startsWith("ERR "));
+            assertTrue(in.readLine().startsWith("ERR Expected 1 values"));
+            assertTrue(in.readLine().startsWith("ERR Expected 1 values"));
+            // the last request is answered once its line ends
+            out.write('\n');
+            out.flush();
+            assertEquals("0.0", in.readLine());
+            assertEquals(4, engine.getEvaluations());
+            assertEquals(4, engine.getFailures());
+            assertEquals(1, server.getConnectionCount());
+        }
+    }
+
+    @Test
+    void testConcurrentClients() throws Exception {
+        int clients = 8;
+        int requests = 20_000;
+        ExpressionEngine engine = new ExpressionEngine();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        try (EvaluationServer server = new EvaluationServer(engine)) {
+            Thread[] threads = new Thread[clients];
+            for (int t = 0; t < clients; t++) {
+                int client = t;
+                threads[t] = new Thread(() -> {
+                    try (Socket socket = new Socket(server.getAddress().getAddress(), server.getPort())) {
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                        Thread writer = new Thread(() -> {
+                            try {
+                                StringBuilder batch = new StringBuilder();
+                                for (int i = 0; i < requests; i++) {
+                                    batch.append("x * 2 + y;").append(i).append(',').append(client).append('\n');
+                                    if (batch.length() > 4000) {
+                                        socket.getOutputStream().write(batch.toString().getBytes(StandardCharsets.US_ASCII));
+                                        batch.setLength(0);
+                                    }
+                                }
+                                socket.getOutputStream().write(batch.toString().getBytes(StandardCharsets.US_ASCII));
+                                socket.shutdownOutput();
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        });
+                        writer.setUncaughtExceptionHandler((thread, e) -> errors.add(e));
+                        writer.start();
+                        for (int i = 0; i < requests; i++) {
+                            assertEquals(Double.toString(i * 2.0 + client), in.readLine());
+                        }
+                        assertNull(in.readLine());
+                        writer.join();
+                    } catch (IOException | InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                threads[t].setUncaughtExceptionHandler((thread, e) -> errors.add(e));
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals((long) clients * requests, engine.getEvaluations());
+        // a connection looks the expression up once, not per request
+        assertTrue(engine.getCache().getHits() + engine.getCache().getMisses() <= clients);
+    }
+
+    @Test
+    void testDeepExpression() throws IOException {
+        try (EvaluationServer server = new EvaluationServer(new ExpressionEngine());
+             Socket socket = new Socket(server.getAddress().getAddress(), server.getPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            int depth = EvaluationServer.MAX_DEPTH;
+            String request = "sin(".repeat(depth + 1) + "x" + ")".repeat(depth + 1) + "; 0\n"
+                    + "sin(".repeat(depth) + "x" + ")".repeat(depth) + "; 0\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            assertEquals("ERR Expression is nested deeper than " + depth, in.readLine());
+            assertEquals("0.0", in.readLine());
+        }
+    }
+
+    @Test
+    void testTooLongRequest() throws IOException {
+        try (EvaluationServer server = new EvaluationServer(new ExpressionEngine());
+             Socket socket = new Socket(server.getAddress().getAddress(), server.getPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            byte[] request = new byte[1 << 16];     // fills the buffer without a line end
+            Arrays.fill(request, (byte) '1');
+            socket.getOutputStream().write(request);
+            assertTrue(in.readLine().startsWith("ERR Request is longer"));
+            assertNull(in.readLine());
+        }
+    }
+}
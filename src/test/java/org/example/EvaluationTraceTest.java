@@ -0,0 +1,109 @@
+package org.example;
+
+import cmath.EvaluationTrace;
+import cmath.EvaluationTrace.Event;
+import cmath.ExpressionEngine;
+import cmath.UpdatedCalculator;
+import cmath.UpdatedCalculator.Operator;
+import org.junit.jupiter.api.Test;
+import utils.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the traces of evaluations in the debug mode
+ */
+public class EvaluationTraceTest {
+
+    @Test
+    void testTraceOfEval() {
+        EvaluationTrace trace = new EvaluationTrace(EvaluationTrace.DEFAULT_CAPACITY);
+        assertEquals(7.0, UpdatedCalculator.eval("1 + 2 * 3", trace));
+        assertEquals("1 + 2 * 3", trace.getExpression());
+        assertEquals(7.0, trace.getResult());
+        assertNull(trace.getFailure());
+
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < trace.size(); i++) {
+            events.add(trace.getEvent(i));
+        }
+        assertEquals(List.of(
+                Event.TOKEN, Event.PUSH_VALUE, Event.TOKEN, Event.PUSH_OPERATOR,
+                Event.TOKEN, Event.PUSH_VALUE, Event.TOKEN, Event.PUSH_OPERATOR,
+                Event.TOKEN, Event.PUSH_VALUE,
+                Event.POP_OPERATOR, Event.APPLY, Event.POP_OPERATOR, Event.APPLY), events);
+
+        // the multiplication is applied first, with its operands
+        assertEquals(Operator.MUL, trace.getOperator(11));
+        assertEquals(2.0, trace.getLeft(11));
+        assertEquals(3.0, trace.getRight(11));
+        assertEquals(6.0, trace.getValue(11));
+        assertEquals(7.0, trace.getValue(13));
+        assertEquals(2, trace.getStart(2));
+        assertEquals(3, trace.getEnd(2));
+        assertTrue(trace.getNanos(13) >= trace.getNanos(0));
+        assertTrue(trace.toString().contains("APPLY         2.0 * 3.0 = 6.0"), trace.toString());
+
+        // the next evaluation replaces the trace
+        UpdatedCalculator.eval("sin(0)", trace);
+        assertEquals(Operator.SIN, trace.getOperator(trace.size() - 1));
+        assertEquals(0.0, trace.getRight(trace.size() - 1));
+        assertTrue(trace.toString().contains("APPLY         s 0.0 = 0.0"), trace.toString());
+
+        assertThrows(IllegalArgumentException.class, () -> UpdatedCalculator.eval("1", (EvaluationTrace) null));
+    }
+
+    @Test
+    void testDebugMode() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Logger.setOutput(Channels.newChannel(output));
+        try {
+            // the trace is logged only if the DEBUG level is enabled
+            assertEquals(1.0, UpdatedCalculator.eval("5 - 4", true));
+            Logger.setLevel(Logger.Level.DEBUG);
+            assertEquals(3.0, UpdatedCalculator.eval("1 + 2", true));
+            assertThrows(ArithmeticException.class, () -> UpdatedCalculator.eval("1 / 0", true));
+            Logger.flush();
+        } finally {
+            Logger.setLevel(Logger.Level.INFO);
+            Logger.resetOutput();
+        }
+        String log = output.toString(StandardCharsets.UTF_8);
+        assertTrue(log.startsWith("DEBUG "), log);
+        assertFalse(log.contains("5 - 4"), log);
+        assertTrue(log.contains("APPLY         1.0 + 2.0 = 3.0"), log);
+        assertTrue(log.contains("ArithmeticException"), log);
+    }
+
+    @Test
+    void testTraceOfFailure() {
+        EvaluationTrace trace = new EvaluationTrace(EvaluationTrace.DEFAULT_CAPACITY);
+        assertThrows(ArithmeticException.class, () -> UpdatedCalculator.eval("2 + 1 / (3 - 3)", trace));
+        assertTrue(trace.getFailure().startsWith("ArithmeticException"), trace.getFailure());
+        assertTrue(Double.isNaN(trace.getResult()));
+        assertEquals(Event.POP_OPERATOR, trace.getEvent(trace.size() - 1));
+        assertEquals(Operator.DIV, trace.getOperator(trace.size() - 1));
+    }
+
+    @Test
+    void testCapacity() {
+        EvaluationTrace trace = new EvaluationTrace(4);
+        ExpressionEngine engine = new ExpressionEngine();
+        assertEquals(10.0, engine.interpret("1 + 2 + 3 + 4", trace));
+        assertEquals(4, trace.size());
+        assertEquals(20 - 4, trace.getDropped());
+        assertTrue(trace.toString().contains("... 16 more events"), trace.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> trace.getEvent(4));
+        assertThrows(IllegalArgumentException.class, () -> new EvaluationTrace(0));
+    }
+}
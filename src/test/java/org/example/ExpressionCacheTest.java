@@ -0,0 +1,78 @@
+package org.example;
+
+import cmath.CompiledExpression;
+import cmath.ExpressionCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the cache of compiled expressions
+ */
+public class ExpressionCacheTest {
+
+    @Test
+    void testHitsAndMisses() {
+        ExpressionCache cache = new ExpressionCache(8);
+        CompiledExpression first = cache.get("1 + 2");
+        assertSame(first, cache.get("1+2"));
+        assertSame(first, cache.get(" 1 +\t2 "));
+        assertEquals(3.0, first.evaluate());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testBoundedSize() {
+        ExpressionCache cache = new ExpressionCache(16);
+        for (int i = 0; i < 100; i++) {
+            cache.get(i + " * 2");
+        }
+        assertTrue(cache.size() <= 16);
+        assertEquals(100 - cache.size(), cache.getEvictions());
+    }
+
+    @Test
+    void testMalformedExpressionsAreNotCached() {
+        ExpressionCache cache = new ExpressionCache(4);
+        assertThrows(IllegalArgumentException.class, () -> cache.get("(1 +"));
+        assertThrows(IllegalArgumentException.class, () -> cache.get("1  2"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testConcurrentAccess() throws InterruptedException {
+        ExpressionCache cache = new ExpressionCache(64);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    int n = i % 100;
+                    if (cache.get(n + " + 1").evaluate() != n + 1) {
+                        throw new AssertionError("Wrong value for " + n);
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals(80_000, cache.getHits() + cache.getMisses());
+    }
+}
@@ -0,0 +1,179 @@
+package org.example;
+
+import cmath.Backend;
+import cmath.CompiledExpression;
+import cmath.ExpressionCodec;
+import cmath.UpdatedCalculator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the binary encoding of expressions and results
+ */
+public class ExpressionCodecTest {
+    private static final String[] EXPRESSIONS = {
+            "1 + 2 * 3",
+            "x * y - 1",
+            "sin(x) ^ 2 + cos(x) ^ 2 - tan(y / 3)",
+            "(x + 1) * (x + 1) / (x + 1)",
+            "0.1 + 2.5 - 1e300 * 3 + 123456789012 - 1000000000",
+            "((((((((1 + a) * 2) - b) / 5) + 6) * c) - 8) / 9)",
+    };
+
+    @Test
+    void testRoundTrip() {
+        Random random = new Random(42);
+        for (String text : EXPRESSIONS) {
+            for (CompiledExpression expression : new CompiledExpression[]{
+                    UpdatedCalculator.compile(text), UpdatedCalculator.compile(text).optimize()}) {
+                for (boolean withSource : new boolean[]{true, false}) {
+                    byte[] bytes = ExpressionCodec.encode(expression, withSource);
+                    assertEquals(ExpressionCodec.encodedSize(expression, withSource), bytes.length);
+                    CompiledExpression decoded = ExpressionCodec.decode(bytes);
+                    assertArrayEquals(expression.getVariables(), decoded.getVariables());
+                    assertEquals(expression.size(), decoded.size());
+                    assertEquals(expression.toString(), decoded.toString());
+                    assertEquals(withSource ? expression.getSource() : expression.toString(), decoded.getSource());
+                    for (int i = 0; i < 10; i++) {
+                        double[] slots = {random.nextDouble() * 10, random.nextDouble() * 10 + 1, random.nextDouble()};
+                        assertEquals(expression.evaluate(slots), decoded.evaluate(slots), text);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testLiterals() {
+        // every literal form, and the values whose bits a narrower form would change;
+        // the negative ones, -0.0 and NaN are made by constant folding
+        String[] literals = {"0", "7", "0 - 3", "536870912", "2147483648", "0.5", "0.1", "1e300",
+                "4.9e-324", "1e400", "0 * (0 - 1)", "1e400 - 1e400"};
+        for (String literal : literals) {
+            CompiledExpression folded = UpdatedCalculator.compile(literal).optimize();
+            assertEquals(1, folded.size(), literal);
+            CompiledExpression decoded = ExpressionCodec.decode(ExpressionCodec.encode(folded, false));
+            assertEquals(Double.doubleToRawLongBits(folded.evaluate()),
+                    Double.doubleToRawLongBits(decoded.evaluate()), literal);
+        }
+        assertEquals(7, ExpressionCodec.encodedSize(UpdatedCalculator.compile("7"), false));
+        assertEquals(10, ExpressionCodec.encodedSize(UpdatedCalculator.compile("0.5"), false));
+        assertEquals(14, ExpressionCodec.encodedSize(UpdatedCalculator.compile("0.1"), false));
+    }
+
+    @Test
+    void testBuffers() {
+        CompiledExpression first = UpdatedCalculator.compile("x * 2 + y");
+        CompiledExpression second = UpdatedCalculator.compile("sin(z) / 0.1");
+        double[] results = {1.5, -2.25, Double.NaN, 1e-300, 42};
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(256),
+                ByteBuffer.allocateDirect(256).order(ByteOrder.LITTLE_ENDIAN)}) {
+            // several messages back to back
+            buffer.put((byte) 7);
+            ExpressionCodec.encode(first, buffer, true);
+            ExpressionCodec.encodeResults(results, 1, 4, buffer);
+            ExpressionCodec.encode(second, buffer, false);
+            assertEquals(1 + ExpressionCodec.encodedSize(first, true) + ExpressionCodec.resultsSize(3)
+                    + ExpressionCodec.encodedSize(second, false), buffer.position());
+            buffer.flip().position(1);
+
+            assertEquals("x * 2 + y", ExpressionCodec.decode(buffer).getSource());
+            DoubleBuffer decoded = ExpressionCodec.decodeResults(buffer);
+            assertEquals(3, decoded.remaining());
+            double[] copy = new double[3];
+            decoded.get(copy);
+            assertArrayEquals(Arrays.copyOfRange(results, 1, 4), copy);
+            assertEquals(second.evaluate(new double[]{2}), ExpressionCodec.decode(buffer).evaluate(new double[]{2}));
+            assertFalse(buffer.hasRemaining());
+            assertEquals(buffer.isDirect() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN, buffer.order());
+        }
+        assertThrows(BufferOverflowException.class,
+                () -> ExpressionCodec.encodeResults(results, 0, 5, ByteBuffer.allocate(40)));
+    }
+
+    @Test
+    void testMalformed() {
+        byte[] bytes = ExpressionCodec.encode(UpdatedCalculator.compile("sin(x) * y + 2.5"), true);
+        // every truncation is detected
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(truncated));
+        }
+        byte[] version = bytes.clone();
+        version[1] = 2;
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(version));
+        byte[] extra = Arrays.copyOf(bytes, bytes.length + 1);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(extra));
+        // an operator whose operand would be after it, and a slot of a missing variable
+        byte[] forward = {'X', 1, 0, 0, 2, 0x40, 2, 6, 0};
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(forward));
+        byte[] slot = {'X', 1, 0, 1, 1, 'x', 1, 9, 1};
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(slot));
+        byte[] opcode = {'X', 1, 0, 0, 1, 99};
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(opcode));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decodeResults(ByteBuffer.wrap(bytes)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionCodec.decodeResults(ByteBuffer.wrap(new byte[]{'R', 1, 2, 0, 0, 0, 0, 0, 0, 0, 0})));
+    }
+
+    @Test
+    void testSharedOperands() {
+        // 1, then n additions of the previous instruction to itself: n + 1 instructions, 2^(n+1) - 1 tree nodes
+        for (int n : new int[]{15, 60}) {
+            byte[] message = new byte[7 + 3 * n];
+            int position = 0;
+            for (byte b : new byte[]{'X', 1, 0, 0, (byte) (n + 1), 0x40, 2}) {
+                message[position++] = b;
+            }
+            for (int i = 0; i < n; i++) {
+                message[position++] = 1;    // ADD
+                message[position++] = 1;
+                message[position++] = 1;
+            }
+            byte[] bytes = Arrays.copyOf(message, position);
+            if (n == 60) {
+                assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(bytes));
+                continue;
+            }
+            CompiledExpression decoded = ExpressionCodec.decode(bytes);
+            assertEquals(n + 1, decoded.size());
+            assertEquals(Math.pow(2, n), decoded.evaluate());
+            for (Backend backend : Backend.values()) {
+                assertEquals(Math.pow(2, n), decoded.toFunction(backend).applyAsDouble(new double[0]), backend.toString());
+            }
+            assertEquals((1 << (n + 1)) - 1, decoded.getSource().split(" ").length);
+        }
+    }
+
+    @Test
+    void testSize() {
+        // results are smaller than their decimal text
+        Random random = new Random(7);
+        double[] results = new double[1000];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < results.length; i++) {
+            results[i] = random.nextGaussian() * 1000;
+            text.append(results[i]).append('\n');
+        }
+        int binary = ExpressionCodec.resultsSize(results.length);
+        assertTrue(binary < text.toString().getBytes(StandardCharsets.US_ASCII).length / 2, binary + " vs " + text.length());
+        // a pre-parsed program without its source is about as short as the text
+        String source = "(price * quantity - discount) * (1 + tax) / 100";
+        CompiledExpression expression = UpdatedCalculator.compile(source);
+        int encoded = ExpressionCodec.encodedSize(expression, false);
+        assertTrue(encoded < source.length() * 3 / 2, encoded + " vs " + source.length());
+    }
+}
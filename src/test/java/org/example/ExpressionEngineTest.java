@@ -0,0 +1,106 @@
+package org.example;
+
+import cmath.Backend;
+import cmath.ExpressionEngine;
+import cmath.UpdatedCalculator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for engines evaluating expressions
+ */
+public class ExpressionEngineTest {
+
+    @Test
+    void testEvaluation() {
+        ExpressionEngine engine = new ExpressionEngine(Backend.METHOD_HANDLE, 16, 100);
+        assertEquals(Backend.METHOD_HANDLE, engine.getBackend());
+        assertEquals(7.0, engine.evaluate("1 + 2 * 3"));
+        assertEquals(2.0 * 3.0 + 1.0, engine.evaluate("x * y + 1", 2.0, 3.0));
+        assertEquals(engine.evaluate("sin(2) ^ 2 / 4"), engine.interpret("sin(2) ^ 2 / 4"));
+        assertSame(engine.compile("x*y+1"), engine.compile("x * y + 1"));
+        assertEquals(4, engine.getEvaluations());
+        assertSame(UpdatedCalculator.getCache(), UpdatedCalculator.getEngine().getCache());
+    }
+
+    @Test
+    void testLimitsAndFailures() {
+        ExpressionEngine engine = new ExpressionEngine(Backend.INTERPRETER, 4, 10);
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("1 + 2 + 3 + 4"));
+        assertThrows(IllegalArgumentException.class, () -> engine.interpret("1 + 2 + 3 + 4"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("x + 1"));
+        assertThrows(ArithmeticException.class, () -> engine.interpret("1 / 0"));
+        assertThrows(IllegalArgumentException.class, () -> engine.interpret("(1 +"));
+        assertEquals(3.0, engine.interpret("1 + 2"));
+        assertEquals(5, engine.getFailures());
+        assertEquals(1, engine.getEvaluations());
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionEngine(Backend.BYTECODE, 4, 0));
+    }
+
+    @Test
+    void testConcurrentStress() throws InterruptedException {
+        // a small cache keeps evicting while the threads read it
+        ExpressionEngine engine = new ExpressionEngine(Backend.BYTECODE, 16, 1000);
+        int threadCount = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        int iterations = 20_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int i = 0; i < iterations; i++) {
+                    int n = (i + seed) % 64;
+                    switch (i % 4) {
+                        case 0 -> check(n * 2.0 + n % 8, engine.evaluate("x * 2 + " + n % 8, n));
+                        case 1 -> check(n * 3.0, engine.interpret(n + " * 3"));
+                        case 2 -> check(n + 0.5, engine.evaluate(n + " + 0.5"));
+                        default -> {
+                            try {
+                                engine.evaluate("1 / (x - " + n + ")", n);
+                                throw new AssertionError("Division by 0 is not detected");
+                            } catch (ArithmeticException expected) {
+                                // counted as a failure
+                            }
+                        }
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+        long total = (long) threadCount * iterations;
+        assertEquals(total / 4, engine.getFailures());
+        assertEquals(total - total / 4, engine.getEvaluations());
+        assertTrue(engine.getCache().size() <= 16);
+    }
+
+    private static void check(double expected, double actual) {
+        if (expected != actual) {
+            throw new AssertionError("Expected " + expected + ", got " + actual);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import cmath.CompiledExpression;
+import cmath.ExpressionEngine;
+import cmath.ExpressionStore;
+import cmath.UpdatedCalculator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the memory-mapped store of compiled expressions
+ */
+public class ExpressionStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWriteAndGet() throws IOException {
+        List<String> catalogue = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            catalogue.add("x * " + i + " + sin(y) ^ 2 - " + (i % 7) + " / (z + 1)");
+        }
+        catalogue.add("x*0+sin(y)^2-0/(z+1)");     // the first one, normalized
+        Path path = directory.resolve("formulas.store");
+        assertEquals(5000, ExpressionStore.write(path, catalogue));
+
+        ExpressionStore store = ExpressionStore.open(path);
+        assertEquals(5000, store.size());
+        assertEquals(0, store.getLoads());
+        double[] slots = {1.5, 2.5, 3.5};
+        for (String expression : catalogue) {
+            CompiledExpression stored = store.get(expression);
+            assertEquals(UpdatedCalculator.compile(expression).evaluate(slots), stored.evaluate(slots), expression);
+        }
+        assertEquals(5001, store.getLoads());
+        assertTrue(store.contains("x * 17 + sin(y) ^ 2 - 3 / (z + 1)"));
+        assertFalse(store.contains("x * 5000 + sin(y) ^ 2 - 2 / (z + 1)"));
+        assertNull(store.get("1 + 1"));
+    }
+
+    @Test
+    void testEngineLoadsFromStore() throws IOException {
+        Path path = directory.resolve("warm.store");
+        ExpressionStore.write(path, List.of("1 + 2 * 3", "a ^ 2 + b ^ 2"));
+        ExpressionEngine engine = new ExpressionEngine();
+        ExpressionStore store = ExpressionStore.open(path);
+        engine.getCache().setStore(store);
+        assertEquals(7.0, engine.evaluate("1 + 2 * 3"));
+        assertEquals(25.0, engine.evaluate("a ^ 2 + b ^ 2", 3, 4));
+        assertEquals(25.0, engine.evaluate("a ^ 2 + b ^ 2", 3, 4));     // a cache hit
+        assertEquals(4.0, engine.evaluate("2 + 2"));                    // not stored: compiled
+        assertEquals(2, store.getLoads());
+        assertEquals(3, engine.getCache().getMisses());
+    }
+
+    @Test
+    void testBadFiles() throws IOException {
+        Path path = directory.resolve("bad.store");
+        assertThrows(IllegalArgumentException.class, () -> ExpressionStore.write(path, List.of("1 +")));
+        assertFalse(Files.exists(path));
+
+        Files.write(path, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> ExpressionStore.open(path));
+
+        ExpressionStore.write(path, List.of("x + 1"));
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[7] = 9;   // the version
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> ExpressionStore.open(path));
+
+        // an empty catalogue is a valid store
+        ExpressionStore.write(path, List.of());
+        assertNull(ExpressionStore.open(path).get("x + 1"));
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import cmath.ExpressionEngine;
+import cmath.FormulaSheet;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the incremental recalculation of formula sheets
+ */
+public class FormulaSheetTest {
+
+    @Test
+    void testRecalculation() {
+        FormulaSheet sheet = new FormulaSheet();
+        sheet.setValue("price", 10);
+        sheet.setValue("quantity", 3);
+        sheet.setValue("tax", 0.5);
+        sheet.setFormula("net", "price * quantity");
+        sheet.setFormula("gross", "net * (1 + tax)");
+        sheet.setFormula("shipping", "quantity * 2");
+        assertEquals(45.0, sheet.get("gross"));
+        assertEquals(6.0, sheet.get("shipping"));
+        assertEquals(3, sheet.getEvaluations());
+        assertEquals("price * quantity", sheet.getFormula("net"));
+        assertEquals(6, sheet.size());
+
+        // only the formulas downstream of the change are evaluated
+        sheet.setValue("tax", 0.25);
+        assertEquals(1, sheet.getDirtyCount() - 1);
+        assertEquals(1, sheet.recalculate());
+        assertEquals(37.5, sheet.get("gross"));
+        sheet.setValue("price", 12);
+        assertEquals(2, sheet.recalculate());
+        assertEquals(45.0, sheet.get("gross"));
+        assertEquals(6.0, sheet.get("shipping"));
+        // setting the same value changes nothing
+        sheet.setValue("price", 12);
+        assertEquals(0, sheet.getDirtyCount());
+
+        // a formula replaced by a value
+        sheet.setValue("net", 100);
+        assertEquals(125.0, sheet.get("gross"));
+        sheet.setValue("price", 1);
+        assertEquals(0, sheet.recalculate());
+    }
+
+    @Test
+    void testChangeStopsWhereValuesDontChange() {
+        FormulaSheet sheet = new FormulaSheet();
+        sheet.setValue("x", 1);
+        sheet.setFormula("sign", "x / x");
+        sheet.setFormula("a", "sign * 10");
+        sheet.setFormula("b", "a + sign");
+        assertEquals(11.0, sheet.get("b"));
+        long before = sheet.getEvaluations();
+        sheet.setValue("x", 5);
+        // all three are dirty, but only sign is evaluated: its value stays 1
+        assertEquals(3, sheet.getDirtyCount() - 1);
+        assertEquals(1, sheet.recalculate());
+        assertEquals(before + 1, sheet.getEvaluations());
+        assertEquals(11.0, sheet.get("b"));
+    }
+
+    @Test
+    void testErrors() {
+        FormulaSheet sheet = new FormulaSheet();
+        sheet.setFormula("ratio", "a / b");
+        sheet.setFormula("total", "ratio + 1");
+        assertTrue(Double.isNaN(sheet.get("ratio")));
+        assertEquals("Undefined cell 'a'", sheet.getError("ratio"));
+        assertEquals("Failed cell 'ratio'", sheet.getError("total"));
+
+        sheet.setValue("a", 6);
+        sheet.setValue("b", 0);
+        assertTrue(Double.isNaN(sheet.get("total")));
+        assertTrue(sheet.getError("ratio").contains("by zero") || sheet.getError("ratio").contains("0"),
+                sheet.getError("ratio"));
+
+        sheet.setValue("b", 3);
+        assertEquals(3.0, sheet.get("total"));
+        assertNull(sheet.getError("total"));
+
+        sheet.remove("a");
+        assertEquals("Undefined cell 'a'", sheet.getError("ratio"));
+        assertEquals("Undefined cell 'a'", sheet.getError("a"));
+        sheet.setValue("a", 9);
+        assertEquals(4.0, sheet.get("total"));
+
+        assertThrows(IllegalArgumentException.class, () -> sheet.setValue("1x", 1));
+        assertThrows(IllegalArgumentException.class, () -> sheet.setValue("sin", 1));
+        assertThrows(IllegalArgumentException.class, () -> sheet.setFormula("c", "a +"));
+    }
+
+    @Test
+    void testCircularReferences() {
+        FormulaSheet sheet = new FormulaSheet();
+        sheet.setValue("a", 1);
+        sheet.setFormula("b", "a + 1");
+        sheet.setFormula("c", "b * 2");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> sheet.setFormula("a", "c - 1"));
+        assertEquals("Circular reference: a -> c -> b -> a", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> sheet.setFormula("d", "d + 1"));
+        // the sheet is unchanged
+        assertEquals(4.0, sheet.get("c"));
+        sheet.setValue("a", 2);
+        assertEquals(6.0, sheet.get("c"));
+    }
+
+    @Test
+    void testParallelLevels() {
+        int width = 5000;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            FormulaSheet sheet = new FormulaSheet(new ExpressionEngine(), pool, 64);
+            FormulaSheet sequential = new FormulaSheet(new ExpressionEngine(), pool, Integer.MAX_VALUE);
+            for (FormulaSheet s : new FormulaSheet[]{sheet, sequential}) {
+                s.setValue("base", 2);
+                for (int i = 0; i < width; i++) {
+                    s.setValue("in" + i, i);
+                    s.setFormula("mid" + i, "in" + i + " * base + sin(in" + i + ")");
+                    s.setFormula("out" + i, "mid" + i + " ^ 2 - base");
+                }
+                s.setFormula("sum", "out0 + out" + (width / 2) + " + out" + (width - 1));
+                assertEquals(2 * width + 1, s.recalculate());
+            }
+            for (int i = 0; i < width; i += 97) {
+                assertEquals(sequential.get("out" + i), sheet.get("out" + i));
+            }
+            assertEquals(sequential.get("sum"), sheet.get("sum"));
+
+            // a wide change goes in parallel, a narrow one touches two cells
+            sheet.setValue("base", 3);
+            sequential.setValue("base", 3);
+            assertEquals(2 * width + 1, sheet.recalculate());
+            assertEquals(sequential.get("sum"), sheet.get("sum"));
+            sheet.setValue("in7", 70);
+            assertEquals(2, sheet.recalculate());
+            assertEquals(Math.pow(70 * 3 + Math.sin(70), 2) - 3, sheet.get("out7"), 1e-6);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
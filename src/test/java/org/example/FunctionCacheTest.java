@@ -0,0 +1,88 @@
+package org.example;
+
+import cmath.Backend;
+import cmath.CompiledExpression;
+import cmath.ExpressionEngine;
+import cmath.FunctionCache;
+import cmath.UpdatedCalculator;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the memo of function results and the integer powers
+ */
+public class FunctionCacheTest {
+
+    @Test
+    void testIntegerPowers() {
+        CompiledExpression power = UpdatedCalculator.compile("x ^ n", "x", "n");
+        Random random = new Random(5);
+        for (int i = 0; i < 10_000; i++) {
+            double x = random.nextGaussian() * 10;
+            int n = random.nextInt(65) - 32;
+            double expected = Math.pow(x, n);
+            assertEquals(expected, power.evaluate(new double[]{x, n}), Math.ulp(expected), x + " ^ " + n);
+        }
+        assertEquals(1024.0, UpdatedCalculator.eval("2 ^ 10", false));
+        assertEquals(-8.0, UpdatedCalculator.eval("(0 - 2) ^ 3", false));
+        assertEquals(0.125, UpdatedCalculator.eval("2 ^ (0 - 3)", false));
+        // the edge cases are Math.pow's
+        double[][] cases = {{0, -1}, {-0.0, -1}, {-0.0, 3}, {1e200, 2}, {1e-200, 3}, {1e20, -16},
+                {Double.NaN, 0}, {Double.NaN, 2}, {Double.NEGATIVE_INFINITY, 3}, {2, 0.5}, {2, 40}};
+        for (double[] c : cases) {
+            assertEquals(Math.pow(c[0], c[1]), power.evaluate(c), c[0] + " ^ " + c[1]);
+        }
+        // without squaring every power is Math.pow's, bit for bit
+        FunctionCache.setSquaringPowers(false);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                double x = random.nextGaussian() * 10;
+                int n = random.nextInt(65) - 32;
+                assertEquals(Double.doubleToRawLongBits(Math.pow(x, n)),
+                        Double.doubleToRawLongBits(power.evaluate(new double[]{x, n})), x + " ^ " + n);
+            }
+        } finally {
+            FunctionCache.setSquaringPowers(true);
+        }
+        assertTrue(FunctionCache.isSquaringPowers());
+    }
+
+    @Test
+    void testMemo() {
+        String text = "sin(x) + cos(x) * tan(x) - x ^ 3";
+        CompiledExpression expression = UpdatedCalculator.compile(text, "x");
+        double[] expected = new double[360];
+        for (int degree = 0; degree < 360; degree++) {
+            expected[degree] = expression.evaluate(new double[]{Math.toRadians(degree)});
+        }
+        FunctionCache.clear();
+        FunctionCache.setEnabled(true);
+        try {
+            assertEquals(0, FunctionCache.getHitRate());
+            for (Backend backend : Backend.values()) {
+                ToDoubleFunction<double[]> function = expression.toFunction(backend);
+                for (int degree = 0; degree < 360; degree++) {
+                    double value = function.applyAsDouble(new double[]{Math.toRadians(degree)});
+                    assertEquals(Double.doubleToRawLongBits(expected[degree]), Double.doubleToRawLongBits(value),
+                            backend + ": " + degree);
+                }
+            }
+            // every argument is looked up in every backend, and computed about once
+            long lookups = 4L * 360 * Backend.values().length;
+            assertEquals(lookups, FunctionCache.getHits() + FunctionCache.getMisses());
+            assertTrue(FunctionCache.getMisses() < 4 * 360 + 100, FunctionCache.getMisses() + " misses");
+            assertTrue(FunctionCache.getHitRate() > 0.6, Double.toString(FunctionCache.getHitRate()));
+            assertEquals(FunctionCache.getHitRate(), new ExpressionEngine().getMetrics().getFunctionCacheHitRate());
+        } finally {
+            FunctionCache.setEnabled(false);
+            FunctionCache.clear();
+        }
+        assertEquals(expected[90], expression.evaluate(new double[]{Math.toRadians(90)}));
+        assertEquals(0, FunctionCache.getHits() + FunctionCache.getMisses());
+    }
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import utils.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the asynchronous console logger
+ */
+public class LoggerTest {
+    private ByteArrayOutputStream output;
+
+    @BeforeEach
+    void redirect() {
+        output = new ByteArrayOutputStream();
+        Logger.setOutput(Channels.newChannel(output));
+    }
+
+    @AfterEach
+    void restore() {
+        Logger.setLevel(Logger.Level.INFO);
+        Logger.resetOutput();
+    }
+
+    @Test
+    void testFormat() {
+        Logger.write("Added:", 5, "\n");
+        Logger.write("a", 1.5, 2L, "b\n");
+        Logger.writeLine("x", "ü€😀");
+        Logger.log(Logger.Level.WARN, "careful");
+        Logger.log(Logger.Level.ERROR, "failed", 42);
+        Logger.log(Logger.Level.INFO, () -> "made lazily");
+        Logger.flush();
+        assertEquals("Added: 5 \na 1.5 2 b\nx\nü€😀\nWARN careful\nERROR failed 42\nINFO made lazily\n",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDisabledLevels() {
+        Object noisy = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("Formatted below the level");
+            }
+        };
+        Logger.setLevel(Logger.Level.WARN);
+        assertEquals(Logger.Level.WARN, Logger.getLevel());
+        assertFalse(Logger.isEnabled(Logger.Level.INFO));
+        Logger.write(noisy);
+        Logger.log(Logger.Level.DEBUG, noisy);
+        Logger.log(Logger.Level.INFO, () -> {
+            throw new AssertionError("Called below the level");
+        });
+        Logger.log(Logger.Level.WARN, "shown");
+        Logger.setLevel(Logger.Level.OFF);
+        Logger.log(Logger.Level.ERROR, noisy);
+        Logger.flush();
+        assertEquals("WARN shown\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testConcurrentWriters() throws InterruptedException {
+        // more messages than slots, so the threads wait for the writer
+        int threadCount = 4;
+        int messages = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < messages; i++) {
+                    Logger.log(Logger.Level.INFO, id, i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Logger.flush();
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(threadCount * messages, lines.length);
+        int[] next = new int[threadCount];
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            int id = Integer.parseInt(parts[1]);
+            assertEquals(next[id]++, Integer.parseInt(parts[2]), line);
+        }
+        for (int count : next) {
+            assertEquals(messages, count);
+        }
+    }
+
+    @Test
+    void testBrokenOutput() {
+        long failures = Logger.getFailedWrites();
+        Logger.setOutput(new Channel() {
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                throw new IOException("Disk full");
+            }
+        });
+        Logger.log(Logger.Level.ERROR, "lost");
+        Logger.flush();
+        assertEquals(failures + 1, Logger.getFailedWrites());
+
+        // the writer thread survives an unchecked exception too
+        Logger.setOutput(new Channel() {
+            @Override
+            public int write(ByteBuffer source) {
+                throw new IllegalStateException("Closed");
+            }
+        });
+        Logger.log(Logger.Level.ERROR, "lost");
+        Logger.flush();
+        assertEquals(failures + 2, Logger.getFailedWrites());
+        Logger.setOutput(Channels.newChannel(output));
+        Logger.log(Logger.Level.INFO, "written");
+        Logger.flush();
+        assertEquals("INFO written\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testLoggingFromTheWriter() {
+        // a channel logging more messages than slots, so the writer thread finds the ring full
+        WritableByteChannel target = Channels.newChannel(output);
+        long dropped = Logger.getDroppedMessages();
+        Logger.setOutput(new Channel() {
+            private boolean logged;
+
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                if (!logged) {
+                    logged = true;
+                    for (int i = 0; i < 3000; i++) {
+                        Logger.log(Logger.Level.INFO, "from the channel", i);
+                    }
+                    Logger.flush();
+                }
+                return target.write(source);
+            }
+        });
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Logger.log(Logger.Level.INFO, "first");
+            Logger.flush();
+            Logger.log(Logger.Level.INFO, "last");
+            Logger.flush();
+        });
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals("INFO first", lines[0]);
+        assertEquals("INFO last", lines[lines.length - 1]);
+        long kept = lines.length - 2;
+        assertTrue(kept > 0 && kept < 3000, kept + " kept");
+        assertEquals(3000 - kept, Logger.getDroppedMessages() - dropped);
+    }
+
+    /**
+     * An open channel, to override write of
+     */
+    private abstract static class Channel implements WritableByteChannel {
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
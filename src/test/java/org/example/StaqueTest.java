@@ -0,0 +1,168 @@
+package org.example;
+
+import linkedlist.staque.ActionLog;
+import linkedlist.staque.ArrayQueue;
+import linkedlist.staque.ArrayStack;
+import linkedlist.staque.IStaque;
+import linkedlist.staque.Queue;
+import linkedlist.staque.Stack;
+import linkedlist.staque.StaqueAction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the array-based Stack and Queue collections
+ */
+public class StaqueTest {
+
+    @Test
+    void testArrayStackMatchesStack() {
+        assertSameBehaviour(new Stack<>(), new ArrayStack<>(2));
+    }
+
+    @Test
+    void testArrayQueueMatchesQueue() {
+        assertSameBehaviour(new Queue<>(), new ArrayQueue<>(2));
+    }
+
+    @Test
+    void testArrayQueueWrapsAround() {
+        ArrayQueue<Integer> queue = new ArrayQueue<>(4);
+        queue.add(0);
+        queue.add(1);
+        queue.add(2);
+        for (int i = 3; i < 100; i++) {
+            queue.add(i);
+            assertEquals(i - 3, queue.extract());
+        }
+        queue.ensureCapacity(10);
+        queue.add(100);
+        queue.trimToSize();
+        assertEquals("97 98 99 100 ", queue.toString());
+        assertEquals(97, queue.extract());
+    }
+
+    @Test
+    void testDoActions() {
+        ArrayStack<Integer> stack = new ArrayStack<>();
+        StaqueAction<Integer>[] actions = actions(
+                StaqueAction.add(1), StaqueAction.add(2), StaqueAction.get(), StaqueAction.extract(), StaqueAction.add(3));
+        stack.doActions(actions, false);
+        assertEquals("3 1 ", stack.toString());
+    }
+
+    @Test
+    void testActionLogMatchesDoActions() {
+        // runs of various lengths, so the ring buffer wraps around and grows
+        List<StaqueAction<Integer>> recorded = new ArrayList<>();
+        int size = 0;
+        for (int i = 0; i < 5000; i++) {
+            int run = 1 + i * 7 % 23;
+            for (int j = 0; j < run; j++) {
+                switch (i % 3) {
+                    case 0 -> {
+                        recorded.add(StaqueAction.add(i * 100 + j));
+                        size++;
+                    }
+                    case 1 -> recorded.add(size > 0 ? StaqueAction.get() : StaqueAction.add(j));
+                    default -> {
+                        if (size > 0) {
+                            recorded.add(StaqueAction.extract());
+                            size--;
+                        }
+                    }
+                }
+            }
+        }
+        StaqueAction<Integer>[] actions = recorded.toArray(StaqueTest.<Integer>actions());
+        ActionLog<Integer> log = ActionLog.of(actions);
+        assertEquals(actions.length, log.length());
+
+        List<IStaque<Integer>> collections = List.of(new Stack<>(), new Queue<>(), new ArrayStack<>(), new ArrayQueue<>(2));
+        for (IStaque<Integer> collection : collections) {
+            IStaque<Integer> expected = collection instanceof Stack || collection instanceof ArrayStack
+                    ? new Stack<>() : new Queue<>();
+            Integer[] expectedResults = new Integer[log.getResultCount()];
+            int count = 0;
+            for (StaqueAction<Integer> action : actions) {
+                switch (action.type) {
+                    case ADD -> expected.add(action.value);
+                    case GET -> expectedResults[count++] = expected.get();
+                    case EXTRACT -> expectedResults[count++] = expected.extract();
+                }
+            }
+            Integer[] results = new Integer[log.getResultCount()];
+            assertEquals(results.length, collection.doActions(log, results));
+            assertArrayEquals(expectedResults, results);
+            assertEquals(expected.toString(), collection.toString());
+        }
+    }
+
+    @Test
+    void testActionLogEncoding() {
+        ActionLog<String> log = new ActionLog<String>(0).add("a").add("b").get().extract().extract();
+        assertEquals("ADD a ADD b GET EXTRACT EXTRACT ", log.toString());
+        assertEquals(3, log.getResultCount());
+        assertEquals(ActionLog.GET, log.opcodeAt(2));
+        assertEquals("b", log.valueAt(1));
+
+        byte[] opcodes = {ActionLog.ADD, ActionLog.EXTRACT};
+        Object[] values = {"c", null};
+        ActionLog<String> wrapped = new ActionLog<>(opcodes, values);
+        opcodes[1] = ActionLog.ADD;
+        values[0] = "d";
+        assertEquals("ADD c EXTRACT ", wrapped.toString());
+        String[] results = new String[1];
+        ArrayQueue<String> queue = new ArrayQueue<>(0);
+        queue.doActions(wrapped, results);
+        assertEquals("c", results[0]);
+        assertTrue(queue.isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> new ActionLog<>(new byte[]{3}, new Object[1]));
+        assertThrows(IllegalArgumentException.class, () -> queue.doActions(log, new String[2]));
+        assertThrows(NoSuchElementException.class, () -> queue.doActions(wrapped.extract(), new String[2]));
+        assertThrows(IndexOutOfBoundsException.class, () -> log.opcodeAt(5));
+    }
+
+    @Test
+    void testEmptyCollections() {
+        assertThrows(NoSuchElementException.class, () -> new ArrayStack<Integer>().get());
+        assertThrows(NoSuchElementException.class, () -> new ArrayQueue<Integer>(0).extract());
+        assertTrue(new ArrayQueue<Integer>(0).isEmpty());
+    }
+
+    /**
+     * Collects actions into an array of their parameterized type
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")    // the array is only handed to doActions and ActionLog, which read it
+    private static <T> StaqueAction<T>[] actions(StaqueAction<T>... actions) {
+        return actions;
+    }
+
+    /**
+     * Applies the same random-ish sequence of additions and extractions
+     * to both collections and compares their state after every step
+     */
+    private static void assertSameBehaviour(IStaque<Integer> expected, IStaque<Integer> actual) {
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 == 2 && !expected.isEmpty()) {
+                assertEquals(expected.extract(), actual.extract());
+            } else {
+                expected.add(i);
+                actual.add(i);
+            }
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.get(), actual.get());
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+}
@@ -0,0 +1,65 @@
+package org.example;
+
+import cmath.CompiledExpression;
+import cmath.StreamEvaluator;
+import cmath.UpdatedCalculator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for the streaming evaluation of files
+ */
+public class StreamEvaluatorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testExpressions() throws IOException {
+        Path input = directory.resolve("expressions.txt");
+        Path output = directory.resolve("results.txt");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(i).append(" * 2 + sin(").append(i).append(")").append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        text.append("1 / 0\n(1 +\n2 ^ 10");    // the last line has no line end
+        Files.writeString(input, text);
+
+        // small windows make lines cross the window boundaries
+        StreamEvaluator.Summary summary = new StreamEvaluator(64).evaluateExpressions(input, output);
+        assertEquals(new StreamEvaluator.Summary(1003, 2), summary);
+        List<String> results = Files.readAllLines(output);
+        assertEquals(1003, results.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(UpdatedCalculator.eval(i + " * 2 + sin(" + i + ")", true), Double.parseDouble(results.get(i)));
+        }
+        assertEquals(List.of("NaN", "NaN", "1024.0"), results.subList(1000, 1003));
+    }
+
+    @Test
+    void testRows() throws IOException {
+        Path input = directory.resolve("rows.csv");
+        Path output = directory.resolve("results.txt");
+        Files.writeString(input, "1,2\n-1.5, 4e2\n3 0\n5\n1,2,3\n7;x\n9999999999999999999,1\n");
+        CompiledExpression expression = UpdatedCalculator.compile("x * y + x / y");
+        StreamEvaluator.Summary summary = new StreamEvaluator().evaluateRows(expression, input, output);
+        assertEquals(new StreamEvaluator.Summary(7, 4), summary);
+        assertEquals(List.of("2.5", String.valueOf(-1.5 * 400 + -1.5 / 400), "NaN", "NaN", "NaN", "NaN", String.valueOf(2e19)),
+                Files.readAllLines(output));
+    }
+
+    @Test
+    void testLongLine() throws IOException {
+        Path input = directory.resolve("long.txt");
+        Files.writeString(input, "1 + 2 + 3 + 4 + 5\n1\n");
+        assertThrows(IOException.class,
+                () -> new StreamEvaluator(8).evaluateExpressions(input, directory.resolve("out.txt")));
+    }
+}